@@ -0,0 +1,77 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.benchmarks;
+
+import org.jboss.aerogear.adm.ADM;
+import org.jboss.aerogear.adm.CompiledPayload;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of turning a data map into a payload, once through {@link org.jboss.aerogear.adm.PayloadBuilder#build()}
+ * for every message and once by binding a single field of a {@link CompiledPayload}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadBuilderBenchmark {
+
+    /**
+     * Number of entries in the data map, from a typical notification to a payload close to the ADM limit.
+     */
+    @Param({"2", "32", "256"})
+    public int dataFields;
+
+    private Map<String, String> data;
+    private CompiledPayload compiled;
+
+    @Setup
+    public void setUp() {
+        data = new LinkedHashMap<String, String>();
+        for (int i = 0; i < dataFields; i++) {
+            data.put("key" + i, "value of the field number " + i);
+        }
+        compiled = ADM.newPayload().dataFields(data).templateField("alert").consolidationKey("benchmark").compile();
+    }
+
+    @Benchmark
+    public String build() {
+        return ADM.newPayload().dataFields(data).consolidationKey("benchmark").expiresAfter(86400).build();
+    }
+
+    @Benchmark
+    public byte[] bindCompiled() {
+        return compiled.with("alert", "Hello").getBytes();
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.benchmarks;
+
+import org.jboss.aerogear.adm.internal.Utilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading the bodies ADM answers with, the raw {@link Utilities#parseResponse} and the extraction
+ * of single fields through {@link Utilities#getStringFromJson}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseParsingBenchmark {
+
+    private static final String SEND_RESULT = "{\"registrationID\":\"amzn1.adm-registration.v3.Y29tLmFtYXpvbi5EZXZpY2VNZXNzYWdpbmcuUmVnaXN0cmF0aW9uSWRFbmNyeXB0aW9uS2V5ITEhOE9rZ2h5YmRycGhidTRSUmc\"}";
+    private static final String TOKEN = "{\"access_token\":\"Atc|MQEWYJxEnP3I1ND03ZzbY_NxQkA7Kn7Aioev_OfMRcyVQ4NxGzJMEaKJ8f0lSOiV-yW270o6fnkI\","
+            + "\"expires_in\":3600,\"scope\":\"messaging:push\",\"token_type\":\"Bearer\"}";
+
+    private final byte[] sendResult = SEND_RESULT.getBytes(Utilities.UTF_8_CHARSET);
+    private final byte[] token = TOKEN.getBytes(Utilities.UTF_8_CHARSET);
+
+    @Benchmark
+    public String parseResponse() throws IOException {
+        return Utilities.parseResponse(new ByteArrayInputStream(sendResult));
+    }
+
+    @Benchmark
+    public String registrationIdFromString() {
+        return Utilities.getStringFromJson(SEND_RESULT, "registrationID");
+    }
+
+    @Benchmark
+    public String registrationIdFromStream() throws IOException {
+        return Utilities.getStringFromJson(new ByteArrayInputStream(sendResult), "registrationID");
+    }
+
+    @Benchmark
+    public String[] tokenFields() throws IOException {
+        return Utilities.getStringsFromJson(new ByteArrayInputStream(token), "access_token", "expires_in");
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.benchmarks;
+
+import org.jboss.aerogear.adm.ADM;
+import org.jboss.aerogear.adm.AdmService;
+import org.jboss.aerogear.adm.CompiledPayload;
+import org.jboss.aerogear.adm.mock.MockAdmServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the complete {@link AdmService#sendMessageToDevice} path, from the cached token through the
+ * pooled transport to the parsed result, against a local {@link MockAdmServer} at increasing concurrency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SendBenchmark {
+
+    private static final String PAYLOAD = "{\"data\":{\"alert\":\"Hello from the benchmark\",\"sound\":\"default\"},\"consolidationKey\":\"benchmark\"}";
+
+    private MockAdmServer server;
+    private AdmService service;
+    private CompiledPayload compiled;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = new MockAdmServer();
+        service = ADM.newServiceBuilder().endpoint(server.getEndpoint()).build();
+        compiled = CompiledPayload.of(PAYLOAD);
+        // fetch the token outside of the measurement
+        service.sendMessageToDevice("warm-up", "benchmark", "secret", PAYLOAD);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        service.close();
+        server.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String send1() throws Exception {
+        return service.sendMessageToDevice("device", "benchmark", "secret", PAYLOAD);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String send8() throws Exception {
+        return service.sendMessageToDevice("device", "benchmark", "secret", PAYLOAD);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public String send32() throws Exception {
+        return service.sendMessageToDevice("device", "benchmark", "secret", PAYLOAD);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public String sendCompiled32() throws Exception {
+        return service.sendMessageToDevice("device", "benchmark", "secret", compiled);
+    }
+}
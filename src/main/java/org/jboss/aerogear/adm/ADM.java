@@ -40,4 +40,11 @@ public final class ADM {
         return new AdmService();
     }
 
+    /**
+     * @return a new {@link AdmServiceBuilder} for configuring an {@link AdmService}
+     */
+    public static AdmServiceBuilder newServiceBuilder() {
+        return new AdmServiceBuilder();
+    }
+
 }
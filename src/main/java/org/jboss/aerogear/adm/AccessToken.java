@@ -0,0 +1,62 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An access token issued by the Amazon token endpoint, together with its lifetime.
+ */
+public final class AccessToken {
+
+    private final String token;
+    private final long refreshAt;
+    private final long expiresAt;
+
+    /**
+     * @param token the value of the access token
+     * @param expiresIn the number of seconds the token is valid, as returned in the {@code expires_in} field
+     */
+    public AccessToken(final String token, final long expiresIn) {
+        this(token, expiresIn, System.currentTimeMillis());
+    }
+
+    AccessToken(final String token, final long expiresIn, final long issuedAt) {
+        final long lifetime = TimeUnit.SECONDS.toMillis(expiresIn);
+        this.token = token;
+        // refresh once three quarters of the lifetime are over, and stop using the
+        // token shortly before it really expires to account for clock skew and network time
+        this.refreshAt = issuedAt + lifetime / 4 * 3;
+        this.expiresAt = issuedAt + lifetime / 20 * 19;
+    }
+
+    /**
+     * @return the value of the access token
+     */
+    public String getToken() {
+        return token;
+    }
+
+    boolean isExpired(final long now) {
+        return now >= expiresAt;
+    }
+
+    boolean needsRefresh(final long now) {
+        return now >= refreshAt;
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A token bucket rate limiter keeping a separate rate per ADM clientId. The rate starts at the configured
+ * maximum, is halved whenever ADM answers with HTTP 429 and grows back step by step with every
+ * accepted message. A {@code Retry-After} sent with the 429 pauses all sends of the clientId until it has passed,
+ * including those already waiting for their turn.
+ *
+ * A service only reacts to HTTP 429 if it has been given a limiter through
+ * {@link AdmServiceBuilder#rateLimiter(AdaptiveRateLimiter)}, there is none by default.
+ */
+public class AdaptiveRateLimiter {
+
+    private final double maxRate;
+    private final double minRate;
+    private final double maxStoredPermits;
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+
+    /**
+     * @param maxRate the maximum number of messages per second and clientId
+     */
+    public AdaptiveRateLimiter(final double maxRate) {
+        this(maxRate, Math.min(1, maxRate), Math.max(1, maxRate / 10));
+    }
+
+    /**
+     * @param maxRate the maximum number of messages per second and clientId
+     * @param minRate the rate throttling will never go below
+     * @param maxBurst the number of messages which may be sent at once after a quiet period
+     */
+    public AdaptiveRateLimiter(final double maxRate, final double minRate, final double maxBurst) {
+        if (maxRate <= 0 || minRate <= 0 || minRate > maxRate) {
+            throw new IllegalArgumentException("rates must be positive and minRate must not exceed maxRate");
+        }
+        if (maxBurst < 1) {
+            throw new IllegalArgumentException("maxBurst must be at least 1");
+        }
+        this.maxRate = maxRate;
+        this.minRate = minRate;
+        // the permit of the current slot is always available, only the rest of the burst is stored
+        this.maxStoredPermits = maxBurst - 1;
+    }
+
+    /**
+     * Waits until the clientId may send its next message.
+     *
+     * @param clientId unique ID supplied by ADM Services
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public void acquire(final String clientId) throws InterruptedException {
+        final Bucket bucket = bucket(clientId);
+        long slot = bucket.reserve(System.nanoTime());
+        while (true) {
+            final long wait = slot - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            // a 429 received while waiting pauses the slot reserved before it as well
+            if (!bucket.isPausedAt(slot)) {
+                return;
+            }
+            slot = bucket.reserve(System.nanoTime());
+        }
+    }
+
+    /**
+     * Reports a message accepted by ADM, letting the rate of the clientId recover.
+     *
+     * @param clientId unique ID supplied by ADM Services
+     */
+    public void onSuccess(final String clientId) {
+        bucket(clientId).increase();
+    }
+
+    /**
+     * Reports a message rejected with HTTP 429, halving the rate of the clientId.
+     *
+     * @param clientId unique ID supplied by ADM Services
+     * @param retryAfterMillis the delay requested by the {@code Retry-After} header, or a negative value if there was none
+     */
+    public void onThrottled(final String clientId, final long retryAfterMillis) {
+        bucket(clientId).decrease(System.nanoTime(), retryAfterMillis);
+    }
+
+    /**
+     * @param clientId unique ID supplied by ADM Services
+     * @return the current rate of the clientId, in messages per second
+     */
+    public double getRate(final String clientId) {
+        return bucket(clientId).getRate();
+    }
+
+    private Bucket bucket(final String clientId) {
+        Bucket bucket = buckets.get(clientId);
+        if (bucket == null) {
+            final Bucket created = new Bucket();
+            bucket = buckets.putIfAbsent(clientId, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * The bucket of a single clientId. Instead of refilling tokens periodically it hands out
+     * time slots, stored permits allow a burst after a quiet period. It is guarded by a {@link ReentrantLock},
+     * which does not pin virtual threads to their carrier.
+     */
+    private final class Bucket {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private double rate = maxRate;
+        private double storedPermits = maxStoredPermits;
+        private long nextFree = System.nanoTime();
+        private long pausedUntil = nextFree;
+
+        long reserve(final long now) {
+            lock.lock();
+            try {
+                final double interval = TimeUnit.SECONDS.toNanos(1) / rate;
+                if (now > nextFree) {
+                    storedPermits = Math.min(maxStoredPermits, storedPermits + (now - nextFree) / interval);
+                    nextFree = now;
+                }
+                if (pausedUntil - nextFree > 0) {
+                    nextFree = pausedUntil;
+                    storedPermits = 0;
+                }
+
+                final long slot = nextFree;
+                final double fromStore = Math.min(1, storedPermits);
+                storedPermits -= fromStore;
+                nextFree += (long) ((1 - fromStore) * interval);
+                return slot;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean isPausedAt(final long slot) {
+            lock.lock();
+            try {
+                return pausedUntil - slot > 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void increase() {
+            lock.lock();
+            try {
+                rate = Math.min(maxRate, rate + maxRate / 100);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void decrease(final long now, final long retryAfterMillis) {
+            lock.lock();
+            try {
+                rate = Math.max(minRate, rate / 2);
+                storedPermits = 0;
+                if (retryAfterMillis > 0) {
+                    final long until = now + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis);
+                    if (until - pausedUntil > 0) {
+                        pausedUntil = until;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        double getRate() {
+            lock.lock();
+            try {
+                return rate;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+/**
+ * The credentials of an app registered for ADM, as supplied by the Amazon developer console.
+ */
+public final class AdmCredentials {
+
+    private final String clientId;
+    private final String clientSecret;
+
+    /**
+     * @param clientId unique ID supplied by ADM Services
+     * @param clientSecret secret value supplied by ADM services
+     */
+    public AdmCredentials(final String clientId, final String clientSecret) {
+        if (clientId == null || clientSecret == null) {
+            throw new IllegalArgumentException("clientId and clientSecret must not be null");
+        }
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public String getClientSecret() {
+        return clientSecret;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AdmCredentials)) {
+            return false;
+        }
+        final AdmCredentials other = (AdmCredentials) o;
+        return clientId.equals(other.clientId) && clientSecret.equals(other.clientSecret);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * clientId.hashCode() + clientSecret.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        // never leak the secret into logs
+        return "AdmCredentials{clientId=" + clientId + "}";
+    }
+}
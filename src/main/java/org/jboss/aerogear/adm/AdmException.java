@@ -0,0 +1,73 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import org.jboss.aerogear.adm.internal.Utilities;
+
+/**
+ * Thrown when ADM rejects a request with a non-successful HTTP response.
+ */
+public class AdmException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final String errorContent;
+
+    public AdmException(final int statusCode, final String errorContent) {
+        this("enqueue", statusCode, errorContent);
+    }
+
+    AdmException(final String request, final int statusCode, final String errorContent) {
+        super(String.format("ERROR: The %s request failed with a " +
+                "%d response code, with the following message: %s",
+                request, statusCode, errorContent));
+        this.statusCode = statusCode;
+        this.errorContent = errorContent;
+    }
+
+    /**
+     * @return the HTTP status code returned by ADM
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the body of the error response returned by ADM
+     */
+    public String getErrorContent() {
+        return errorContent;
+    }
+
+    /**
+     * @return the {@code reason} field of the error response, e.g. {@code InvalidRegistrationId},
+     * or {@code null} if the response does not contain one
+     */
+    public String getReason() {
+        if (errorContent == null || errorContent.isEmpty()) {
+            return null;
+        }
+        try {
+            return Utilities.getStringFromJson(errorContent, "reason");
+        } catch (IllegalArgumentException e) {
+            // not a JSON document
+            return null;
+        }
+    }
+}
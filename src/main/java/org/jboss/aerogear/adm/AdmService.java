@@ -16,12 +16,43 @@
  */
 package org.jboss.aerogear.adm;
 
+import org.jboss.aerogear.adm.feedback.FeedbackStore;
 import org.jboss.aerogear.adm.internal.Utilities;
+import org.jboss.aerogear.adm.metrics.AdmMetrics;
 
 
-import javax.net.ssl.HttpsURLConnection;
-import java.io.OutputStream;
+import org.jboss.aerogear.adm.internal.NamedThreadFactory;
+import org.jboss.aerogear.adm.internal.VirtualThreads;
+import org.jboss.aerogear.adm.transport.HttpTransport;
+import org.jboss.aerogear.adm.transport.PooledHttpTransport;
+import org.jboss.aerogear.adm.transport.RequestHandle;
+import org.jboss.aerogear.adm.transport.TransportResponse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -29,13 +60,71 @@ import java.net.URL;
  * The code is freely inspired from <a href="https://developer.amazon.com/appsandservices/apis/engage/device-messaging/tech-docs/06-sending-a-message">Amazon's Developers Documentation</a>
  *
  */
-public class AdmService {
+public class AdmService implements Closeable {
+
+    /**
+     * Default number of requests which may be in flight through {@link #sendMessageToDeviceAsync} at the same time.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 64;
 
+    /**
+     * The reasons of ADM error responses telling that a device can no longer be reached.
+     */
+    private static final String INVALID_REGISTRATION_ID = "InvalidRegistrationId";
+    private static final String UNREGISTERED = "Unregistered";
+
+    private final HttpTransport transport;
+    private final boolean ownsTransport;
     private final TokenService tokenService;
-    private String accessToken;
+    private final AdaptiveRateLimiter rateLimiter;
+    private final RetryPolicy retryPolicy;
+    private final CircuitBreaker circuitBreaker;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final Semaphore inFlightRequests;
+    private final Queue<QueuedRequest> queuedRequests = new ConcurrentLinkedQueue<QueuedRequest>();
+    private final String endpoint;
+    private final String messageUrlTemplate;
+    private final AdmMetrics metrics;
+    private final FeedbackStore feedbackStore;
 
     public AdmService() {
-        this.tokenService = new TokenService();
+        this(new AdmServiceBuilder());
+    }
+
+    AdmService(final AdmServiceBuilder builder) {
+        // the executor first, looking up virtual threads fails before the transport has started its evictor
+        if (builder.getExecutor() != null) {
+            this.executor = builder.getExecutor();
+            this.ownedExecutor = null;
+        } else if (builder.isVirtualThreads()) {
+            // a virtual thread per request, the in-flight semaphore bounds their number
+            this.ownedExecutor = VirtualThreads.newThreadPerTaskExecutor("adm-sender");
+            this.executor = ownedExecutor;
+        } else {
+            // one worker per in-flight request, idle workers die off after a minute
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(builder.getMaxInFlightRequests(), builder.getMaxInFlightRequests(),
+                    60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("adm-sender"));
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+            this.ownedExecutor = pool;
+        }
+
+        this.ownsTransport = builder.getTransport() == null;
+        // a connection for every request which may be in flight, so the pool does not cap the concurrency
+        this.transport = ownsTransport
+                ? new PooledHttpTransport(Math.max(PooledHttpTransport.DEFAULT_MAX_CONNECTIONS_PER_HOST, builder.getMaxInFlightRequests()),
+                        PooledHttpTransport.DEFAULT_CONNECT_TIMEOUT, PooledHttpTransport.DEFAULT_READ_TIMEOUT, PooledHttpTransport.DEFAULT_IDLE_TIMEOUT)
+                : builder.getTransport();
+        this.tokenService = builder.getTokenService() != null ? builder.getTokenService() : new TokenService(transport, builder.getEndpoint(), builder.getMetrics());
+        this.metrics = builder.getMetrics();
+        this.feedbackStore = builder.getFeedbackStore();
+        this.endpoint = builder.getEndpoint();
+        this.messageUrlTemplate = endpoint + Utilities.MESSAGES_PATH_TEMPLATE;
+        this.rateLimiter = builder.getRateLimiter();
+        this.retryPolicy = builder.getRetryPolicy();
+        this.circuitBreaker = builder.getCircuitBreaker();
+        this.inFlightRequests = new Semaphore(builder.getMaxInFlightRequests());
     }
 
     /**
@@ -46,88 +135,517 @@ public class AdmService {
      * @param clientSecret secret value supplied by ADM services
      * @param payload , a String representing the complete payload to be submitted
      * @return String , a String representing the registrationId sent back from ADM services.
+     * Failed attempts are retried according to the {@link RetryPolicy} of the service.
+     *
+     * @throws AdmException if ADM rejects the message
+     * @throws CircuitOpenException if ADM is considered unavailable after repeated failures
      * @throws Exception if sending the message fails
      */
     public String sendMessageToDevice(String registrationId, final String clientId, final String clientSecret, final String payload) throws Exception {
+        return sendMessageToDevice(registrationId, clientId, clientSecret, CompiledPayload.of(payload));
+    }
 
-        if (accessToken == null) {
-            accessToken = tokenService.getAuthToken(clientId,clientSecret);
-        }
+    /**
+     * Request that ADM deliver a pre-encoded payload to a specific instance of your app.
+     * The bytes of the payload are written as they are, without any further encoding.
+     *
+     * @param registrationId representing the unique identifier of the device
+     * @param clientId unique ID supplied by ADM Services
+     * @param clientSecret secret value supplied by ADM services
+     * @param payload the {@link CompiledPayload}, with all template fields bound
+     * @return String , a String representing the registrationId sent back from ADM services.
+     * @throws AdmException if ADM rejects the message
+     * @throws CircuitOpenException if ADM is considered unavailable after repeated failures
+     * @throws UnregisteredDeviceException if the {@link FeedbackStore} of the service knows the device as unregistered
+     * @throws Exception if sending the message fails
+     */
+    public String sendMessageToDevice(final String registrationId, final String clientId, final String clientSecret, final CompiledPayload payload) throws Exception {
+        return sendMessageToDevice(registrationId, clientId, clientSecret, payload, null);
+    }
 
-        // Generate the HTTPS connection for the POST request.
-        // You cannot make a connection over plain HTTP.
-        HttpsURLConnection conn = post(registrationId, payload);
+    /**
+     * @param handle aborting the request and its retries when cancelled, or {@code null}
+     * @throws InterruptedIOException if the request has been cancelled
+     */
+    String sendMessageToDevice(final String registrationId, final String clientId, final String clientSecret, final CompiledPayload payload,
+                               final RequestHandle handle) throws Exception {
+        if (feedbackStore == null) {
+            return send(registrationId, clientId, clientSecret, payload, handle);
+        }
 
-        // Obtain the response code from the connection.
-        final int responseCode = conn.getResponseCode();
+        final String resolvedRegistrationId = feedbackStore.resolve(registrationId);
+        final String unregisteredReason = feedbackStore.getUnregisteredReason(resolvedRegistrationId);
+        if (unregisteredReason != null) {
+            throw new UnregisteredDeviceException(resolvedRegistrationId, unregisteredReason);
+        }
+        try {
+            final String canonicalRegistrationId = send(resolvedRegistrationId, clientId, clientSecret, payload, handle);
+            feedbackStore.onCanonicalId(resolvedRegistrationId, canonicalRegistrationId);
+            return canonicalRegistrationId;
+        } catch (AdmException e) {
+            final String reason = e.getReason();
+            if (isDeviceRejected(reason)) {
+                feedbackStore.onUnregistered(resolvedRegistrationId, reason);
+            }
+            throw e;
+        }
+    }
 
-        // Check if we received a failure response, and if so, get the reason for the failure.
-        if (responseCode != 200) {
-            if ( responseCode == 401) {
-                accessToken = tokenService.getAuthToken(clientId,clientSecret);
-                sendMessageToDevice(registrationId, clientId, clientSecret, payload);
+    private String send(String registrationId, final String clientId, final String clientSecret, final CompiledPayload payload,
+                        final RequestHandle handle) throws Exception {
+        final byte[] bytes = payload.bytes();
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            if (handle != null && handle.isCancelled()) {
+                throw new InterruptedIOException("The request has been cancelled");
+            }
+            if (rateLimiter != null) {
+                rateLimiter.acquire(clientId);
             }
-            else {
-                String errorContent = Utilities.parseResponse(conn.getErrorStream());
-                throw new RuntimeException(String.format("ERROR: The enqueue request failed with a " +
-                        "%d response code, with the following message: %s",
-                        responseCode, errorContent));
+            if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+                throw new CircuitOpenException();
             }
 
-        }
-        else {
+            final String accessToken;
+            final TransportResponse response;
+            // the circuit let this attempt through, it has to learn its outcome on every path
+            boolean reported = false;
+            boolean posted = false;
+            try {
+                try {
+                    accessToken = tokenService.getAuthToken(clientId, clientSecret);
+                    posted = true;
+
+                    // Send the POST request over HTTPS.
+                    // You cannot make a connection over plain HTTP.
+                    response = post(registrationId, bytes, accessToken, handle);
+                } catch (IOException e) {
+                    if (handle != null && handle.isCancelled()) {
+                        // aborted on purpose, not a sign of trouble with ADM
+                        throw e;
+                    }
+                    metrics.onMessageFailure();
+                    onFailure();
+                    reported = true;
+                    // interrupted threads give up, and a message which may have reached ADM is only sent again on request
+                    final boolean cancelled = e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException);
+                    final boolean unconfirmed = posted && !isNotSent(e) && !retryPolicy.isRetryingUnconfirmed();
+                    if (cancelled || unconfirmed || !retryPolicy.canRetry(attempt)) {
+                        throw e;
+                    }
+                    Thread.sleep(retryPolicy.getBackoff(attempt));
+                    continue;
+                } catch (AdmException e) {
+                    // the token endpoint answered with an error
+                    reported = true;
+                    if (e.getStatusCode() < 500) {
+                        onSuccess();
+                        throw e;
+                    }
+                    onFailure();
+                    if (!retryPolicy.canRetry(attempt)) {
+                        throw e;
+                    }
+                    Thread.sleep(retryPolicy.getBackoff(attempt));
+                    continue;
+                }
+
+                metrics.onMessageResponse(response.getStatusCode(), bytes.length,
+                        response.getConnectTime(), response.getWriteTime(), response.getResponseTime());
+                if (response.getStatusCode() >= 500) {
+                    onFailure();
+                } else {
+                    onSuccess();
+                }
+                reported = true;
+            } finally {
+                if (!reported) {
+                    onCancelled();
+                }
+            }
+
+            // Obtain the response code from the response.
+            final int responseCode = response.getStatusCode();
+
             // The request was successful. The response contains the canonical Registration ID for the specific instance of your
             // app, which may be different that the one used for the request.
+            if (responseCode == 200) {
+                if (rateLimiter != null) {
+                    rateLimiter.onSuccess(clientId);
+                }
+
+                final String canonicalRegistrationId = Utilities.getStringFromJson(response.getBody(), "registrationID");
 
-            final String responseContent = Utilities.parseResponse(conn.getInputStream());
-            final String canonicalRegistrationId = Utilities.getStringFromJson(responseContent, "registrationID");
+                // Check if the two Registration IDs are different.
+                if(canonicalRegistrationId != null && !canonicalRegistrationId.equals(registrationId)) {
+                    registrationId = canonicalRegistrationId;
+                }
+                return registrationId;
+            }
+
+            if (responseCode == 401) {
+                // the token has been revoked or has expired early, drop it so that a new one is fetched,
+                // also if this was the last attempt
+                tokenService.invalidateAuthToken(clientId, accessToken);
+                metrics.onTokenRejected();
+            }
 
-            // Check if the two Registration IDs are different.
-            if(!canonicalRegistrationId.equals(registrationId)) {
-                registrationId = canonicalRegistrationId;
+            // We received a failure response, check if it is worth another attempt.
+            if (retryPolicy.canRetry(attempt)) {
+                if (responseCode == 401) {
+                    continue;
+                }
+                if (responseCode == 429 && rateLimiter != null) {
+                    // ADM throttles the clientId, slow down and try again once the limiter lets us
+                    rateLimiter.onThrottled(clientId, Utilities.parseRetryAfter(response.getHeader("Retry-After")));
+                    continue;
+                }
+                if (responseCode >= 500) {
+                    Thread.sleep(retryPolicy.getBackoff(attempt));
+                    continue;
+                }
+            } else if (responseCode == 429 && rateLimiter != null) {
+                rateLimiter.onThrottled(clientId, Utilities.parseRetryAfter(response.getHeader("Retry-After")));
             }
+
+            String errorContent = Utilities.parseResponse(response.getBody());
+            throw new AdmException(responseCode, errorContent);
         }
-        return registrationId;
     }
 
     /**
-     * Returns HttpsURLConnection that 'posts' the given payload to ADM.
+     * @return {@code true} if the request failed before it could reach the server, so sending it again cannot
+     * deliver the message twice
+     */
+    private static boolean isNotSent(final IOException e) {
+        return e instanceof ConnectException || e instanceof UnknownHostException || e instanceof NoRouteToHostException;
+    }
+
+    /**
+     * @param reason the {@code reason} of an ADM error response, or {@code null}
+     * @return {@code true} if the reason tells that the device can no longer be reached
+     */
+    static boolean isDeviceRejected(final String reason) {
+        return INVALID_REGISTRATION_ID.equals(reason) || UNREGISTERED.equals(reason);
+    }
+
+    private void onSuccess() {
+        if (circuitBreaker != null) {
+            circuitBreaker.onSuccess();
+        }
+    }
+
+    private void onFailure() {
+        if (circuitBreaker != null) {
+            circuitBreaker.onFailure();
+        }
+    }
+
+    private void onCancelled() {
+        if (circuitBreaker != null) {
+            circuitBreaker.onCancelled();
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #sendMessageToDevice(String, String, String, String)}, sharing its token handling
+     * and response parsing. The request is handed over to the worker threads of this service and the
+     * returned future completes with the canonical registrationId, or exceptionally if sending the message fails.
+     *
+     * The calling thread never waits: when the configured maximum of in-flight requests is reached, the request is
+     * queued and started once one of the pending requests has completed. Each request occupies a worker thread for its
+     * whole duration, blocking on the transport; unless {@link AdmServiceBuilder#virtualThreads(boolean)} is set, the
+     * concurrency is one platform thread per in-flight request.
+     *
+     * @param registrationId representing the unique identifier of the device
+     * @param clientId unique ID supplied by ADM Services
+     * @param clientSecret secret value supplied by ADM services
+     * @param payload , a String representing the complete payload to be submitted
+     * @return a {@link CompletableFuture} holding the registrationId sent back from ADM services.
+     */
+    public CompletableFuture<String> sendMessageToDeviceAsync(final String registrationId, final String clientId, final String clientSecret, final String payload) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return sendMessageToDevice(registrationId, clientId, clientSecret, payload);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #sendMessageToDevice(String, String, String, CompiledPayload)}, queued like
+     * {@link #sendMessageToDeviceAsync(String, String, String, String)} when the maximum of in-flight requests is reached.
+     *
+     * @param registrationId representing the unique identifier of the device
+     * @param clientId unique ID supplied by ADM Services
+     * @param clientSecret secret value supplied by ADM services
+     * @param payload the {@link CompiledPayload}, with all template fields bound
+     * @return a {@link CompletableFuture} holding the registrationId sent back from ADM services.
+     */
+    public CompletableFuture<String> sendMessageToDeviceAsync(final String registrationId, final String clientId, final String clientSecret, final CompiledPayload payload) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return sendMessageToDevice(registrationId, clientId, clientSecret, payload);
+            }
+        });
+    }
+
+    /**
+     * Variant of {@link #sendMessageToDeviceAsync(String, String, String, CompiledPayload)} whose request can be aborted.
+     *
+     * @param handle aborting the request and its retries when cancelled, or {@code null}
+     * @param wait whether to wait for a free request slot if the maximum of in-flight requests is reached. Waiting
+     * callers, such as {@link BulkSender}, are held back instead of queueing an unbounded number of requests
+     * @return a {@link CompletableFuture} holding the registrationId sent back from ADM services, or {@code null}
+     * if no request slot was free and {@code wait} is {@code false}
      */
-    private HttpsURLConnection post(final String registrationId, final String payload) throws Exception {
+    CompletableFuture<String> sendMessageToDeviceAsync(final String registrationId, final String clientId, final String clientSecret, final CompiledPayload payload,
+                                                       final RequestHandle handle, final boolean wait) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return sendMessageToDevice(registrationId, clientId, clientSecret, payload, handle);
+            }
+        }, wait);
+    }
+
+    /**
+     * Starts a request if a request slot is free and queues it otherwise, without blocking the caller.
+     */
+    private CompletableFuture<String> submit(final Callable<String> send) {
+        final CompletableFuture<String> future = new CompletableFuture<String>();
+        queuedRequests.add(new QueuedRequest(send, future));
+        startQueued();
+        return future;
+    }
+
+    /**
+     * Starts queued requests while request slots are free. Called after queueing and whenever a slot is released,
+     * so no request is left behind when a slot is released between queueing and this check.
+     */
+    private void startQueued() {
+        while (!queuedRequests.isEmpty() && inFlightRequests.tryAcquire()) {
+            final QueuedRequest request = queuedRequests.poll();
+            if (request == null) {
+                inFlightRequests.release();
+                return;
+            }
+            execute(request.send, request.future);
+        }
+    }
+
+    private CompletableFuture<String> submit(final Callable<String> send, final boolean wait) {
+        final CompletableFuture<String> future = new CompletableFuture<String>();
+
+        if (!wait) {
+            if (!inFlightRequests.tryAcquire()) {
+                return null;
+            }
+        } else {
+            try {
+                inFlightRequests.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+                return future;
+            }
+        }
+        execute(send, future);
+        return future;
+    }
+
+    /**
+     * Runs a request on the executor, the caller has taken its request slot.
+     */
+    private void execute(final Callable<String> send, final CompletableFuture<String> future) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.complete(send.call());
+                    } catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    } finally {
+                        inFlightRequests.release();
+                        startQueued();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlightRequests.release();
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Request that ADM deliver your message to many instances of your app. The requests are sent in parallel,
+     * bounded by the maximum of in-flight requests, and a failure for one device does not affect the others.
+     * Duplicated registrationIds are sent only once.
+     *
+     * @param registrationIds the unique identifiers of the devices
+     * @param clientId unique ID supplied by ADM Services
+     * @param clientSecret secret value supplied by ADM services
+     * @param payload , a String representing the complete payload to be submitted
+     * @return a {@link MulticastResult} holding the outcome for every registrationId
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the results
+     */
+    public MulticastResult sendMessageToDevices(final Collection<String> registrationIds, final String clientId, final String clientSecret, final String payload) throws InterruptedException {
+        final Map<String, CompletableFuture<String>> pending = new LinkedHashMap<String, CompletableFuture<String>>();
+        for (String registrationId : registrationIds) {
+            if (!pending.containsKey(registrationId)) {
+                pending.put(registrationId, sendMessageToDeviceAsync(registrationId, clientId, clientSecret, payload));
+            }
+        }
+        return collect(pending);
+    }
+
+    /**
+     * Request that ADM deliver a pre-encoded payload to many instances of your app, see
+     * {@link #sendMessageToDevices(Collection, String, String, String)}. The payload is encoded once for all devices.
+     *
+     * @param registrationIds the unique identifiers of the devices
+     * @param clientId unique ID supplied by ADM Services
+     * @param clientSecret secret value supplied by ADM services
+     * @param payload the {@link CompiledPayload}, with all template fields bound
+     * @return a {@link MulticastResult} holding the outcome for every registrationId
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the results
+     */
+    public MulticastResult sendMessageToDevices(final Collection<String> registrationIds, final String clientId, final String clientSecret, final CompiledPayload payload) throws InterruptedException {
+        final Map<String, CompletableFuture<String>> pending = new LinkedHashMap<String, CompletableFuture<String>>();
+        for (String registrationId : registrationIds) {
+            if (!pending.containsKey(registrationId)) {
+                pending.put(registrationId, sendMessageToDeviceAsync(registrationId, clientId, clientSecret, payload));
+            }
+        }
+        return collect(pending);
+    }
+
+    private static MulticastResult collect(final Map<String, CompletableFuture<String>> pending) throws InterruptedException {
+        final Map<String, SendResult> results = new LinkedHashMap<String, SendResult>();
+        for (Map.Entry<String, CompletableFuture<String>> entry : pending.entrySet()) {
+            final String registrationId = entry.getKey();
+            try {
+                results.put(registrationId, SendResult.success(registrationId, entry.getValue().get()));
+            } catch (ExecutionException e) {
+                results.put(registrationId, SendResult.error(registrationId, e.getCause()));
+            }
+        }
+        return new MulticastResult(results);
+    }
+
+    /**
+     * Prepares the service for its first messages, e.g. right after a deploy. The access tokens of the given
+     * credentials are fetched in parallel on the worker threads, and if the transport is a {@link PooledHttpTransport},
+     * the given number of connections to ADM is opened, priming the TLS session cache for later connections.
+     *
+     * @param credentials the apps which will send messages
+     * @param connections the number of connections to open
+     * @throws AdmException if the token endpoint rejects some credentials
+     * @throws Exception if fetching a token or opening a connection fails
+     */
+    public void warmUp(final Collection<AdmCredentials> credentials, final int connections) throws Exception {
+        final List<CompletableFuture<String>> tokens = new ArrayList<CompletableFuture<String>>();
+        for (final AdmCredentials app : credentials) {
+            tokens.add(submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return tokenService.getAuthToken(app.getClientId(), app.getClientSecret());
+                }
+            }));
+        }
+
+        if (connections > 0 && transport instanceof PooledHttpTransport) {
+            ((PooledHttpTransport) transport).preconnect(new URL(endpoint), connections);
+        }
+
+        for (CompletableFuture<String> token : tokens) {
+            try {
+                token.get();
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stops the worker threads and closes the connections created by this service. An {@link Executor}
+     * or {@link HttpTransport} passed to the {@link AdmServiceBuilder} is left untouched. Asynchronous requests
+     * still queued for a request slot fail with a {@link RejectedExecutionException}.
+     */
+    @Override
+    public void close() throws IOException {
+        for (QueuedRequest request = queuedRequests.poll(); request != null; request = queuedRequests.poll()) {
+            request.future.completeExceptionally(new RejectedExecutionException("The service has been closed"));
+        }
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+        if (ownsTransport) {
+            transport.close();
+        }
+    }
+
+    /**
+     * @return the {@link TokenService} providing the access tokens of this service
+     */
+    TokenService getTokenService() {
+        return tokenService;
+    }
+
+    /**
+     * 'posts' the given payload to ADM and returns the response.
+     */
+    private TransportResponse post(final String registrationId, final byte[] payload, final String accessToken, final RequestHandle handle) throws IOException {
 
         // Establish the base URL, including the section to be replaced by the registration
         // ID for the desired app instance. Because we are using String.format to create
         // the URL, the %1$s characters specify the section to be replaced.
-        final URL admUrl = new URL(String.format(Utilities.ADM_URL_TEMPLATE ,registrationId));
+        final URL admUrl = new URL(String.format(messageUrlTemplate, registrationId));
 
-        final HttpsURLConnection conn = Utilities.getHttpsURLConnection(admUrl);
-        conn.setDoOutput(true);
-        conn.setUseCaches(false);
+        if (handle != null && transport instanceof PooledHttpTransport) {
+            return ((PooledHttpTransport) transport).post(admUrl, messageHeaders(accessToken), payload, handle);
+        }
+        return transport.post(admUrl, messageHeaders(accessToken), payload);
+    }
+
+    /**
+     * The headers of a message request, shared by all {@link HttpTransport} implementations.
+     *
+     * @param accessToken the token authorizing the request
+     * @return the request headers
+     */
+    static Map<String, String> messageHeaders(final String accessToken) {
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
 
         // Set the content type and accept headers.
-        conn.setRequestProperty("content-type", Utilities.APPLICATION_JSON);
-        conn.setRequestProperty("accept", Utilities.APPLICATION_JSON);
-        conn.setRequestProperty("X-Amzn-Type-Version ", Utilities.AMAZON_TYPE_VERSION);
-        conn.setRequestProperty("X-Amzn-Accept-Type", Utilities.AMAZON_ACCEPT_TYPE);
-        conn.setRequestMethod("POST");
+        headers.put("content-type", Utilities.APPLICATION_JSON);
+        headers.put("accept", Utilities.APPLICATION_JSON);
+        headers.put("X-Amzn-Type-Version", Utilities.AMAZON_TYPE_VERSION);
+        headers.put("X-Amzn-Accept-Type", Utilities.AMAZON_ACCEPT_TYPE);
 
         // Add the authorization token as a header.
-        conn.setRequestProperty("Authorization", "Bearer " + accessToken);
+        headers.put("Authorization", "Bearer " + accessToken);
+        return headers;
+    }
 
-        OutputStream out = null;
-        final byte[] bytes = payload.getBytes(Utilities.UTF_8_CHARSET);
-        try {
-            out = conn.getOutputStream();
-            out.write(bytes);
-            out.flush();
-        } finally {
-            // in case something blows up, while writing
-            // the payload, we wanna close the stream:
-            if (out != null) {
-                out.close();
-            }
-        }
+    /**
+     * An asynchronous request waiting for a free request slot.
+     */
+    private static final class QueuedRequest {
 
-        return conn;
+        private final Callable<String> send;
+        private final CompletableFuture<String> future;
+
+        QueuedRequest(final Callable<String> send, final CompletableFuture<String> future) {
+            this.send = send;
+            this.future = future;
+        }
     }
 }
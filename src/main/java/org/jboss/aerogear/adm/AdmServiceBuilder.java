@@ -0,0 +1,255 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import org.jboss.aerogear.adm.feedback.FeedbackStore;
+import org.jboss.aerogear.adm.internal.Utilities;
+import org.jboss.aerogear.adm.metrics.AdmMetrics;
+import org.jboss.aerogear.adm.transport.HttpTransport;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A builder class to configure and create an {@link AdmService}
+ *
+ */
+public class AdmServiceBuilder {
+
+    private HttpTransport transport;
+    private TokenService tokenService;
+    private AdaptiveRateLimiter rateLimiter;
+    private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private CircuitBreaker circuitBreaker;
+    private Executor executor;
+    private int maxInFlightRequests = AdmService.DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+    private boolean virtualThreads;
+    private String endpoint = Utilities.ADM_ENDPOINT;
+    private AdmMetrics metrics = AdmMetrics.NONE;
+    private FeedbackStore feedbackStore;
+
+    AdmServiceBuilder() {
+    }
+
+    /**
+     * The {@link HttpTransport} used to talk to ADM. If none is given, the service creates
+     * a {@link org.jboss.aerogear.adm.transport.PooledHttpTransport} with the default settings and a connection
+     * for each of the {@link #maxInFlightRequests(int)}. The connections of a given transport bound the concurrency
+     * of the service as well.
+     *
+     * @param transport used for all requests of the service
+     * @return the current {@link org.jboss.aerogear.adm.AdmServiceBuilder} instance
+     */
+    public AdmServiceBuilder transport(final HttpTransport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * The {@link TokenService} providing the access tokens. Services sharing a {@link TokenService}
+     * share its cached tokens. If none is given, the service creates its own, using the same {@link HttpTransport}.
+     *
+     * @param tokenService providing the access tokens
+     * @return the current {@link org.jboss.aerogear.adm.AdmServiceBuilder} instance
+     */
+    public AdmServiceBuilder tokenService(final TokenService tokenService) {
+        this.tokenService = tokenService;
+        return this;
+    }
+
+    /**
+     * The {@link AdaptiveRateLimiter} pacing the messages of every clientId. Messages throttled by ADM
+     * with HTTP 429 are retried once the limiter allows it. If none is given, messages are sent as
+     * fast as possible and a 429 is reported as {@link AdmException}. Retries of throttled messages count
+     * against the attempts of the {@link RetryPolicy}.
+     *
+     * @param rateLimiter pacing the messages
+     * @return the current {@link org.jboss.aerogear.adm.AdmServiceBuilder} instance
+     */
+    public AdmServiceBuilder rateLimiter(final AdaptiveRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    /**
+     * The {@link RetryPolicy} deciding how failed messages are retried, {@link RetryPolicy#DEFAULT} if none is given.
+     *
+     * @param retryPolicy for failed messages
+     * @return the current {@link org.jboss.aerogear.adm.AdmServiceBuilder} instance
+     */
+    public AdmServiceBuilder retryPolicy(final RetryPolicy retryPolicy) {
+        if (retryPolicy == null) {
+            throw new IllegalArgumentException("retryPolicy must not be null, use RetryPolicy.NONE to disable retries");
+        }
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * The {@link CircuitBreaker} failing sends fast while ADM is unhealthy. If none is given, every message is sent.
+     *
+     * @param circuitBreaker watching the health of ADM
+     * @return the current {@link org.jboss.aerogear.adm.AdmServiceBuilder} instance
+     */
+    public AdmServiceBuilder circuitBreaker(final CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
+    }
+
+    /**
+     * The {@link Executor} running the requests submitted through
+     * {@link AdmService#sendMessageToDeviceAsync(String, String, String, String)}. If none is given,
+     * the service manages its own pool of daemon threads.
+     *
+     * @param executor running the asynchronous requests
+     * @return the current {@link org.jboss.aerogear.adm.AdmServiceBuilder} instance
+     */
+    public AdmServiceBuilder executor(final Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Runs every asynchronous request on its own virtual thread instead of a pool of platform threads. Blocking
+     * on the network then costs no more than a small heap object, so {@link #maxInFlightRequests(int)} can be raised to
+     * tens of thousands. The transport created by the service keeps up to that many connections to ADM, a transport
+     * set through {@link #transport(HttpTransport)} caps the concurrency at its own connection limit. Requires Java 21
+     * or later and cannot be combined with {@link #executor(Executor)}.
+     *
+     * @param virtualThreads {@code true} to use virtual threads
+     * @return the current {@link org.jboss.aerogear.adm.AdmServiceBuilder} instance
+     */
+    public AdmServiceBuilder virtualThreads(final boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    /**
+     * The maximum number of asynchronous requests which may be in flight at the same time.
+     *
+     * @param maxInFlightRequests the limit, must be positive
+     * @return the current {@link org.jboss.aerogear.adm.AdmServiceBuilder} instance
+     */
+    public AdmServiceBuilder maxInFlightRequests(final int maxInFlightRequests) {
+        if (maxInFlightRequests < 1) {
+            throw new IllegalArgumentException("maxInFlightRequests must be positive");
+        }
+        this.maxInFlightRequests = maxInFlightRequests;
+        return this;
+    }
+
+    /**
+     * The base URL of the Amazon API, {@code https://api.amazon.com} if none is given. Pointing the service
+     * to a local stub is useful for tests and benchmarks. If a {@link TokenService} is given, it keeps using its own endpoint.
+     *
+     * @param endpoint base URL without a trailing slash, e.g. {@code http://localhost:8080}
+     * @return the current {@link org.jboss.aerogear.adm.AdmServiceBuilder} instance
+     */
+    public AdmServiceBuilder endpoint(final String endpoint) {
+        if (endpoint == null) {
+            throw new IllegalArgumentException("endpoint must not be null");
+        }
+        this.endpoint = endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+        return this;
+    }
+
+    /**
+     * The {@link AdmMetrics} receiving the timings and response codes of all requests, e.g. an
+     * {@link org.jboss.aerogear.adm.metrics.InMemoryAdmMetrics}. If none is given, nothing is recorded.
+     * If a {@link TokenService} is given, it reports the token endpoint to the metrics it has been created with.
+     *
+     * @param metrics receiving the measurements
+     * @return the current {@link org.jboss.aerogear.adm.AdmServiceBuilder} instance
+     */
+    public AdmServiceBuilder metrics(final AdmMetrics metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("metrics must not be null, use AdmMetrics.NONE to disable them");
+        }
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * The {@link FeedbackStore} remembering the canonical registrationIds and unregistered devices reported by ADM.
+     * Messages are sent to the canonical registrationId of a device, and messages to unregistered devices fail with an
+     * {@link UnregisteredDeviceException} without being sent. If none is given, every message is sent as it is addressed.
+     *
+     * @param feedbackStore keeping the feedback of ADM
+     * @return the current {@link org.jboss.aerogear.adm.AdmServiceBuilder} instance
+     */
+    public AdmServiceBuilder feedbackStore(final FeedbackStore feedbackStore) {
+        this.feedbackStore = feedbackStore;
+        return this;
+    }
+
+    /**
+     * Builds the configured service
+     *
+     * @return a new {@link AdmService}
+     * @throws IllegalStateException if virtual threads are requested together with an executor, or on a JVM without virtual threads
+     */
+    public AdmService build() {
+        if (virtualThreads && executor != null) {
+            throw new IllegalStateException("virtualThreads cannot be combined with an executor");
+        }
+        return new AdmService(this);
+    }
+
+    HttpTransport getTransport() {
+        return transport;
+    }
+
+    TokenService getTokenService() {
+        return tokenService;
+    }
+
+    AdaptiveRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    int getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+
+    boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    String getEndpoint() {
+        return endpoint;
+    }
+
+    AdmMetrics getMetrics() {
+        return metrics;
+    }
+
+    FeedbackStore getFeedbackStore() {
+        return feedbackStore;
+    }
+}
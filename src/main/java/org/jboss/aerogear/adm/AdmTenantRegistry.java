@@ -0,0 +1,184 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Sends the messages of many apps, each with its own {@link AdmCredentials}, through a single {@link AdmService}.
+ * All tenants share the connections and worker threads of the service, while its {@link TokenService} keeps a
+ * separate access token per clientId, so the tenants never replace each other's tokens. An {@link AdaptiveRateLimiter}
+ * of the service paces every clientId on its own as well.
+ *
+ * Tenants can be registered and removed at any time, from any thread.
+ */
+public class AdmTenantRegistry {
+
+    private final AdmService service;
+    private final ConcurrentMap<String, AdmCredentials> tenants = new ConcurrentHashMap<String, AdmCredentials>();
+
+    /**
+     * @param service sending the messages of all tenants
+     */
+    public AdmTenantRegistry(final AdmService service) {
+        if (service == null) {
+            throw new IllegalArgumentException("service must not be null");
+        }
+        this.service = service;
+    }
+
+    /**
+     * Registers a tenant, or replaces its credentials.
+     *
+     * @param tenant the name the tenant is addressed by
+     * @param credentials of the app of the tenant
+     * @return the credentials the tenant had before, or {@code null}
+     */
+    public AdmCredentials register(final String tenant, final AdmCredentials credentials) {
+        if (tenant == null || credentials == null) {
+            throw new IllegalArgumentException("tenant and credentials must not be null");
+        }
+        final AdmCredentials previous = tenants.put(tenant, credentials);
+        if (previous != null && !previous.getClientId().equals(credentials.getClientId())) {
+            release(previous);
+        }
+        return previous;
+    }
+
+    /**
+     * Removes a tenant. Its cached access token is dropped unless another tenant uses the same clientId.
+     *
+     * @param tenant the name the tenant is addressed by
+     * @return the credentials of the removed tenant, or {@code null} if it was not registered
+     */
+    public AdmCredentials unregister(final String tenant) {
+        final AdmCredentials removed = tenants.remove(tenant);
+        if (removed != null) {
+            release(removed);
+        }
+        return removed;
+    }
+
+    /**
+     * @param tenant the name the tenant is addressed by
+     * @return the credentials of the tenant, or {@code null} if it is not registered
+     */
+    public AdmCredentials getCredentials(final String tenant) {
+        return tenants.get(tenant);
+    }
+
+    /**
+     * @return the names of all registered tenants
+     */
+    public Set<String> getTenants() {
+        return Collections.unmodifiableSet(tenants.keySet());
+    }
+
+    /**
+     * Sends a message with the credentials of a tenant, see {@link AdmService#sendMessageToDevice(String, String, String, CompiledPayload)}.
+     *
+     * @param tenant the name the tenant is addressed by
+     * @param registrationId representing the unique identifier of the device
+     * @param payload the {@link CompiledPayload}, with all template fields bound
+     * @return String , a String representing the registrationId sent back from ADM services.
+     * @throws IllegalArgumentException if the tenant is not registered
+     * @throws Exception if sending the message fails
+     */
+    public String sendMessageToDevice(final String tenant, final String registrationId, final CompiledPayload payload) throws Exception {
+        final AdmCredentials credentials = credentials(tenant);
+        return service.sendMessageToDevice(registrationId, credentials.getClientId(), credentials.getClientSecret(), payload);
+    }
+
+    /**
+     * Sends a message with the credentials of a tenant, see {@link AdmService#sendMessageToDevice(String, String, String, String)}.
+     *
+     * @param tenant the name the tenant is addressed by
+     * @param registrationId representing the unique identifier of the device
+     * @param payload , a String representing the complete payload to be submitted
+     * @return String , a String representing the registrationId sent back from ADM services.
+     * @throws IllegalArgumentException if the tenant is not registered
+     * @throws Exception if sending the message fails
+     */
+    public String sendMessageToDevice(final String tenant, final String registrationId, final String payload) throws Exception {
+        return sendMessageToDevice(tenant, registrationId, CompiledPayload.of(payload));
+    }
+
+    /**
+     * Sends a message with the credentials of a tenant on the worker threads of the service,
+     * see {@link AdmService#sendMessageToDeviceAsync(String, String, String, CompiledPayload)}.
+     *
+     * @param tenant the name the tenant is addressed by
+     * @param registrationId representing the unique identifier of the device
+     * @param payload the {@link CompiledPayload}, with all template fields bound
+     * @return a {@link CompletableFuture} holding the registrationId sent back from ADM services.
+     * @throws IllegalArgumentException if the tenant is not registered
+     */
+    public CompletableFuture<String> sendMessageToDeviceAsync(final String tenant, final String registrationId, final CompiledPayload payload) {
+        final AdmCredentials credentials = credentials(tenant);
+        return service.sendMessageToDeviceAsync(registrationId, credentials.getClientId(), credentials.getClientSecret(), payload);
+    }
+
+    /**
+     * Sends a message to many devices with the credentials of a tenant,
+     * see {@link AdmService#sendMessageToDevices(Collection, String, String, CompiledPayload)}.
+     *
+     * @param tenant the name the tenant is addressed by
+     * @param registrationIds the unique identifiers of the devices
+     * @param payload the {@link CompiledPayload}, with all template fields bound
+     * @return a {@link MulticastResult} holding the outcome for every registrationId
+     * @throws IllegalArgumentException if the tenant is not registered
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the results
+     */
+    public MulticastResult sendMessageToDevices(final String tenant, final Collection<String> registrationIds, final CompiledPayload payload) throws InterruptedException {
+        final AdmCredentials credentials = credentials(tenant);
+        return service.sendMessageToDevices(registrationIds, credentials.getClientId(), credentials.getClientSecret(), payload);
+    }
+
+    /**
+     * Fetches the access tokens of all registered tenants and opens connections to ADM ahead of the first messages,
+     * see {@link AdmService#warmUp(Collection, int)}.
+     *
+     * @param connections the number of connections to open
+     * @throws Exception if fetching a token or opening a connection fails
+     */
+    public void warmUp(final int connections) throws Exception {
+        service.warmUp(tenants.values(), connections);
+    }
+
+    private AdmCredentials credentials(final String tenant) {
+        final AdmCredentials credentials = tenants.get(tenant);
+        if (credentials == null) {
+            throw new IllegalArgumentException("Unknown tenant '" + tenant + "'");
+        }
+        return credentials;
+    }
+
+    private void release(final AdmCredentials credentials) {
+        for (AdmCredentials other : tenants.values()) {
+            if (other.getClientId().equals(credentials.getClientId())) {
+                return;
+            }
+        }
+        service.getTokenService().removeAuthToken(credentials.getClientId());
+    }
+}
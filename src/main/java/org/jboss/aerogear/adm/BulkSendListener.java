@@ -0,0 +1,39 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+/**
+ * Receives the outcome of every message sent by a {@link BulkSender}. The method is called on the
+ * worker threads of the {@link AdmService} and should return quickly.
+ */
+public interface BulkSendListener {
+
+    /**
+     * Ignores all outcomes, used if no listener is configured.
+     */
+    BulkSendListener NONE = new BulkSendListener() {
+        @Override
+        public void onResult(final SendResult result) {
+        }
+    };
+
+    /**
+     * @param result of a single device, e.g. a canonical registrationId to store or an error
+     */
+    void onResult(SendResult result);
+}
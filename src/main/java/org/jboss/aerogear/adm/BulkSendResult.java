@@ -0,0 +1,78 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+/**
+ * The summary of a message sent to a stream of registrationIds through a {@link BulkSender}. The outcome
+ * of the single devices is passed to the {@link BulkSendListener}, so that it does not have to be kept in memory.
+ */
+public final class BulkSendResult {
+
+    private final long skippedCount;
+    private final long successCount;
+    private final long failureCount;
+    private final Throwable stopCause;
+
+    BulkSendResult(final long skippedCount, final long successCount, final long failureCount, final Throwable stopCause) {
+        this.skippedCount = skippedCount;
+        this.successCount = successCount;
+        this.failureCount = failureCount;
+        this.stopCause = stopCause;
+    }
+
+    /**
+     * @return the number of registrationIds which have been handled before the checkpoint and were not sent again
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * @return the number of devices for which ADM accepted the message
+     */
+    public long getSuccessCount() {
+        return successCount;
+    }
+
+    /**
+     * @return the number of devices for which sending failed
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return {@code true} if all registrationIds have been handled, {@code false} if the send stopped after a transient failure
+     */
+    public boolean isComplete() {
+        return stopCause == null;
+    }
+
+    /**
+     * @return the transient failure which stopped the send, or {@code null} if it is complete
+     */
+    public Throwable getStopCause() {
+        return stopCause;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkSendResult{skipped=" + skippedCount + ", success=" + successCount + ", failure=" + failureCount
+                + (stopCause == null ? "" : ", stopCause=" + stopCause) + "}";
+    }
+}
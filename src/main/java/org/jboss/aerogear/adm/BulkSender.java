@@ -0,0 +1,393 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import org.jboss.aerogear.adm.internal.Utilities;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Sends a message to a stream of registrationIds too large to be held in memory. The registrationIds are read
+ * one after the other and sent asynchronously by the {@link AdmService}. Reading is held back while the maximum of
+ * in-flight requests of the service is reached, rather than queueing the requests. Memory use is therefore bounded by that
+ * maximum, not by the number of devices.
+ *
+ * With a checkpoint file, the position up to which all registrationIds have been handled is written to the file
+ * every few messages. Sending the same stream again resumes at that position. Messages in flight when a send is
+ * interrupted are not covered by the checkpoint and are sent again.
+ *
+ * Only a definitive outcome counts as handled: ADM accepted the message or rejected the device as
+ * {@code InvalidRegistrationId} or {@code Unregistered}. Any other failure, such as an I/O error, a 5xx or 429 response,
+ * an open circuit, rejected credentials or a rejected payload, stops the send; the checkpoint stays at the
+ * failed registrationId so that a later send retries it. Once all registrationIds have been handled the checkpoint file
+ * is deleted, the same file then starts the next campaign from the beginning.
+ */
+public final class BulkSender {
+
+    /**
+     * Default number of handled registrationIds after which the checkpoint is written.
+     */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+    private final AdmService service;
+    private final String clientId;
+    private final String clientSecret;
+    private final File checkpoint;
+    private final int checkpointInterval;
+    private final BulkSendListener listener;
+
+    BulkSender(final BulkSenderBuilder builder) {
+        this.service = builder.getService();
+        this.clientId = builder.getClientId();
+        this.clientSecret = builder.getClientSecret();
+        this.checkpoint = builder.getCheckpoint();
+        this.checkpointInterval = builder.getCheckpointInterval();
+        this.listener = builder.getListener();
+    }
+
+    /**
+     * @param service sending the messages
+     * @return a new {@link BulkSenderBuilder} for configuring a {@link BulkSender}
+     */
+    public static BulkSenderBuilder newBuilder(final AdmService service) {
+        return new BulkSenderBuilder(service);
+    }
+
+    /**
+     * Sends the payload to every registrationId of the iterator, skipping those before the checkpoint.
+     * Returns once all messages have been handled, or after a transient failure once the messages in flight have completed.
+     *
+     * @param registrationIds the unique identifiers of the devices, read lazily
+     * @param payload the {@link CompiledPayload}, with all template fields bound
+     * @return the summary of the send
+     * @throws IOException if the checkpoint cannot be read or written
+     * @throws InterruptedException if interrupted, the checkpoint is written before
+     */
+    public BulkSendResult send(final Iterator<String> registrationIds, final CompiledPayload payload) throws IOException, InterruptedException {
+        final long resumeAt = readCheckpoint();
+        long position = 0;
+        while (position < resumeAt && registrationIds.hasNext()) {
+            registrationIds.next();
+            position++;
+        }
+
+        final Progress progress = new Progress(position);
+        long checkpointed = position;
+        while (registrationIds.hasNext() && progress.getStopCause() == null) {
+            if (Thread.interrupted()) {
+                writeCheckpoint(progress.getWatermark());
+                throw new InterruptedException("Interrupted while sending to " + progress.getWatermark() + " devices");
+            }
+            send(registrationIds.next(), payload, position++, progress);
+
+            final long watermark = progress.getWatermark();
+            if (watermark - checkpointed >= checkpointInterval) {
+                writeCheckpoint(watermark);
+                checkpointed = watermark;
+            }
+        }
+
+        try {
+            progress.awaitCompletion();
+        } catch (InterruptedException e) {
+            writeCheckpoint(progress.getWatermark());
+            throw e;
+        }
+        final Throwable stopCause = progress.getStopCause();
+        if (stopCause != null) {
+            writeCheckpoint(progress.getWatermark());
+        } else if (checkpoint != null) {
+            // a completed campaign leaves nothing behind that would skip the devices of the next one
+            Files.deleteIfExists(checkpoint.toPath());
+        }
+        return new BulkSendResult(Math.min(resumeAt, position), progress.getSuccessCount(), progress.getFailureCount(), stopCause);
+    }
+
+    /**
+     * Sends the payload to every registrationId of the stream, see {@link #send(Iterator, CompiledPayload)}.
+     *
+     * @param registrationIds the unique identifiers of the devices, read lazily
+     * @param payload the {@link CompiledPayload}, with all template fields bound
+     * @return the summary of the send
+     * @throws IOException if the checkpoint cannot be read or written
+     * @throws InterruptedException if interrupted, the checkpoint is written before
+     */
+    public BulkSendResult send(final Stream<String> registrationIds, final CompiledPayload payload) throws IOException, InterruptedException {
+        return send(registrationIds.iterator(), payload);
+    }
+
+    /**
+     * Sends the payload to every registrationId of a UTF-8 text file holding one registrationId per line.
+     * Blank lines are ignored. See {@link #send(Iterator, CompiledPayload)}.
+     *
+     * @param registrationIds the file holding the unique identifiers of the devices
+     * @param payload the {@link CompiledPayload}, with all template fields bound
+     * @return the summary of the send
+     * @throws IOException if the file cannot be read, or the checkpoint cannot be read or written
+     * @throws InterruptedException if interrupted, the checkpoint is written before
+     */
+    public BulkSendResult send(final File registrationIds, final CompiledPayload payload) throws IOException, InterruptedException {
+        final BufferedReader reader = Files.newBufferedReader(registrationIds.toPath(), Utilities.UTF_8_CHARSET);
+        try {
+            return send(new LineIterator(reader), payload);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void send(final String registrationId, final CompiledPayload payload, final long position, final Progress progress) {
+        progress.onSubmitted();
+        service.sendMessageToDeviceAsync(registrationId, clientId, clientSecret, payload, null, true).whenComplete(new BiConsumer<String, Throwable>() {
+            @Override
+            public void accept(final String canonicalRegistrationId, final Throwable error) {
+                if (error instanceof InterruptedException) {
+                    // the sending thread has been interrupted before the message could be sent
+                    progress.onAbandoned();
+                    return;
+                }
+                try {
+                    listener.onResult(error == null
+                            ? SendResult.success(registrationId, canonicalRegistrationId)
+                            : SendResult.error(registrationId, error));
+                } finally {
+                    progress.onCompleted(position, error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Only a success or a rejection of the device itself is definitive. Any other error, including rejected
+     * credentials or a rejected payload, would fail the rest of the stream alike and stops the send.
+     *
+     * @return {@code true} if the outcome will not change when the message is sent again
+     */
+    static boolean isDefinitive(final Throwable error) {
+        if (error == null || error instanceof UnregisteredDeviceException) {
+            return true;
+        }
+        return error instanceof AdmException && AdmService.isDeviceRejected(((AdmException) error).getReason());
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (checkpoint == null || !checkpoint.exists()) {
+            return 0;
+        }
+        final String content = new String(Files.readAllBytes(checkpoint.toPath()), Utilities.UTF_8_CHARSET).trim();
+        try {
+            return Long.parseLong(content);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid checkpoint '" + content + "' in " + checkpoint, e);
+        }
+    }
+
+    private void writeCheckpoint(final long position) throws IOException {
+        if (checkpoint == null) {
+            return;
+        }
+        // replace the checkpoint atomically, a crash must never leave a torn one behind
+        final File temporary = new File(checkpoint.getPath() + ".tmp");
+        Files.write(temporary.toPath(), Long.toString(position).getBytes(Utilities.UTF_8_CHARSET));
+        Files.move(temporary.toPath(), checkpoint.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Tracks the completed messages. As messages complete out of order, the positions completed beyond the
+     * watermark are remembered until the gap below them is closed; there are never more of them than requests in flight.
+     * A position with a transient failure never counts as completed, the watermark stays below it.
+     */
+    private static final class Progress {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition idle = lock.newCondition();
+        private final Set<Long> completedAhead = new HashSet<Long>();
+        private long watermark;
+        private long outstanding;
+        private long successCount;
+        private long failureCount;
+        private Throwable stopCause;
+
+        Progress(final long watermark) {
+            this.watermark = watermark;
+        }
+
+        void onSubmitted() {
+            lock.lock();
+            try {
+                outstanding++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void onCompleted(final long position, final Throwable error) {
+            lock.lock();
+            try {
+                if (error == null) {
+                    successCount++;
+                } else {
+                    failureCount++;
+                }
+                if (!isDefinitive(error)) {
+                    if (stopCause == null) {
+                        stopCause = error;
+                    }
+                } else if (position == watermark) {
+                    watermark++;
+                    while (completedAhead.remove(watermark)) {
+                        watermark++;
+                    }
+                } else {
+                    completedAhead.add(position);
+                }
+                finish();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void onAbandoned() {
+            lock.lock();
+            try {
+                finish();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void finish() {
+            if (--outstanding == 0) {
+                idle.signalAll();
+            }
+        }
+
+        void awaitCompletion() throws InterruptedException {
+            lock.lock();
+            try {
+                while (outstanding > 0) {
+                    idle.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the position before which all messages have been handled
+         */
+        long getWatermark() {
+            lock.lock();
+            try {
+                return watermark;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the first transient failure, or {@code null} if there was none
+         */
+        Throwable getStopCause() {
+            lock.lock();
+            try {
+                return stopCause;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long getSuccessCount() {
+            lock.lock();
+            try {
+                return successCount;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long getFailureCount() {
+            lock.lock();
+            try {
+                return failureCount;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Reads the non-blank lines of a file, one at a time.
+     */
+    private static final class LineIterator implements Iterator<String> {
+
+        private final BufferedReader reader;
+        private String next;
+
+        LineIterator(final BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    final String line = reader.readLine();
+                    if (line == null) {
+                        return false;
+                    }
+                    if (!line.trim().isEmpty()) {
+                        next = line.trim();
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final String line = next;
+            next = null;
+            return line;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import java.io.File;
+
+/**
+ * A builder class to configure and create a {@link BulkSender}
+ *
+ */
+public class BulkSenderBuilder {
+
+    private final AdmService service;
+    private String clientId;
+    private String clientSecret;
+    private File checkpoint;
+    private int checkpointInterval = BulkSender.DEFAULT_CHECKPOINT_INTERVAL;
+    private BulkSendListener listener = BulkSendListener.NONE;
+
+    BulkSenderBuilder(final AdmService service) {
+        if (service == null) {
+            throw new IllegalArgumentException("service must not be null");
+        }
+        this.service = service;
+    }
+
+    /**
+     * The credentials all messages are sent with.
+     *
+     * @param clientId unique ID supplied by ADM Services
+     * @param clientSecret secret value supplied by ADM services
+     * @return the current {@link BulkSenderBuilder} instance
+     */
+    public BulkSenderBuilder credentials(final String clientId, final String clientSecret) {
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        return this;
+    }
+
+    /**
+     * The file recording the progress of a send. If it exists, sending resumes at the position it holds.
+     * Every campaign needs its own checkpoint file. If none is given, every send starts from the beginning.
+     *
+     * @param checkpoint the file recording the progress
+     * @return the current {@link BulkSenderBuilder} instance
+     */
+    public BulkSenderBuilder checkpoint(final File checkpoint) {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    /**
+     * The number of handled registrationIds after which the checkpoint is written,
+     * {@link BulkSender#DEFAULT_CHECKPOINT_INTERVAL} if not set.
+     *
+     * @param checkpointInterval the number of registrationIds, must be positive
+     * @return the current {@link BulkSenderBuilder} instance
+     */
+    public BulkSenderBuilder checkpointInterval(final int checkpointInterval) {
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("checkpointInterval must be positive");
+        }
+        this.checkpointInterval = checkpointInterval;
+        return this;
+    }
+
+    /**
+     * The {@link BulkSendListener} receiving the outcome of every message.
+     *
+     * @param listener of the outcomes
+     * @return the current {@link BulkSenderBuilder} instance
+     */
+    public BulkSenderBuilder listener(final BulkSendListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null, use BulkSendListener.NONE to ignore the outcomes");
+        }
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Builds the configured sender
+     *
+     * @return a new {@link BulkSender}
+     */
+    public BulkSender build() {
+        if (clientId == null || clientSecret == null) {
+            throw new IllegalStateException("The credentials have not been set");
+        }
+        return new BulkSender(this);
+    }
+
+    AdmService getService() {
+        return service;
+    }
+
+    String getClientId() {
+        return clientId;
+    }
+
+    String getClientSecret() {
+        return clientSecret;
+    }
+
+    File getCheckpoint() {
+        return checkpoint;
+    }
+
+    int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    BulkSendListener getListener() {
+        return listener;
+    }
+}
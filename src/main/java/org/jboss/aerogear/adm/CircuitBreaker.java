@@ -0,0 +1,141 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stops sending to ADM once it keeps failing. After the configured number of consecutive failures
+ * (HTTP 5xx or I/O errors) the circuit opens and all sends fail fast with a {@link CircuitOpenException}.
+ * Once the open duration has passed a single trial request is let through, its outcome either closes
+ * the circuit again or keeps it open for another period.
+ *
+ * The state is guarded by a {@link ReentrantLock} rather than a monitor, so that virtual threads
+ * checking the circuit are never pinned to their carrier thread.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The states of a {@link CircuitBreaker}.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDuration;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    /**
+     * @param failureThreshold the number of consecutive failures opening the circuit
+     * @param openDuration the time the circuit stays open before a trial request, in milliseconds
+     */
+    public CircuitBreaker(final int failureThreshold, final long openDuration) {
+        if (failureThreshold < 1 || openDuration < 0) {
+            throw new IllegalArgumentException("failureThreshold must be positive and openDuration must not be negative");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * @return {@code true} if a request may be sent; in that case its outcome has to be reported
+     * through {@link #onSuccess()}, {@link #onFailure()} or {@link #onCancelled()}
+     */
+    public boolean allowRequest() {
+        lock.lock();
+        try {
+            switch (state) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (System.currentTimeMillis() - openedAt >= openDuration) {
+                        state = State.HALF_OPEN;
+                        return true;
+                    }
+                    return false;
+                default:
+                    // the trial request is still in flight
+                    return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports a request which reached a healthy ADM, closing the circuit.
+     */
+    public void onSuccess() {
+        lock.lock();
+        try {
+            state = State.CLOSED;
+            failures = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports a request which failed because of ADM, possibly opening the circuit.
+     */
+    public void onFailure() {
+        lock.lock();
+        try {
+            failures++;
+            if (state == State.HALF_OPEN || failures >= failureThreshold) {
+                state = State.OPEN;
+                openedAt = System.currentTimeMillis();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports a request which ended without telling anything about ADM, e.g. because it was cancelled or failed
+     * locally. A trial request is released, so that the next request becomes the trial.
+     */
+    public void onCancelled() {
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN) {
+                // openedAt is left as it is, the open duration has already passed
+                state = State.OPEN;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the current state of the circuit
+     */
+    public State getState() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
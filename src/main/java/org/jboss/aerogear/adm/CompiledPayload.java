@@ -0,0 +1,241 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import org.jboss.aerogear.adm.internal.Utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable payload, serialized once into its final UTF-8 form so that it can be sent
+ * to any number of devices without being encoded again.
+ *
+ * A payload compiled from a {@link PayloadBuilder} with template fields keeps the encoded JSON
+ * around those fields. Binding a value through {@link #with(String, String)} only encodes
+ * that value and joins it with the pre-encoded parts.
+ */
+public final class CompiledPayload {
+
+    private final byte[][] segments;
+    private final List<String> templateFields;
+    private final int dataSize;
+    private final String md5;
+    private final String consolidationKey;
+
+    CompiledPayload(final byte[][] segments, final List<String> templateFields) {
+        this(segments, templateFields, -1, null, null);
+    }
+
+    /**
+     * @param dataSize the size of the data fields as counted by ADM without the template fields, or -1 if unknown
+     * @param md5 the checksum contained in the payload, or {@code null}
+     * @param consolidationKey the consolidation key contained in the payload, or {@code null}
+     */
+    CompiledPayload(final byte[][] segments, final List<String> templateFields, final int dataSize, final String md5, final String consolidationKey) {
+        this.segments = segments;
+        this.templateFields = Collections.unmodifiableList(templateFields);
+        this.dataSize = dataSize;
+        this.md5 = md5;
+        this.consolidationKey = consolidationKey;
+    }
+
+    /**
+     * Wraps an already built payload, e.g. the result of {@link PayloadBuilder#build()}.
+     *
+     * @param payload , a String representing the complete payload
+     * @return the {@link CompiledPayload} holding the UTF-8 bytes of the payload
+     */
+    public static CompiledPayload of(final String payload) {
+        return new CompiledPayload(new byte[][] {payload.getBytes(Utilities.UTF_8_CHARSET)}, Collections.<String>emptyList());
+    }
+
+    /**
+     * Wraps an already encoded payload, e.g. one read back from storage.
+     *
+     * @param payload the UTF-8 encoded payload, it is copied
+     * @return the {@link CompiledPayload} holding the bytes of the payload
+     */
+    public static CompiledPayload of(final byte[] payload) {
+        return new CompiledPayload(new byte[][] {payload.clone()}, Collections.<String>emptyList());
+    }
+
+    /**
+     * Binds a template field to a value.
+     *
+     * @param field the name of the template field
+     * @param value the value of the field for this message, must not be {@code null}
+     * @return a new {@link CompiledPayload} with the field bound
+     * @throws IllegalArgumentException if the field is unknown, the value is {@code null} or the bound data fields
+     * exceed {@link PayloadBuilder#MAX_DATA_SIZE}
+     */
+    public CompiledPayload with(final String field, final String value) {
+        return with(Collections.singletonMap(field, value));
+    }
+
+    /**
+     * Binds several template fields at once. Fields which are not contained in the map stay unbound.
+     *
+     * @param values the values of the template fields, keyed by field name
+     * @return a new {@link CompiledPayload} with the fields bound
+     * @throws IllegalArgumentException if a field is unknown, a value is {@code null} or the bound data fields
+     * exceed {@link PayloadBuilder#MAX_DATA_SIZE}
+     */
+    public CompiledPayload with(final Map<String, String> values) {
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            if (!templateFields.contains(value.getKey())) {
+                throw new IllegalArgumentException("'" + value.getKey() + "' is not an unbound template field");
+            }
+            // ADM only accepts String values in the data fields, like PayloadBuilder#validate()
+            if (value.getValue() == null) {
+                throw new IllegalArgumentException("The template field '" + value.getKey() + "' must not be bound to null");
+            }
+        }
+
+        int boundDataSize = dataSize;
+        if (dataSize >= 0) {
+            for (Map.Entry<String, String> value : values.entrySet()) {
+                boundDataSize += Utilities.utf8Length(value.getKey()) + Utilities.utf8Length(value.getValue());
+            }
+            if (boundDataSize > PayloadBuilder.MAX_DATA_SIZE) {
+                throw new IllegalArgumentException("The data fields take " + boundDataSize + " bytes, ADM accepts at most " + PayloadBuilder.MAX_DATA_SIZE);
+            }
+        }
+
+        final List<byte[]> boundSegments = new ArrayList<byte[]>();
+        final List<String> unboundFields = new ArrayList<String>();
+        final ByteArrayOutputStream current = new ByteArrayOutputStream(estimateSize());
+        current.write(segments[0], 0, segments[0].length);
+
+        for (int i = 0; i < templateFields.size(); i++) {
+            final String field = templateFields.get(i);
+            if (values.containsKey(field)) {
+                final byte[] value = quote(values.get(field));
+                current.write(value, 0, value.length);
+            } else {
+                boundSegments.add(current.toByteArray());
+                unboundFields.add(field);
+                current.reset();
+            }
+            current.write(segments[i + 1], 0, segments[i + 1].length);
+        }
+        boundSegments.add(current.toByteArray());
+
+        return new CompiledPayload(boundSegments.toArray(new byte[boundSegments.size()][]), unboundFields, boundDataSize, md5, consolidationKey);
+    }
+
+    /**
+     * @return the template fields which still have to be bound before the payload can be sent
+     */
+    public List<String> getTemplateFields() {
+        return templateFields;
+    }
+
+    /**
+     * @return the base64 encoded MD5 checksum of the data contained in the payload, computed once by
+     * {@link PayloadBuilder#computeMd5()} or set through {@link PayloadBuilder#md5(Object)}, or {@code null} if there is none
+     */
+    public String getMd5() {
+        return md5;
+    }
+
+    /**
+     * @return the consolidation key set through {@link PayloadBuilder#consolidationKey(Object)}, or {@code null} if there is none.
+     * A payload wrapped through {@link #of(String)} has none, as its content is not inspected
+     */
+    public String getConsolidationKey() {
+        return consolidationKey;
+    }
+
+    /**
+     * @return {@code true} if all template fields are bound
+     */
+    public boolean isComplete() {
+        return templateFields.isEmpty();
+    }
+
+    /**
+     * @return a copy of the UTF-8 encoded payload
+     */
+    public byte[] getBytes() {
+        return Arrays.copyOf(bytes(), segments[0].length);
+    }
+
+    /**
+     * The encoded payload, without copying it. Must not be modified.
+     */
+    byte[] bytes() {
+        if (!isComplete()) {
+            throw new IllegalStateException("The template fields " + templateFields + " have not been bound");
+        }
+        return segments[0];
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes(), Utilities.UTF_8_CHARSET);
+    }
+
+    private int estimateSize() {
+        int size = 0;
+        for (byte[] segment : segments) {
+            size += segment.length;
+        }
+        return size + 32 * templateFields.size();
+    }
+
+    /**
+     * Encodes a String as JSON string literal.
+     */
+    private static byte[] quote(final String value) {
+        final StringBuilder quoted = new StringBuilder(value.length() + 8);
+        quoted.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        quoted.append('"');
+        return quoted.toString().getBytes(Utilities.UTF_8_CHARSET);
+    }
+}
@@ -0,0 +1,291 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import org.jboss.aerogear.adm.internal.NamedThreadFactory;
+import org.jboss.aerogear.adm.metrics.Histogram;
+import org.jboss.aerogear.adm.transport.RequestHandle;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Sends urgent messages with hedged requests to cut the tail of the latency. If ADM has not answered a message
+ * within a percentile of the response times observed so far, a duplicate request is sent. The first successful
+ * response wins and the other request is aborted; a message fails only if both requests fail, or when its timeout
+ * has elapsed.
+ *
+ * Only payloads with a consolidation key are hedged: should both requests reach ADM, the device shows the message
+ * once. Other payloads are sent once, still bounded by the timeout. Requests are aborted by closing their connection
+ * if the service uses a {@link org.jboss.aerogear.adm.transport.PooledHttpTransport}, other transports finish
+ * the request in progress and skip its retries.
+ */
+public final class HedgedSender implements Closeable {
+
+    /**
+     * Default percentile of the response times after which a duplicate request is sent.
+     */
+    public static final double DEFAULT_PERCENTILE = 95;
+
+    /**
+     * Default delay of the duplicate request until enough response times have been observed, in milliseconds.
+     */
+    public static final long DEFAULT_INITIAL_DELAY = 100;
+
+    /**
+     * Default time after which a message fails, in milliseconds.
+     */
+    public static final long DEFAULT_TIMEOUT = 10000;
+
+    /**
+     * Number of response times needed before the delay follows the percentile.
+     */
+    static final int MIN_SAMPLES = 100;
+
+    private final AdmService service;
+    private final double percentile;
+    private final long initialDelay;
+    private final long timeout;
+    private final Histogram responseTime = new Histogram();
+    private final LongAdder hedgeCount = new LongAdder();
+    private final LongAdder hedgeWinCount = new LongAdder();
+    private final ScheduledThreadPoolExecutor timer;
+
+    HedgedSender(final HedgedSenderBuilder builder) {
+        this.service = builder.getService();
+        this.percentile = builder.getPercentile();
+        this.initialDelay = TimeUnit.MILLISECONDS.toNanos(builder.getInitialDelay());
+        this.timeout = builder.getTimeout();
+        this.timer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("adm-hedge"));
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @param service sending the messages
+     * @return a new {@link HedgedSenderBuilder} for configuring a {@link HedgedSender}
+     */
+    public static HedgedSenderBuilder newBuilder(final AdmService service) {
+        return new HedgedSenderBuilder(service);
+    }
+
+    /**
+     * Sends a message, hedging it if the payload has a consolidation key. When the maximum of in-flight requests
+     * of the service is reached, the calling thread waits for a free slot; a duplicate request is only sent if a
+     * slot is free. Cancelling the returned future aborts the requests.
+     *
+     * @param registrationId representing the unique identifier of the device
+     * @param clientId unique ID supplied by ADM Services
+     * @param clientSecret secret value supplied by ADM services
+     * @param payload the {@link CompiledPayload}, with all template fields bound
+     * @return a {@link CompletableFuture} holding the registrationId sent back from ADM services, completed
+     * with a {@link TimeoutException} if there was no response within the timeout
+     */
+    public CompletableFuture<String> send(final String registrationId, final String clientId, final String clientSecret, final CompiledPayload payload) {
+        final HedgedSend send = new HedgedSend(registrationId, clientId, clientSecret, payload);
+        send.start(payload.getConsolidationKey() != null);
+        return send.result;
+    }
+
+    /**
+     * @return the current delay of the duplicate request, in nanoseconds
+     */
+    public long getHedgeDelay() {
+        if (responseTime.getCount() < MIN_SAMPLES) {
+            return initialDelay;
+        }
+        return responseTime.getPercentile(percentile);
+    }
+
+    /**
+     * @return the response times of all requests answered by ADM, in nanoseconds
+     */
+    public Histogram getResponseTime() {
+        return responseTime;
+    }
+
+    /**
+     * @return the number of duplicate requests sent
+     */
+    public long getHedgeCount() {
+        return hedgeCount.sum();
+    }
+
+    /**
+     * @return the number of messages whose duplicate request was answered first
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.sum();
+    }
+
+    /**
+     * Stops the timer thread. Messages in progress still complete, but are neither hedged nor timed out anymore,
+     * and no further messages can be sent.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * The requests of a single message.
+     */
+    private final class HedgedSend {
+
+        private final String registrationId;
+        private final String clientId;
+        private final String clientSecret;
+        private final CompiledPayload payload;
+        private final CompletableFuture<String> result = new CompletableFuture<String>();
+        private final RequestHandle primary = new RequestHandle();
+        private final RequestHandle hedge = new RequestHandle();
+        private final ReentrantLock lock = new ReentrantLock();
+        private int pending;
+        private boolean hedgeable;
+        private Throwable failure;
+        private volatile ScheduledFuture<?> hedgeTimer;
+        private volatile ScheduledFuture<?> timeoutTimer;
+
+        HedgedSend(final String registrationId, final String clientId, final String clientSecret, final CompiledPayload payload) {
+            this.registrationId = registrationId;
+            this.clientId = clientId;
+            this.clientSecret = clientSecret;
+            this.payload = payload;
+        }
+
+        void start(final boolean hedged) {
+            lock.lock();
+            try {
+                pending = 1;
+                hedgeable = hedged;
+            } finally {
+                lock.unlock();
+            }
+
+            timeoutTimer = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    result.completeExceptionally(new TimeoutException("No response from ADM within " + timeout + " ms"));
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            if (hedged) {
+                hedgeTimer = timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendHedge();
+                    }
+                }, getHedgeDelay(), TimeUnit.NANOSECONDS);
+            }
+
+            // whatever completes the message, abort the requests still in progress
+            result.whenComplete(new BiConsumer<String, Throwable>() {
+                @Override
+                public void accept(final String canonicalRegistrationId, final Throwable error) {
+                    primary.cancel();
+                    hedge.cancel();
+                    cancel(timeoutTimer);
+                    cancel(hedgeTimer);
+                }
+            });
+
+            attempt(primary, true);
+        }
+
+        private void sendHedge() {
+            lock.lock();
+            try {
+                if (!hedgeable || result.isDone()) {
+                    return;
+                }
+                hedgeable = false;
+                pending++;
+            } finally {
+                lock.unlock();
+            }
+
+            if (attempt(hedge, false)) {
+                hedgeCount.increment();
+            } else {
+                // no request slot is free, adding load now would only slow down the other messages
+                onFailure(null);
+            }
+        }
+
+        private boolean attempt(final RequestHandle handle, final boolean wait) {
+            final long started = System.nanoTime();
+            final CompletableFuture<String> attempt = service.sendMessageToDeviceAsync(registrationId, clientId, clientSecret, payload, handle, wait);
+            if (attempt == null) {
+                return false;
+            }
+            attempt.whenComplete(new BiConsumer<String, Throwable>() {
+                @Override
+                public void accept(final String canonicalRegistrationId, final Throwable error) {
+                    if (error == null || error instanceof AdmException) {
+                        responseTime.record(System.nanoTime() - started);
+                    }
+                    if (error != null) {
+                        onFailure(error);
+                    } else if (handle == primary) {
+                        result.complete(canonicalRegistrationId);
+                    } else {
+                        // counted ahead, so that the count includes this message once its result is visible
+                        hedgeWinCount.increment();
+                        if (!result.complete(canonicalRegistrationId)) {
+                            hedgeWinCount.decrement();
+                        }
+                    }
+                }
+            });
+            return true;
+        }
+
+        /**
+         * @param error the failure of a request, or {@code null} if the duplicate request could not be sent
+         */
+        private void onFailure(final Throwable error) {
+            final Throwable failed;
+            lock.lock();
+            try {
+                if (failure == null) {
+                    failure = error;
+                }
+                // the primary request failed on its own, not because it was slow: a duplicate would fail as well
+                hedgeable = false;
+                pending--;
+                failed = pending == 0 ? failure : null;
+            } finally {
+                lock.unlock();
+            }
+            if (failed != null) {
+                result.completeExceptionally(failed);
+            }
+        }
+
+        private void cancel(final ScheduledFuture<?> scheduled) {
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+/**
+ * A builder class to configure and create a {@link HedgedSender}
+ *
+ */
+public class HedgedSenderBuilder {
+
+    private final AdmService service;
+    private double percentile = HedgedSender.DEFAULT_PERCENTILE;
+    private long initialDelay = HedgedSender.DEFAULT_INITIAL_DELAY;
+    private long timeout = HedgedSender.DEFAULT_TIMEOUT;
+
+    HedgedSenderBuilder(final AdmService service) {
+        if (service == null) {
+            throw new IllegalArgumentException("service must not be null");
+        }
+        this.service = service;
+    }
+
+    /**
+     * The percentile of the observed response times after which a duplicate request is sent,
+     * {@link HedgedSender#DEFAULT_PERCENTILE} if not set. With 95, about one in twenty messages is sent twice.
+     *
+     * @param percentile the percentile, greater than 0 and less than 100
+     * @return the current {@link HedgedSenderBuilder} instance
+     */
+    public HedgedSenderBuilder percentile(final double percentile) {
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("percentile must be greater than 0 and less than 100");
+        }
+        this.percentile = percentile;
+        return this;
+    }
+
+    /**
+     * The delay after which a duplicate request is sent as long as too few response times have been observed
+     * to compute the percentile, {@link HedgedSender#DEFAULT_INITIAL_DELAY} if not set.
+     *
+     * @param initialDelay the delay, in milliseconds
+     * @return the current {@link HedgedSenderBuilder} instance
+     */
+    public HedgedSenderBuilder initialDelay(final long initialDelay) {
+        if (initialDelay < 0) {
+            throw new IllegalArgumentException("initialDelay must not be negative");
+        }
+        this.initialDelay = initialDelay;
+        return this;
+    }
+
+    /**
+     * The time after which a message fails with a {@link java.util.concurrent.TimeoutException} and its requests
+     * are aborted, {@link HedgedSender#DEFAULT_TIMEOUT} if not set.
+     *
+     * @param timeout the timeout, in milliseconds
+     * @return the current {@link HedgedSenderBuilder} instance
+     */
+    public HedgedSenderBuilder timeout(final long timeout) {
+        if (timeout < 1) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * Builds the configured sender
+     *
+     * @return a new {@link HedgedSender}
+     */
+    public HedgedSender build() {
+        return new HedgedSender(this);
+    }
+
+    AdmService getService() {
+        return service;
+    }
+
+    double getPercentile() {
+        return percentile;
+    }
+
+    long getInitialDelay() {
+        return initialDelay;
+    }
+
+    long getTimeout() {
+        return timeout;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The per-device report of a message sent to many registrationIds through
+ * {@link AdmService#sendMessageToDevices(java.util.Collection, String, String, String)}.
+ */
+public final class MulticastResult {
+
+    private final Map<String, SendResult> results;
+
+    MulticastResult(final Map<String, SendResult> results) {
+        this.results = Collections.unmodifiableMap(results);
+    }
+
+    /**
+     * @return the result of every registrationId, in the order the registrationIds were given
+     */
+    public Map<String, SendResult> getResults() {
+        return results;
+    }
+
+    /**
+     * @param registrationId the registrationId the message was sent to
+     * @return the result for the given registrationId, or {@code null} if it was not part of the multicast
+     */
+    public SendResult getResult(final String registrationId) {
+        return results.get(registrationId);
+    }
+
+    /**
+     * @return the number of devices for which ADM accepted the message
+     */
+    public int getSuccessCount() {
+        return results.size() - getFailureCount();
+    }
+
+    /**
+     * @return the number of devices for which sending failed
+     */
+    public int getFailureCount() {
+        return getResults(SendResult.Status.ERROR).size();
+    }
+
+    /**
+     * @return the results whose registrationId has to be replaced by a canonical one
+     */
+    public List<SendResult> getCanonicalIds() {
+        return getResults(SendResult.Status.CANONICAL_ID);
+    }
+
+    /**
+     * @return the results of the devices for which sending failed
+     */
+    public List<SendResult> getFailures() {
+        return getResults(SendResult.Status.ERROR);
+    }
+
+    private List<SendResult> getResults(final SendResult.Status status) {
+        final List<SendResult> matching = new ArrayList<SendResult>();
+        for (SendResult result : results.values()) {
+            if (result.getStatus() == status) {
+                matching.add(result);
+            }
+        }
+        return matching;
+    }
+
+    @Override
+    public String toString() {
+        return "MulticastResult{success=" + getSuccessCount() + ", failure=" + getFailureCount() + "}";
+    }
+}
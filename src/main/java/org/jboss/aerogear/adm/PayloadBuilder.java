@@ -18,9 +18,22 @@
 package org.jboss.aerogear.adm;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jboss.aerogear.adm.internal.Utilities;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
 
 /**
  * A builder class to construct a Payload message to be send to ADM Network
@@ -28,14 +41,43 @@ import java.util.Map;
  */
 public class PayloadBuilder {
 
+    /**
+     * The maximum size of the data accepted by ADM, counted as the UTF-8 encoded bytes of all keys and values.
+     */
+    public static final int MAX_DATA_SIZE = 6 * 1024;
+
     private static final ObjectMapper mapper = new ObjectMapper();
 
+    /**
+     * Orders Strings by code point, which is the order of their UTF-8 encoding.
+     */
+    private static final Comparator<String> UTF_8_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(final String first, final String second) {
+            int i = 0;
+            int j = 0;
+            while (i < first.length() && j < second.length()) {
+                final int a = first.codePointAt(i);
+                final int b = second.codePointAt(j);
+                if (a != b) {
+                    return a < b ? -1 : 1;
+                }
+                i += Character.charCount(a);
+                j += Character.charCount(b);
+            }
+            return (first.length() - i) - (second.length() - j);
+        }
+    };
+
     private final Map<String, Object> root;
     private final Map<String, Object> data;
+    private final Set<String> templateFields;
+    private boolean computeMd5;
 
     PayloadBuilder() {
         root = new HashMap<String, Object>();
         data = new HashMap<String, Object>();
+        templateFields = new LinkedHashSet<String>();
     }
 
     /**
@@ -44,18 +86,55 @@ public class PayloadBuilder {
      * @param key of an user custom field
      * @param value of an user custom field
      * @return the current {@link org.jboss.aerogear.adm.PayloadBuilder} instance
+     * @throws IllegalArgumentException if the value is {@code null}
      */
-    public PayloadBuilder dataField(final String key, final Object value) {
+    public PayloadBuilder dataField(final String key, final String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("The value of the data field '" + key + "' must be a String, ADM does not accept null");
+        }
+        templateFields.remove(key);
         data.put(key, value);
         return this;
     }
 
+    /**
+     * Adds an custom payload value for the given key.
+     *
+     * @param key of an user custom field
+     * @param value of an user custom field, must be a String
+     * @return the current {@link org.jboss.aerogear.adm.PayloadBuilder} instance
+     * @throws IllegalArgumentException if the value is not a String
+     * @deprecated ADM only accepts String values, use {@link #dataField(String, String)}
+     */
+    @Deprecated
+    public PayloadBuilder dataField(final String key, final Object value) {
+        if (value != null && !(value instanceof String)) {
+            throw new IllegalArgumentException("The value of the data field '" + key + "' must be a String, ADM does not accept "
+                    + value.getClass().getSimpleName());
+        }
+        return dataField(key, (String) value);
+    }
+
+    /**
+     * Declares a custom field whose value differs per message. Its value is bound on the
+     * {@link CompiledPayload} returned by {@link #compile()}, template fields are not part of {@link #build()}.
+     *
+     * @param key of an user custom field
+     * @return the current {@link org.jboss.aerogear.adm.PayloadBuilder} instance
+     */
+    public PayloadBuilder templateField(final String key) {
+        data.remove(key);
+        templateFields.add(key);
+        return this;
+    }
+
     /**
      *
      * @param dataFields, a map containing custom key/value entries
      * @return the current {@link org.jboss.aerogear.adm.PayloadBuilder} instance
      */
     public PayloadBuilder dataFields(final Map<String, ?> dataFields) {
+        templateFields.removeAll(dataFields.keySet());
         data.putAll(dataFields);
         return this;
     }
@@ -94,16 +173,52 @@ public class PayloadBuilder {
      * @return the current {@link org.jboss.aerogear.adm.PayloadBuilder} instance
      */
     public PayloadBuilder md5(final Object value) {
+        computeMd5 = false;
         root.put("md5", value);
         return this;
     }
 
+    /**
+     * Lets the builder compute the MD5 checksum of the data parameter, see {@link #md5(Object)}. It is computed once
+     * when the payload is built or compiled, a {@link CompiledPayload} is sent to any number of devices with the same checksum.
+     * Payloads with template fields cannot carry a computed checksum, as it depends on the bound values.
+     *
+     * @return the current {@link org.jboss.aerogear.adm.PayloadBuilder} instance
+     */
+    public PayloadBuilder computeMd5() {
+        computeMd5 = true;
+        root.remove("md5");
+        return this;
+    }
+
+    /**
+     * Checks the data fields against the rules of ADM, which would otherwise reject the message only once it
+     * has been sent: all values must be Strings, and keys and values together must not exceed {@link #MAX_DATA_SIZE} bytes.
+     * Called by {@link #build()} and {@link #compile()}, the values of template fields are checked once they are bound.
+     *
+     * @throws IllegalArgumentException if the data fields violate a rule
+     */
+    public void validate() {
+        final int size = dataSize(data);
+        if (size > MAX_DATA_SIZE) {
+            throw new IllegalArgumentException("The data fields take " + size + " bytes, ADM accepts at most " + MAX_DATA_SIZE);
+        }
+    }
+
     /**
      * Builds your complete payload
      *
      * @return a String representing your complete payload
      */
     public String build() {
+        validate();
+        return serialize();
+    }
+
+    private String serialize() {
+        if (computeMd5) {
+            root.put("md5", md5(data));
+        }
         root.put("data", data);
         try {
             return mapper.writeValueAsString(root);
@@ -112,8 +227,119 @@ public class PayloadBuilder {
         }
     }
 
+    /**
+     * Serializes your complete payload once into an immutable, UTF-8 encoded form, which can
+     * be sent to any number of devices without being encoded again.
+     *
+     * @return the {@link CompiledPayload}, with all template fields still to be bound
+     */
+    public CompiledPayload compile() {
+        validate();
+        if (computeMd5 && !templateFields.isEmpty()) {
+            throw new IllegalStateException("The md5 of a payload with template fields depends on the bound values");
+        }
+
+        final Map<String, Object> compiledData = new HashMap<String, Object>(data);
+        final Map<String, Object> compiledRoot = new HashMap<String, Object>(root);
+        compiledRoot.put("data", compiledData);
+        if (computeMd5) {
+            compiledRoot.put("md5", md5(data));
+        }
+        final Object md5 = compiledRoot.get("md5");
+        final Object consolidationKey = compiledRoot.get("consolidationKey");
+
+        // serialize the template fields as unique markers, and cut the result at their positions
+        final String marker = UUID.randomUUID().toString();
+        final List<String> fields = new ArrayList<String>(templateFields);
+        for (int i = 0; i < fields.size(); i++) {
+            compiledData.put(fields.get(i), marker + i);
+        }
+
+        final byte[] json;
+        try {
+            json = mapper.writeValueAsBytes(compiledRoot);
+        } catch (final Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        final TreeMap<Integer, Integer> positions = new TreeMap<Integer, Integer>();
+        for (int i = 0; i < fields.size(); i++) {
+            positions.put(indexOf(json, ("\"" + marker + i + "\"").getBytes(Utilities.UTF_8_CHARSET)), i);
+        }
+
+        final byte[][] segments = new byte[fields.size() + 1][];
+        final List<String> orderedFields = new ArrayList<String>();
+        int offset = 0;
+        int segment = 0;
+        for (Map.Entry<Integer, Integer> position : positions.entrySet()) {
+            segments[segment++] = Arrays.copyOfRange(json, offset, position.getKey());
+            orderedFields.add(fields.get(position.getValue()));
+            // the marker of the template field i has the same length as "<marker>i" plus quotes
+            offset = position.getKey() + marker.length() + String.valueOf(position.getValue()).length() + 2;
+        }
+        segments[segment] = Arrays.copyOfRange(json, offset, json.length);
+
+        return new CompiledPayload(segments, orderedFields, dataSize(data), md5 instanceof String ? (String) md5 : null,
+                consolidationKey == null ? null : consolidationKey.toString());
+    }
+
+    /**
+     * @return the size of the data as counted by ADM, the UTF-8 encoded keys and values
+     * @throws IllegalArgumentException if a value is not a String
+     */
+    private static int dataSize(final Map<String, Object> data) {
+        int size = 0;
+        for (Map.Entry<String, Object> field : data.entrySet()) {
+            if (!(field.getValue() instanceof String)) {
+                throw new IllegalArgumentException("The value of the data field '" + field.getKey() + "' must be a String, ADM does not accept "
+                        + (field.getValue() == null ? "null" : field.getValue().getClass().getSimpleName()));
+            }
+            size += Utilities.utf8Length(field.getKey()) + Utilities.utf8Length((String) field.getValue());
+        }
+        return size;
+    }
+
+    /**
+     * The MD5 checksum of the data as defined by ADM: the {@code key:value} pairs ordered by key, joined by commas,
+     * UTF-8 encoded, hashed and Base64 encoded.
+     */
+    static String md5(final Map<String, ?> data) {
+        final List<String> keys = new ArrayList<String>(data.keySet());
+        Collections.sort(keys, UTF_8_ORDER);
+
+        final StringBuilder canonical = new StringBuilder();
+        for (String key : keys) {
+            if (canonical.length() > 0) {
+                canonical.append(',');
+            }
+            canonical.append(key).append(':').append(data.get(key));
+        }
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("MD5");
+            return Base64.getEncoder().encodeToString(digest.digest(canonical.toString().getBytes(Utilities.UTF_8_CHARSET)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not supported by the JVM", e);
+        }
+    }
+
+    private static int indexOf(final byte[] source, final byte[] target) {
+        outer:
+        for (int i = 0; i <= source.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (source[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new IllegalStateException("template field not found in the serialized payload");
+    }
+
+    /**
+     * @return the payload as built so far, without checking it against the rules of ADM
+     */
     @Override
     public String toString() {
-        return build();
+        return serialize();
     }
 }
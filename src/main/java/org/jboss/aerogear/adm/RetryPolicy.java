@@ -0,0 +1,133 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides how often and after which delay a failed message is sent again. Server errors (HTTP 5xx)
+ * and I/O errors are retried with an exponentially growing, jittered backoff. A rejected access
+ * token (HTTP 401) is refreshed and retried right away, but counts against the same number of attempts.
+ *
+ * Message requests are not idempotent. An I/O error is therefore only retried if the request cannot have reached ADM,
+ * e.g. the connection could not be established. A failure after the request was written, such as a read timeout,
+ * leaves the outcome unknown and is reported, unless {@link #withUnconfirmedRetries()} accepts the risk of delivering
+ * the message twice.
+ */
+public final class RetryPolicy {
+
+    /**
+     * Three attempts, starting with a backoff of 100 milliseconds.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, 100, 5000);
+
+    /**
+     * A single attempt, failures are reported right away.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final double multiplier;
+    private final double jitter;
+    private final boolean unconfirmedRetries;
+
+    /**
+     * Creates a policy doubling the backoff after every attempt, with a jitter of up to half the backoff.
+     *
+     * @param maxAttempts the maximum number of attempts, including the first one
+     * @param initialBackoff the delay before the second attempt, in milliseconds
+     * @param maxBackoff the upper bound of the delay, in milliseconds
+     */
+    public RetryPolicy(final int maxAttempts, final long initialBackoff, final long maxBackoff) {
+        this(maxAttempts, initialBackoff, maxBackoff, 2, 0.5);
+    }
+
+    /**
+     * @param maxAttempts the maximum number of attempts, including the first one
+     * @param initialBackoff the delay before the second attempt, in milliseconds
+     * @param maxBackoff the upper bound of the delay, in milliseconds
+     * @param multiplier the factor the delay grows by after every attempt
+     * @param jitter the fraction of the delay which is randomly taken off, between 0 and 1
+     */
+    public RetryPolicy(final int maxAttempts, final long initialBackoff, final long maxBackoff, final double multiplier, final double jitter) {
+        this(maxAttempts, initialBackoff, maxBackoff, multiplier, jitter, false);
+    }
+
+    private RetryPolicy(final int maxAttempts, final long initialBackoff, final long maxBackoff, final double multiplier, final double jitter,
+                        final boolean unconfirmedRetries) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive");
+        }
+        if (initialBackoff < 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("backoff must not be negative and maxBackoff must not be below initialBackoff");
+        }
+        if (multiplier < 1 || jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("multiplier must be at least 1 and jitter between 0 and 1");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+        this.unconfirmedRetries = unconfirmedRetries;
+    }
+
+    /**
+     * Also retries messages whose request failed after it may have reached ADM, e.g. on a read timeout. ADM may have
+     * accepted the first attempt, so the device can receive the message twice; use a consolidation key to make
+     * duplicates harmless.
+     *
+     * @return a copy of this policy retrying unconfirmed messages
+     */
+    public RetryPolicy withUnconfirmedRetries() {
+        return new RetryPolicy(maxAttempts, initialBackoff, maxBackoff, multiplier, jitter, true);
+    }
+
+    /**
+     * @return {@code true} if messages are retried after failures which leave it unknown whether ADM received them
+     */
+    public boolean isRetryingUnconfirmed() {
+        return unconfirmedRetries;
+    }
+
+    /**
+     * @return the maximum number of attempts, including the first one
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param attempt the number of the attempt which failed, starting with 1
+     * @return {@code true} if another attempt may be made
+     */
+    public boolean canRetry(final int attempt) {
+        return attempt < maxAttempts;
+    }
+
+    /**
+     * @param attempt the number of the attempt which failed, starting with 1
+     * @return the delay before the next attempt, in milliseconds
+     */
+    public long getBackoff(final int attempt) {
+        final double backoff = Math.min(maxBackoff, initialBackoff * Math.pow(multiplier, attempt - 1));
+        return (long) (backoff * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+}
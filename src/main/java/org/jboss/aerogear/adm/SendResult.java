@@ -0,0 +1,107 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+/**
+ * The outcome of sending a message to a single device as part of a multicast.
+ */
+public final class SendResult {
+
+    /**
+     * The different outcomes of a send.
+     */
+    public enum Status {
+        /**
+         * ADM accepted the message and confirmed the registrationId.
+         */
+        SUCCESS,
+        /**
+         * ADM accepted the message, but returned a different, canonical registrationId
+         * which should replace the one used for the request.
+         */
+        CANONICAL_ID,
+        /**
+         * The message could not be delivered to ADM.
+         */
+        ERROR
+    }
+
+    private final Status status;
+    private final String registrationId;
+    private final String canonicalRegistrationId;
+    private final Throwable error;
+
+    private SendResult(final Status status, final String registrationId, final String canonicalRegistrationId, final Throwable error) {
+        this.status = status;
+        this.registrationId = registrationId;
+        this.canonicalRegistrationId = canonicalRegistrationId;
+        this.error = error;
+    }
+
+    static SendResult success(final String registrationId, final String canonicalRegistrationId) {
+        if (registrationId.equals(canonicalRegistrationId)) {
+            return new SendResult(Status.SUCCESS, registrationId, canonicalRegistrationId, null);
+        }
+        return new SendResult(Status.CANONICAL_ID, registrationId, canonicalRegistrationId, null);
+    }
+
+    static SendResult error(final String registrationId, final Throwable error) {
+        return new SendResult(Status.ERROR, registrationId, null, error);
+    }
+
+    /**
+     * @return the outcome of the send
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the registrationId the message was sent to
+     */
+    public String getRegistrationId() {
+        return registrationId;
+    }
+
+    /**
+     * @return the canonical registrationId returned by ADM, or {@code null} if sending failed
+     */
+    public String getCanonicalRegistrationId() {
+        return canonicalRegistrationId;
+    }
+
+    /**
+     * @return the cause of the failure, or {@code null} if ADM accepted the message
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * @return {@code true} if ADM accepted the message
+     */
+    public boolean isSuccess() {
+        return status != Status.ERROR;
+    }
+
+    @Override
+    public String toString() {
+        return "SendResult{status=" + status + ", registrationId=" + registrationId
+                + ", canonicalRegistrationId=" + canonicalRegistrationId + ", error=" + error + "}";
+    }
+}
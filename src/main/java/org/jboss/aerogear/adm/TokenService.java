@@ -18,21 +18,88 @@
 package org.jboss.aerogear.adm;
 
 
+import org.jboss.aerogear.adm.internal.NamedThreadFactory;
 import org.jboss.aerogear.adm.internal.Utilities;
-import javax.net.ssl.HttpsURLConnection;
-import java.io.OutputStream;
+import org.jboss.aerogear.adm.metrics.AdmMetrics;
+import org.jboss.aerogear.adm.transport.HttpTransport;
+import org.jboss.aerogear.adm.transport.PooledHttpTransport;
+import org.jboss.aerogear.adm.transport.TransportResponse;
+
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Obtains the access tokens needed to talk to ADM. Tokens are cached per clientId until shortly
+ * before they expire and refreshed in the background ahead of their expiry. Only one
+ * refresh runs per clientId at a time, concurrent callers wait for its outcome.
+ */
+public class TokenService implements Closeable {
 
-public class TokenService {
+    /**
+     * Lifetime assumed for a token if the token endpoint does not send {@code expires_in}.
+     */
+    static final long DEFAULT_EXPIRES_IN = 3600;
+
+    private static final Executor REFRESH_EXECUTOR = Executors.newCachedThreadPool(new NamedThreadFactory("adm-token-refresh"));
+
+    private final ConcurrentMap<String, CachedToken> tokens = new ConcurrentHashMap<String, CachedToken>();
+    private final HttpTransport transport;
+    private final boolean ownsTransport;
+    private final String tokenUrl;
+    private final AdmMetrics metrics;
+
+    public TokenService() {
+        this(new PooledHttpTransport(), true, Utilities.ADM_ENDPOINT, AdmMetrics.NONE);
+    }
 
+    /**
+     * @param transport the {@link HttpTransport} used to talk to the token endpoint
+     */
+    public TokenService(final HttpTransport transport) {
+        this(transport, false, Utilities.ADM_ENDPOINT, AdmMetrics.NONE);
+    }
 
+    /**
+     * @param transport the {@link HttpTransport} used to talk to the token endpoint
+     * @param endpoint the base URL of the Amazon API, e.g. a local stub used for testing
+     */
+    public TokenService(final HttpTransport transport, final String endpoint) {
+        this(transport, false, endpoint, AdmMetrics.NONE);
+    }
+
+    /**
+     * @param transport the {@link HttpTransport} used to talk to the token endpoint
+     * @param endpoint the base URL of the Amazon API, e.g. a local stub used for testing
+     * @param metrics recording the latency of the token endpoint
+     */
+    public TokenService(final HttpTransport transport, final String endpoint, final AdmMetrics metrics) {
+        this(transport, false, endpoint, metrics);
+    }
+
+    private TokenService(final HttpTransport transport, final boolean ownsTransport, final String endpoint, final AdmMetrics metrics) {
+        this.transport = transport;
+        this.ownsTransport = ownsTransport;
+        this.tokenUrl = endpoint + Utilities.TOKEN_PATH;
+        this.metrics = metrics;
+    }
 
     /**
      * To obtain an access token, make an HTTPS request to Amazon
      * and include your client_id and client_secret values.
+     * The token is cached, subsequent calls for the same clientId return it without contacting Amazon
+     * until it is about to expire.
      * 
      * @param clientId unique ID supplied by ADM Services
      * @param clientSecret secret value supplied by ADM services
@@ -40,17 +107,71 @@ public class TokenService {
      * @throws Exception if retrieving the Auth token fails
      */
     public String getAuthToken(String clientId, String clientSecret) throws Exception {
+        CachedToken cachedToken = tokens.get(clientId);
+        if (cachedToken == null) {
+            final CachedToken created = new CachedToken(clientId);
+            cachedToken = tokens.putIfAbsent(clientId, created);
+            if (cachedToken == null) {
+                cachedToken = created;
+            }
+        }
+        return cachedToken.get(clientSecret);
+    }
+
+    /**
+     * Discards the cached token of the given clientId, e.g. because ADM rejected it. The next call
+     * to {@link #getAuthToken(String, String)} fetches a new one. If the cached token has already
+     * been replaced by a newer one, nothing happens.
+     *
+     * @param clientId unique ID supplied by ADM Services
+     * @param rejectedToken the token which is no longer accepted
+     */
+    public void invalidateAuthToken(final String clientId, final String rejectedToken) {
+        final CachedToken cachedToken = tokens.get(clientId);
+        if (cachedToken != null) {
+            cachedToken.invalidate(rejectedToken);
+        }
+    }
+
+    /**
+     * Drops the cached token of the given clientId, e.g. because the app is no longer served. A later call
+     * to {@link #getAuthToken(String, String)} fetches a new one.
+     *
+     * @param clientId unique ID supplied by ADM Services
+     */
+    public void removeAuthToken(final String clientId) {
+        tokens.remove(clientId);
+    }
+
+    /**
+     * Fetches a new access token from the Amazon token endpoint, bypassing the cache.
+     *
+     * @param clientId unique ID supplied by ADM Services
+     * @param clientSecret secret value supplied by ADM services
+     * @return the new {@link AccessToken}
+     * @throws Exception if retrieving the Auth token fails
+     */
+    protected AccessToken fetchAccessToken(String clientId, String clientSecret) throws Exception {
         // Encode the body of your request, including your clientID and clientSecret values.
         String body = buildBody(clientId, clientSecret);
 
-        // Generate the HTTPS connection. You cannot make a connection over HTTP.
-        final HttpsURLConnection con = post(body);
+        // Send the request over HTTPS. You cannot make a connection over HTTP.
+        final long started = System.nanoTime();
+        final TransportResponse response = post(body);
+        metrics.onTokenResponse(response.getStatusCode(), System.nanoTime() - started);
 
-        // Convert the response into a String object.
-        final String responseContent = Utilities.parseResponse(con.getInputStream());
+        if (response.getStatusCode() != 200) {
+            // Convert the error response into a String object.
+            throw new AdmException("token", response.getStatusCode(), Utilities.parseResponse(response.getBody()));
+        }
 
-        final String accessToken = Utilities.getStringFromJson(responseContent, "access_token");
-        return accessToken;
+        final String[] fields = Utilities.getStringsFromJson(response.getBody(), "access_token", "expires_in");
+        final String accessToken = fields[0];
+        final String expiresIn = fields[1];
+        if (accessToken == null) {
+            throw new IllegalStateException("The token response does not contain an access_token");
+        }
+        return new AccessToken(accessToken, expiresIn == null ? DEFAULT_EXPIRES_IN : Long.parseLong(expiresIn));
     }
 
 
@@ -72,37 +193,124 @@ public class TokenService {
     }
 
     /**
-     * Returns HttpsURLConnection that 'posts' the given payload to ADM.
+     * 'posts' the given payload to the token endpoint and returns the response.
      */
-    private HttpsURLConnection post(final String payload) throws Exception {
+    private TransportResponse post(final String payload) throws IOException {
 
         // Create a new URL object with the base URL for the access token request.
-        URL authUrl = new URL(Utilities.HTTPS_API_AMAZON_COM_AUTH_O2_TOKEN);
-
-        final HttpsURLConnection conn = Utilities.getHttpsURLConnection(authUrl);
-        conn.setDoOutput(true);
-        conn.setUseCaches(false);
+        URL authUrl = new URL(tokenUrl);
 
         // Set the content type .
-        conn.setRequestProperty("content-type", Utilities.APPLICATION_X_WWW_FORM_URLENCODED);
-        conn.setRequestProperty("charset", Utilities.UTF_8);
-
-        conn.setRequestMethod("POST");
-
-        OutputStream out = null;
-        final byte[] bytes = payload.getBytes(Utilities.UTF_8_CHARSET);
-        try {
-            out = conn.getOutputStream();
-            out.write(bytes);
-            out.flush();
-        } finally {
-            // in case something blows up, while writing
-            // the payload, we wanna close the stream:
-            if (out != null) {
-                out.close();
-            }
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("content-type", Utilities.APPLICATION_X_WWW_FORM_URLENCODED);
+        headers.put("charset", Utilities.UTF_8);
+
+        return transport.post(authUrl, headers, payload.getBytes(Utilities.UTF_8_CHARSET));
+    }
+
+    /**
+     * Closes the {@link HttpTransport} if it has been created by this service.
+     */
+    @Override
+    public void close() throws IOException {
+        if (ownsTransport) {
+            transport.close();
         }
-        return conn;
     }
 
+    /**
+     * The cached token of a single clientId, making sure only one refresh is in progress at a time.
+     */
+    private final class CachedToken {
+
+        private final String clientId;
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile AccessToken token;
+        private CompletableFuture<AccessToken> refresh;
+
+        CachedToken(final String clientId) {
+            this.clientId = clientId;
+        }
+
+        String get(final String clientSecret) throws Exception {
+            final AccessToken current = token;
+            final long now = System.currentTimeMillis();
+
+            if (current != null && !current.isExpired(now)) {
+                if (current.needsRefresh(now)) {
+                    // keep using the current token while the new one is fetched
+                    refresh(clientSecret);
+                }
+                return current.getToken();
+            }
+
+            try {
+                return refresh(clientSecret).get().getToken();
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+
+        void invalidate(final String rejectedToken) {
+            lock.lock();
+            try {
+                final AccessToken current = token;
+                if (current != null && current.getToken().equals(rejectedToken)) {
+                    token = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private CompletableFuture<AccessToken> refresh(final String clientSecret) {
+            lock.lock();
+            try {
+                // another thread may have completed a refresh since the token was read
+                final AccessToken current = token;
+                if (refresh == null && current != null && !current.needsRefresh(System.currentTimeMillis())) {
+                    return CompletableFuture.completedFuture(current);
+                }
+                if (refresh == null) {
+                    final CompletableFuture<AccessToken> future = new CompletableFuture<AccessToken>();
+                    refresh = future;
+                    REFRESH_EXECUTOR.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            AccessToken fetched = null;
+                            Throwable failure = null;
+                            try {
+                                fetched = fetchAccessToken(clientId, clientSecret);
+                            } catch (Throwable e) {
+                                failure = e;
+                            }
+
+                            lock.lock();
+                            try {
+                                if (fetched != null) {
+                                    token = fetched;
+                                }
+                                refresh = null;
+                            } finally {
+                                lock.unlock();
+                            }
+
+                            if (fetched != null) {
+                                future.complete(fetched);
+                            } else {
+                                future.completeExceptionally(failure);
+                            }
+                        }
+                    });
+                }
+                return refresh;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
 }
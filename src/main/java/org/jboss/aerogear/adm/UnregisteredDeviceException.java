@@ -0,0 +1,50 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+/**
+ * Thrown instead of sending a message to a device which ADM reported as unregistered before,
+ * see {@link AdmServiceBuilder#feedbackStore(org.jboss.aerogear.adm.feedback.FeedbackStore)}.
+ */
+public class UnregisteredDeviceException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String registrationId;
+    private final String reason;
+
+    public UnregisteredDeviceException(final String registrationId, final String reason) {
+        super("The device " + registrationId + " has been reported as " + reason + ", the message has not been sent");
+        this.registrationId = registrationId;
+        this.reason = reason;
+    }
+
+    /**
+     * @return the registrationId of the device
+     */
+    public String getRegistrationId() {
+        return registrationId;
+    }
+
+    /**
+     * @return the reason ADM gave for rejecting the device, e.g. {@code Unregistered}
+     */
+    public String getReason() {
+        return reason;
+    }
+}
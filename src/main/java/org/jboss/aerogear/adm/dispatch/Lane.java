@@ -0,0 +1,134 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.dispatch;
+
+import org.jboss.aerogear.adm.metrics.Histogram;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * A priority lane of a {@link PriorityDispatcher}: a bounded queue of messages, its share of the
+ * workers and the measurements of the messages which passed through it.
+ */
+public final class Lane {
+
+    private final String name;
+    private final int weight;
+    private final int capacity;
+
+    private final Histogram queueTime = new Histogram();
+    private final Histogram sendTime = new Histogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    // guarded by the lock of the dispatcher
+    final Deque<PriorityDispatcher.Task> queue = new ArrayDeque<PriorityDispatcher.Task>();
+    final Condition notFull;
+    int currentWeight;
+    private volatile int queueDepth;
+
+    Lane(final String name, final int weight, final int capacity, final Condition notFull) {
+        this.name = name;
+        this.weight = weight;
+        this.capacity = capacity;
+        this.notFull = notFull;
+    }
+
+    /**
+     * @return the name of the lane
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the share of the workers the lane gets while other lanes have messages waiting as well
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return the maximum number of messages waiting in the lane
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of messages currently waiting in the lane
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return nanoseconds the messages waited in the lane for a worker
+     */
+    public Histogram getQueueTime() {
+        return queueTime;
+    }
+
+    /**
+     * @return nanoseconds from the start of sending a message until its outcome was known, including retries
+     */
+    public Histogram getSendTime() {
+        return sendTime;
+    }
+
+    /**
+     * @return the number of messages accepted by ADM
+     */
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    /**
+     * @return the number of messages which could not be sent
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    void offer(final PriorityDispatcher.Task task) {
+        queue.addLast(task);
+        queueDepth = queue.size();
+    }
+
+    PriorityDispatcher.Task poll() {
+        final PriorityDispatcher.Task task = queue.pollFirst();
+        queueDepth = queue.size();
+        notFull.signal();
+        return task;
+    }
+
+    void onSent(final long queued, final long sending) {
+        queueTime.record(queued);
+        sendTime.record(sending);
+        sent.increment();
+    }
+
+    void onFailed(final long queued, final long sending) {
+        queueTime.record(queued);
+        sendTime.record(sending);
+        failed.increment();
+    }
+}
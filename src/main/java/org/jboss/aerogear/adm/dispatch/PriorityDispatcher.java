@@ -0,0 +1,265 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.dispatch;
+
+import org.jboss.aerogear.adm.AdmService;
+import org.jboss.aerogear.adm.CompiledPayload;
+import org.jboss.aerogear.adm.internal.NamedThreadFactory;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Schedules the messages of several priority lanes onto a fixed number of workers sending through an
+ * {@link AdmService}. Whenever a worker becomes free, it takes the next message of a lane chosen by
+ * smooth weighted round robin among the lanes with messages waiting: a lane of weight 10 next to a lane of
+ * weight 1 gets ten of every eleven free workers, while the lighter lane is never starved. A lane without
+ * competition gets all workers.
+ *
+ * Urgent messages like one-time passwords therefore only wait for the next free worker, even while a large
+ * campaign is queued in a lane of lower weight.
+ */
+public class PriorityDispatcher implements Closeable {
+
+    /**
+     * Default number of worker threads, the maximum number of messages sent at the same time.
+     */
+    public static final int DEFAULT_WORKERS = 16;
+
+    /**
+     * Default maximum number of messages waiting in a lane.
+     */
+    public static final int DEFAULT_LANE_CAPACITY = 10000;
+
+    private final AdmService service;
+    private final Map<String, Lane> lanes = new LinkedHashMap<String, Lane>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private int queued;
+    private boolean closed;
+
+    PriorityDispatcher(final PriorityDispatcherBuilder builder) {
+        this.service = builder.getService();
+        for (PriorityDispatcherBuilder.LaneConfig config : builder.getLanes()) {
+            lanes.put(config.name, new Lane(config.name, config.weight, config.capacity, lock.newCondition()));
+        }
+
+        final ThreadFactory threadFactory = new NamedThreadFactory("adm-dispatcher");
+        for (int i = 0; i < builder.getWorkers(); i++) {
+            final Thread worker = threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * @param service sending the dispatched messages
+     * @return a new {@link PriorityDispatcherBuilder} for configuring a {@link PriorityDispatcher}
+     */
+    public static PriorityDispatcherBuilder newBuilder(final AdmService service) {
+        return new PriorityDispatcherBuilder(service);
+    }
+
+    /**
+     * Queues a message in the given lane. When the lane is full, the calling thread waits until a message of the lane has been taken.
+     *
+     * @param lane the name of the lane
+     * @param registrationId representing the unique identifier of the device
+     * @param clientId unique ID supplied by ADM Services
+     * @param clientSecret secret value supplied by ADM services
+     * @param payload the {@link CompiledPayload}, with all template fields bound
+     * @return a future completing with the canonical registrationId, or exceptionally if sending the message fails
+     * @throws InterruptedException if interrupted while waiting for room in the lane
+     */
+    public CompletableFuture<String> submit(final String lane, final String registrationId, final String clientId,
+                                            final String clientSecret, final CompiledPayload payload) throws InterruptedException {
+        final Lane target = lanes.get(lane);
+        if (target == null) {
+            throw new IllegalArgumentException("Unknown lane '" + lane + "'");
+        }
+        final Task task = new Task(target, registrationId, clientId, clientSecret, payload);
+
+        lock.lockInterruptibly();
+        try {
+            while (!closed && target.queue.size() >= target.getCapacity()) {
+                target.notFull.await();
+            }
+            if (closed) {
+                throw new IllegalStateException("The dispatcher has been closed");
+            }
+            target.offer(task);
+            queued++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return task.future;
+    }
+
+    /**
+     * Queues a message in the given lane, see {@link #submit(String, String, String, String, CompiledPayload)}.
+     *
+     * @param lane the name of the lane
+     * @param registrationId representing the unique identifier of the device
+     * @param clientId unique ID supplied by ADM Services
+     * @param clientSecret secret value supplied by ADM services
+     * @param payload , a String representing the complete payload to be submitted
+     * @return a future completing with the canonical registrationId, or exceptionally if sending the message fails
+     * @throws InterruptedException if interrupted while waiting for room in the lane
+     */
+    public CompletableFuture<String> submit(final String lane, final String registrationId, final String clientId,
+                                            final String clientSecret, final String payload) throws InterruptedException {
+        return submit(lane, registrationId, clientId, clientSecret, CompiledPayload.of(payload));
+    }
+
+    /**
+     * @param name of the lane
+     * @return the lane, or {@code null} if there is no lane of that name
+     */
+    public Lane getLane(final String name) {
+        return lanes.get(name);
+    }
+
+    /**
+     * @return all lanes, in the order they were configured
+     */
+    public Collection<Lane> getLanes() {
+        return Collections.unmodifiableCollection(lanes.values());
+    }
+
+    /**
+     * Stops accepting messages, sends the messages still queued and waits for the workers to finish.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            for (Lane lane : lanes.values()) {
+                lane.notFull.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the dispatcher workers");
+        }
+    }
+
+    private void work() {
+        try {
+            Task task = next();
+            while (task != null) {
+                task.run();
+                task = next();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes the next message by smooth weighted round robin over the lanes with messages waiting.
+     */
+    private Task next() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queued == 0) {
+                if (closed) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+
+            Lane selected = null;
+            int totalWeight = 0;
+            for (Lane lane : lanes.values()) {
+                if (lane.queue.isEmpty()) {
+                    continue;
+                }
+                lane.currentWeight += lane.getWeight();
+                totalWeight += lane.getWeight();
+                if (selected == null || lane.currentWeight > selected.currentWeight) {
+                    selected = lane;
+                }
+            }
+            selected.currentWeight -= totalWeight;
+            queued--;
+            return selected.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A queued message.
+     */
+    final class Task {
+
+        private final Lane lane;
+        private final String registrationId;
+        private final String clientId;
+        private final String clientSecret;
+        private final CompiledPayload payload;
+        private final CompletableFuture<String> future = new CompletableFuture<String>();
+        private final long queuedAt = System.nanoTime();
+
+        Task(final Lane lane, final String registrationId, final String clientId, final String clientSecret, final CompiledPayload payload) {
+            this.lane = lane;
+            this.registrationId = registrationId;
+            this.clientId = clientId;
+            this.clientSecret = clientSecret;
+            this.payload = payload;
+        }
+
+        void run() {
+            final long started = System.nanoTime();
+            try {
+                final String canonicalRegistrationId = service.sendMessageToDevice(registrationId, clientId, clientSecret, payload);
+                lane.onSent(started - queuedAt, System.nanoTime() - started);
+                future.complete(canonicalRegistrationId);
+            } catch (Throwable e) {
+                lane.onFailed(started - queuedAt, System.nanoTime() - started);
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.dispatch;
+
+import org.jboss.aerogear.adm.AdmService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A builder class to configure and create a {@link PriorityDispatcher}
+ *
+ */
+public class PriorityDispatcherBuilder {
+
+    private final AdmService service;
+    private final List<LaneConfig> lanes = new ArrayList<LaneConfig>();
+    private int workers = PriorityDispatcher.DEFAULT_WORKERS;
+
+    PriorityDispatcherBuilder(final AdmService service) {
+        if (service == null) {
+            throw new IllegalArgumentException("service must not be null");
+        }
+        this.service = service;
+    }
+
+    /**
+     * Adds a lane holding up to {@link PriorityDispatcher#DEFAULT_LANE_CAPACITY} messages.
+     *
+     * @param name of the lane, used when submitting messages
+     * @param weight the share of the workers the lane gets while other lanes have messages waiting, must be positive
+     * @return the current {@link PriorityDispatcherBuilder} instance
+     */
+    public PriorityDispatcherBuilder lane(final String name, final int weight) {
+        return lane(name, weight, PriorityDispatcher.DEFAULT_LANE_CAPACITY);
+    }
+
+    /**
+     * Adds a lane.
+     *
+     * @param name of the lane, used when submitting messages
+     * @param weight the share of the workers the lane gets while other lanes have messages waiting, must be positive
+     * @param capacity the maximum number of messages waiting in the lane, must be positive
+     * @return the current {@link PriorityDispatcherBuilder} instance
+     */
+    public PriorityDispatcherBuilder lane(final String name, final int weight, final int capacity) {
+        if (weight < 1 || capacity < 1) {
+            throw new IllegalArgumentException("weight and capacity must be positive");
+        }
+        for (LaneConfig lane : lanes) {
+            if (lane.name.equals(name)) {
+                throw new IllegalArgumentException("The lane '" + name + "' has already been added");
+            }
+        }
+        lanes.add(new LaneConfig(name, weight, capacity));
+        return this;
+    }
+
+    /**
+     * The number of worker threads, {@link PriorityDispatcher#DEFAULT_WORKERS} if not set. It limits the number
+     * of messages sent at the same time and should not exceed the connections of the transport.
+     *
+     * @param workers the number of threads, must be positive
+     * @return the current {@link PriorityDispatcherBuilder} instance
+     */
+    public PriorityDispatcherBuilder workers(final int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive");
+        }
+        this.workers = workers;
+        return this;
+    }
+
+    /**
+     * Builds the configured dispatcher and starts its workers
+     *
+     * @return a new {@link PriorityDispatcher}
+     */
+    public PriorityDispatcher build() {
+        if (lanes.isEmpty()) {
+            throw new IllegalStateException("At least one lane has to be added");
+        }
+        return new PriorityDispatcher(this);
+    }
+
+    AdmService getService() {
+        return service;
+    }
+
+    List<LaneConfig> getLanes() {
+        return lanes;
+    }
+
+    int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * The configuration of a lane.
+     */
+    static final class LaneConfig {
+
+        final String name;
+        final int weight;
+        final int capacity;
+
+        LaneConfig(final String name, final int weight, final int capacity) {
+            this.name = name;
+            this.weight = weight;
+            this.capacity = capacity;
+        }
+    }
+}
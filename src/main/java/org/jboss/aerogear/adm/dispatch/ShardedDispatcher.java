@@ -0,0 +1,355 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.dispatch;
+
+import org.jboss.aerogear.adm.AdmService;
+import org.jboss.aerogear.adm.CompiledPayload;
+import org.jboss.aerogear.adm.internal.NamedThreadFactory;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Sends messages in parallel while keeping the order of the messages to each device. Messages are partitioned
+ * by a hash of their registrationId over a number of shards, each sending its messages one after the other
+ * on its own thread, so all messages to a device are sent in the order they were submitted.
+ *
+ * When ADM answers with a canonical registrationId, the new id is pinned to the shard of the old one. Messages
+ * submitted with the new id queue up behind those still pending for the old id, instead of overtaking them on another shard.
+ * Once a message to the new id has been sent there and none other is queued for it, the pin is released and the new id
+ * moves to its own shard. At most one pin per message the shards can hold or send is kept: beyond that the oldest pin
+ * without queued messages is dropped. Every pin with queued messages holds one of those messages, so there always is one.
+ */
+public class ShardedDispatcher implements Closeable {
+
+    /**
+     * Default number of shards, the maximum number of messages sent at the same time.
+     */
+    public static final int DEFAULT_SHARDS = 16;
+
+    /**
+     * Default maximum number of messages waiting in a shard.
+     */
+    public static final int DEFAULT_SHARD_CAPACITY = 10000;
+
+    private final AdmService service;
+    private final Shard[] shards;
+    private final Map<String, Pin> pins = new LinkedHashMap<String, Pin>();
+    private final int maxPins;
+    private final ReentrantLock pinLock = new ReentrantLock();
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    ShardedDispatcher(final ShardedDispatcherBuilder builder) {
+        this.service = builder.getService();
+        this.shards = new Shard[builder.getShards()];
+        // the messages queued in the shards and the one each shard is sending
+        this.maxPins = builder.getShards() * (builder.getShardCapacity() + 1);
+
+        final ThreadFactory threadFactory = new NamedThreadFactory("adm-shard");
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i, builder.getShardCapacity());
+            threadFactory.newThread(shards[i]).start();
+        }
+    }
+
+    /**
+     * @param service sending the dispatched messages
+     * @return a new {@link ShardedDispatcherBuilder} for configuring a {@link ShardedDispatcher}
+     */
+    public static ShardedDispatcherBuilder newBuilder(final AdmService service) {
+        return new ShardedDispatcherBuilder(service);
+    }
+
+    /**
+     * Queues a message on the shard of its device. When the shard is full, the calling thread waits until
+     * it has room again.
+     *
+     * @param registrationId representing the unique identifier of the device
+     * @param clientId unique ID supplied by ADM Services
+     * @param clientSecret secret value supplied by ADM services
+     * @param payload the {@link CompiledPayload}, with all template fields bound
+     * @return a future completing with the canonical registrationId, or exceptionally if sending the message fails
+     * @throws InterruptedException if interrupted while waiting for room in the shard
+     */
+    public CompletableFuture<String> submit(final String registrationId, final String clientId, final String clientSecret,
+                                            final CompiledPayload payload) throws InterruptedException {
+        closeLock.readLock().lockInterruptibly();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The dispatcher has been closed");
+            }
+            final Task task = route(registrationId, clientId, clientSecret, payload);
+            try {
+                shards[task.shard].queue.put(task);
+            } catch (InterruptedException e) {
+                release(task, false);
+                throw e;
+            }
+            return task.future;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Queues a message on the shard of its device, see {@link #submit(String, String, String, CompiledPayload)}.
+     *
+     * @param registrationId representing the unique identifier of the device
+     * @param clientId unique ID supplied by ADM Services
+     * @param clientSecret secret value supplied by ADM services
+     * @param payload , a String representing the complete payload to be submitted
+     * @return a future completing with the canonical registrationId, or exceptionally if sending the message fails
+     * @throws InterruptedException if interrupted while waiting for room in the shard
+     */
+    public CompletableFuture<String> submit(final String registrationId, final String clientId, final String clientSecret,
+                                            final String payload) throws InterruptedException {
+        return submit(registrationId, clientId, clientSecret, CompiledPayload.of(payload));
+    }
+
+    /**
+     * @return the number of messages waiting in all shards
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Shard shard : shards) {
+            depth += shard.queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Stops accepting messages, sends the messages still queued and waits for the shards to finish.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            closeLock.writeLock().lockInterruptibly();
+            try {
+                closed = true;
+                for (Shard shard : shards) {
+                    shard.queue.put(Task.END);
+                }
+            } finally {
+                closeLock.writeLock().unlock();
+            }
+            for (Shard shard : shards) {
+                shard.finished.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the dispatcher shards");
+        }
+    }
+
+    /**
+     * @return the shard the messages to the given registrationId are sent by
+     */
+    int shardOf(final String registrationId) {
+        pinLock.lock();
+        try {
+            final Pin pin = pins.get(registrationId);
+            return pin != null ? pin.shard : hashShard(registrationId);
+        } finally {
+            pinLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of canonical registrationIds pinned to the shard of the id they replace
+     */
+    int getPinned() {
+        pinLock.lock();
+        try {
+            return pins.size();
+        } finally {
+            pinLock.unlock();
+        }
+    }
+
+    private int hashShard(final String registrationId) {
+        final int hash = registrationId.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+
+    /**
+     * Creates the task of a message on the shard of its device, counting it against the pin of the registrationId if there is one.
+     */
+    private Task route(final String registrationId, final String clientId, final String clientSecret, final CompiledPayload payload) {
+        pinLock.lock();
+        try {
+            final Pin pin = pins.get(registrationId);
+            if (pin == null) {
+                return new Task(registrationId, clientId, clientSecret, payload, hashShard(registrationId), false);
+            }
+            pin.queued++;
+            return new Task(registrationId, clientId, clientSecret, payload, pin.shard, true);
+        } finally {
+            pinLock.unlock();
+        }
+    }
+
+    /**
+     * Pins a canonical registrationId to the shard of the id it replaces, unless it already lives there.
+     */
+    private void pin(final String canonicalRegistrationId, final int shard) {
+        pinLock.lock();
+        try {
+            if (!pins.containsKey(canonicalRegistrationId) && hashShard(canonicalRegistrationId) != shard) {
+                pins.put(canonicalRegistrationId, new Pin(shard));
+                if (pins.size() > maxPins) {
+                    evictIdlePin();
+                }
+            }
+        } finally {
+            pinLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the oldest pin without queued messages, the pin lock has to be held.
+     */
+    private void evictIdlePin() {
+        final Iterator<Pin> iterator = pins.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().queued == 0) {
+                iterator.remove();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Counts a pinned task as done. The pin is released once a message to the pinned id has been sent and no other is queued.
+     */
+    private void release(final Task task, final boolean sent) {
+        if (!task.pinned) {
+            return;
+        }
+        pinLock.lock();
+        try {
+            final Pin pin = pins.get(task.registrationId);
+            if (pin != null) {
+                pin.queued--;
+                pin.sent |= sent;
+                if (pin.queued == 0 && pin.sent) {
+                    pins.remove(task.registrationId);
+                }
+            }
+        } finally {
+            pinLock.unlock();
+        }
+    }
+
+    /**
+     * A canonical registrationId kept on the shard of the id it replaces. Guarded by the pin lock.
+     */
+    private static final class Pin {
+
+        private final int shard;
+        private int queued;
+        private boolean sent;
+
+        Pin(final int shard) {
+            this.shard = shard;
+        }
+    }
+
+    /**
+     * A single thread sending the messages of its queue in order.
+     */
+    private final class Shard implements Runnable {
+
+        private final int index;
+        private final BlockingQueue<Task> queue;
+        private final CompletableFuture<Void> finished = new CompletableFuture<Void>();
+
+        Shard(final int index, final int capacity) {
+            this.index = index;
+            this.queue = new LinkedBlockingQueue<Task>(capacity);
+        }
+
+        @Override
+        public void run() {
+            try {
+                Task task = queue.take();
+                while (task != Task.END) {
+                    send(task);
+                    task = queue.take();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                finished.complete(null);
+            }
+        }
+
+        private void send(final Task task) {
+            try {
+                final String canonicalRegistrationId = service.sendMessageToDevice(task.registrationId, task.clientId, task.clientSecret, task.payload);
+                if (!canonicalRegistrationId.equals(task.registrationId)) {
+                    pin(canonicalRegistrationId, index);
+                }
+                release(task, true);
+                task.future.complete(canonicalRegistrationId);
+            } catch (Throwable e) {
+                release(task, false);
+                task.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * A queued message.
+     */
+    private static final class Task {
+
+        /**
+         * Marks the end of a queue.
+         */
+        static final Task END = new Task(null, null, null, null, -1, false);
+
+        private final String registrationId;
+        private final String clientId;
+        private final String clientSecret;
+        private final CompiledPayload payload;
+        private final int shard;
+        private final boolean pinned;
+        private final CompletableFuture<String> future = new CompletableFuture<String>();
+
+        Task(final String registrationId, final String clientId, final String clientSecret, final CompiledPayload payload,
+             final int shard, final boolean pinned) {
+            this.registrationId = registrationId;
+            this.clientId = clientId;
+            this.clientSecret = clientSecret;
+            this.payload = payload;
+            this.shard = shard;
+            this.pinned = pinned;
+        }
+    }
+}
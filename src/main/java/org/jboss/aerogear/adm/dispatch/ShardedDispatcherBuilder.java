@@ -0,0 +1,88 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.dispatch;
+
+import org.jboss.aerogear.adm.AdmService;
+
+/**
+ * A builder class to configure and create a {@link ShardedDispatcher}
+ *
+ */
+public class ShardedDispatcherBuilder {
+
+    private final AdmService service;
+    private int shards = ShardedDispatcher.DEFAULT_SHARDS;
+    private int shardCapacity = ShardedDispatcher.DEFAULT_SHARD_CAPACITY;
+
+    ShardedDispatcherBuilder(final AdmService service) {
+        if (service == null) {
+            throw new IllegalArgumentException("service must not be null");
+        }
+        this.service = service;
+    }
+
+    /**
+     * The number of shards, {@link ShardedDispatcher#DEFAULT_SHARDS} if not set. Every shard sends on its own
+     * thread, the number should not exceed the connections of the transport.
+     *
+     * @param shards the number of shards, must be positive
+     * @return the current {@link ShardedDispatcherBuilder} instance
+     */
+    public ShardedDispatcherBuilder shards(final int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be positive");
+        }
+        this.shards = shards;
+        return this;
+    }
+
+    /**
+     * The maximum number of messages waiting in a shard, {@link ShardedDispatcher#DEFAULT_SHARD_CAPACITY} if not set.
+     *
+     * @param shardCapacity the number of messages, must be positive
+     * @return the current {@link ShardedDispatcherBuilder} instance
+     */
+    public ShardedDispatcherBuilder shardCapacity(final int shardCapacity) {
+        if (shardCapacity < 1) {
+            throw new IllegalArgumentException("shardCapacity must be positive");
+        }
+        this.shardCapacity = shardCapacity;
+        return this;
+    }
+
+    /**
+     * Builds the configured dispatcher and starts its shards
+     *
+     * @return a new {@link ShardedDispatcher}
+     */
+    public ShardedDispatcher build() {
+        return new ShardedDispatcher(this);
+    }
+
+    AdmService getService() {
+        return service;
+    }
+
+    int getShards() {
+        return shards;
+    }
+
+    int getShardCapacity() {
+        return shardCapacity;
+    }
+}
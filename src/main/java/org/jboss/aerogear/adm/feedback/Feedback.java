@@ -0,0 +1,111 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.feedback;
+
+/**
+ * What ADM told about a registrationId: either that it has been replaced by a canonical registrationId,
+ * or that the device can no longer be reached.
+ */
+public final class Feedback {
+
+    /**
+     * The kind of a {@link Feedback}.
+     */
+    public enum Type {
+
+        /**
+         * ADM accepted the message and answered with a different registrationId, which should be used from now on.
+         */
+        CANONICAL_ID,
+
+        /**
+         * ADM rejected the message because the registrationId is invalid or the app has been unregistered.
+         */
+        UNREGISTERED
+    }
+
+    private final Type type;
+    private final String registrationId;
+    private final String canonicalRegistrationId;
+    private final String reason;
+    private final long timestamp;
+
+    private Feedback(final Type type, final String registrationId, final String canonicalRegistrationId, final String reason, final long timestamp) {
+        this.type = type;
+        this.registrationId = registrationId;
+        this.canonicalRegistrationId = canonicalRegistrationId;
+        this.reason = reason;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @param registrationId which has been replaced
+     * @param canonicalRegistrationId the registrationId returned by ADM
+     * @param timestamp when ADM answered, in milliseconds since the epoch
+     * @return a {@link Type#CANONICAL_ID} feedback
+     */
+    public static Feedback canonicalId(final String registrationId, final String canonicalRegistrationId, final long timestamp) {
+        return new Feedback(Type.CANONICAL_ID, registrationId, canonicalRegistrationId, null, timestamp);
+    }
+
+    /**
+     * @param registrationId which can no longer be reached
+     * @param reason the reason given by ADM, e.g. {@code Unregistered}
+     * @param timestamp when ADM answered, in milliseconds since the epoch
+     * @return a {@link Type#UNREGISTERED} feedback
+     */
+    public static Feedback unregistered(final String registrationId, final String reason, final long timestamp) {
+        return new Feedback(Type.UNREGISTERED, registrationId, null, reason, timestamp);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getRegistrationId() {
+        return registrationId;
+    }
+
+    /**
+     * @return the registrationId replacing the one of this feedback, or {@code null} for {@link Type#UNREGISTERED}
+     */
+    public String getCanonicalRegistrationId() {
+        return canonicalRegistrationId;
+    }
+
+    /**
+     * @return the reason given by ADM, or {@code null} for {@link Type#CANONICAL_ID}
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @return when ADM answered, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.CANONICAL_ID
+                ? "Feedback{" + registrationId + " -> " + canonicalRegistrationId + "}"
+                : "Feedback{" + registrationId + " " + reason + "}";
+    }
+}
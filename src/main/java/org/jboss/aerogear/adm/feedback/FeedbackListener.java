@@ -0,0 +1,41 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.feedback;
+
+import java.util.List;
+
+/**
+ * Receives the feedback of a {@link FeedbackStore} in batches, e.g. to remove unregistered devices from a database
+ * in bulk. The batches are delivered on the flushing thread of the store, after they have been saved by its {@link FeedbackRepository}.
+ */
+public interface FeedbackListener {
+
+    /**
+     * Ignores all feedback, used if no listener is configured.
+     */
+    FeedbackListener NONE = new FeedbackListener() {
+        @Override
+        public void onFeedback(final List<Feedback> batch) {
+        }
+    };
+
+    /**
+     * @param batch the new feedback, oldest first
+     */
+    void onFeedback(List<Feedback> batch);
+}
@@ -0,0 +1,60 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.feedback;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Persists the feedback of a {@link FeedbackStore}, so that canonical and unregistered registrationIds
+ * are still known after a restart.
+ */
+public interface FeedbackRepository {
+
+    /**
+     * Keeps the feedback in memory only, used if no repository is configured.
+     */
+    FeedbackRepository NONE = new FeedbackRepository() {
+        @Override
+        public Collection<Feedback> load() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void save(final List<Feedback> batch) {
+        }
+    };
+
+    /**
+     * Called once when the {@link FeedbackStore} is built.
+     *
+     * @return all feedback saved before, oldest first
+     * @throws IOException if the feedback cannot be read
+     */
+    Collection<Feedback> load() throws IOException;
+
+    /**
+     * Called with every batch of new feedback. A batch which could not be saved is passed again with the next batch.
+     *
+     * @param batch the new feedback, oldest first
+     * @throws IOException if the feedback cannot be written
+     */
+    void save(List<Feedback> batch) throws IOException;
+}
@@ -0,0 +1,245 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.feedback;
+
+import org.jboss.aerogear.adm.internal.NamedThreadFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Remembers the canonical registrationIds and the unregistered devices reported by ADM. An
+ * {@link org.jboss.aerogear.adm.AdmService} configured with a store sends to the canonical registrationId of a device
+ * and does not send to unregistered devices at all.
+ *
+ * New feedback is saved by the {@link FeedbackRepository} and passed to the {@link FeedbackListener} in batches,
+ * once {@link FeedbackStoreBuilder#batchSize(int)} entries are pending or the flush interval has elapsed.
+ */
+public class FeedbackStore implements Closeable {
+
+    /**
+     * Default maximum number of entries passed to the repository and the listener at once.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * Default time in milliseconds after which pending feedback is flushed.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    /**
+     * Limits the chain of canonical registrationIds followed by {@link #resolve(String)}.
+     */
+    private static final int MAX_CANONICAL_HOPS = 8;
+
+    private final ConcurrentMap<String, String> canonicalIds = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, String> unregistered = new ConcurrentHashMap<String, String>();
+    private final Queue<Feedback> pending = new ConcurrentLinkedQueue<Feedback>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final List<Feedback> unsaved = new ArrayList<Feedback>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final FeedbackRepository repository;
+    private final FeedbackListener listener;
+    private final int batchSize;
+    private final ScheduledExecutorService flusher;
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushRequested.set(false);
+            try {
+                flush();
+            } catch (IOException e) {
+                // kept for the next flush
+            } catch (RuntimeException e) {
+                // a failing listener must not stop the flushing
+            }
+        }
+    };
+
+    FeedbackStore(final FeedbackStoreBuilder builder) throws IOException {
+        this.repository = builder.getRepository();
+        this.listener = builder.getListener();
+        this.batchSize = builder.getBatchSize();
+
+        for (Feedback feedback : repository.load()) {
+            apply(feedback);
+        }
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("adm-feedback"));
+        flusher.scheduleWithFixedDelay(flushTask, builder.getFlushInterval(), builder.getFlushInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return a new {@link FeedbackStoreBuilder} for configuring a {@link FeedbackStore}
+     */
+    public static FeedbackStoreBuilder newBuilder() {
+        return new FeedbackStoreBuilder();
+    }
+
+    /**
+     * @param registrationId a registrationId, possibly replaced by ADM
+     * @return the registrationId to send to, the given one if ADM did not return a canonical registrationId for it
+     */
+    public String resolve(final String registrationId) {
+        String resolved = registrationId;
+        for (int i = 0; i < MAX_CANONICAL_HOPS; i++) {
+            final String canonical = canonicalIds.get(resolved);
+            if (canonical == null) {
+                break;
+            }
+            resolved = canonical;
+        }
+        return resolved;
+    }
+
+    /**
+     * @param registrationId of the device
+     * @return the reason ADM gave for rejecting the registrationId, or {@code null} if the device is not known to be unregistered
+     */
+    public String getUnregisteredReason(final String registrationId) {
+        return unregistered.get(registrationId);
+    }
+
+    /**
+     * @param registrationId of the device
+     * @return {@code true} if ADM rejected the registrationId as invalid or unregistered
+     */
+    public boolean isUnregistered(final String registrationId) {
+        return unregistered.containsKey(registrationId);
+    }
+
+    /**
+     * Records that ADM answered a message to {@code registrationId} with a different registrationId.
+     *
+     * @param registrationId the message has been sent to
+     * @param canonicalRegistrationId the registrationId returned by ADM
+     */
+    public void onCanonicalId(final String registrationId, final String canonicalRegistrationId) {
+        if (registrationId.equals(canonicalRegistrationId)) {
+            return;
+        }
+        if (!canonicalRegistrationId.equals(canonicalIds.put(registrationId, canonicalRegistrationId))) {
+            publish(Feedback.canonicalId(registrationId, canonicalRegistrationId, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Records that ADM rejected a message because the device can no longer be reached.
+     *
+     * @param registrationId the message has been sent to
+     * @param reason the reason given by ADM, e.g. {@code Unregistered}
+     */
+    public void onUnregistered(final String registrationId, final String reason) {
+        if (unregistered.put(registrationId, reason) == null) {
+            publish(Feedback.unregistered(registrationId, reason, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Forgets everything known about a registrationId, e.g. after the device registered again. Nothing is
+     * passed to the repository, it should forget the registrationId as well.
+     *
+     * @param registrationId of the device
+     */
+    public void forget(final String registrationId) {
+        canonicalIds.remove(registrationId);
+        unregistered.remove(registrationId);
+    }
+
+    /**
+     * @return the number of feedback entries waiting to be flushed
+     */
+    public int getPendingCount() {
+        flushLock.lock();
+        try {
+            return pendingCount.get() + unsaved.size();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Saves the pending feedback and passes it to the listener, in batches of at most the configured batch size.
+     *
+     * @throws IOException if the repository fails, the batch is kept and saved with the next flush
+     */
+    public void flush() throws IOException {
+        flushLock.lock();
+        try {
+            while (true) {
+                Feedback feedback;
+                while (unsaved.size() < batchSize && (feedback = pending.poll()) != null) {
+                    pendingCount.decrementAndGet();
+                    unsaved.add(feedback);
+                }
+                if (unsaved.isEmpty()) {
+                    return;
+                }
+                final List<Feedback> batch = new ArrayList<Feedback>(unsaved);
+                repository.save(batch);
+                unsaved.clear();
+                listener.onFeedback(batch);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the background flushing and flushes the pending feedback a last time.
+     */
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void apply(final Feedback feedback) {
+        if (feedback.getType() == Feedback.Type.CANONICAL_ID) {
+            canonicalIds.put(feedback.getRegistrationId(), feedback.getCanonicalRegistrationId());
+        } else {
+            unregistered.put(feedback.getRegistrationId(), feedback.getReason());
+        }
+    }
+
+    private void publish(final Feedback feedback) {
+        pending.add(feedback);
+        // don't wait for the interval once a batch is complete
+        if (pendingCount.incrementAndGet() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(flushTask);
+        }
+    }
+}
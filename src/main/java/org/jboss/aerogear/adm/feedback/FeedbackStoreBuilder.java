@@ -0,0 +1,119 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.feedback;
+
+import java.io.IOException;
+
+/**
+ * A builder class to configure and create a {@link FeedbackStore}
+ *
+ */
+public class FeedbackStoreBuilder {
+
+    private FeedbackRepository repository = FeedbackRepository.NONE;
+    private FeedbackListener listener = FeedbackListener.NONE;
+    private int batchSize = FeedbackStore.DEFAULT_BATCH_SIZE;
+    private long flushInterval = FeedbackStore.DEFAULT_FLUSH_INTERVAL;
+
+    FeedbackStoreBuilder() {
+    }
+
+    /**
+     * The {@link FeedbackRepository} loading the known feedback and saving the new one.
+     *
+     * @param repository persisting the feedback
+     * @return the current {@link FeedbackStoreBuilder} instance
+     */
+    public FeedbackStoreBuilder repository(final FeedbackRepository repository) {
+        if (repository == null) {
+            throw new IllegalArgumentException("repository must not be null, use FeedbackRepository.NONE to keep the feedback in memory");
+        }
+        this.repository = repository;
+        return this;
+    }
+
+    /**
+     * The {@link FeedbackListener} receiving the batches of new feedback.
+     *
+     * @param listener of the feedback
+     * @return the current {@link FeedbackStoreBuilder} instance
+     */
+    public FeedbackStoreBuilder listener(final FeedbackListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null, use FeedbackListener.NONE to ignore the feedback");
+        }
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * The maximum number of entries passed to the repository and the listener at once,
+     * {@link FeedbackStore#DEFAULT_BATCH_SIZE} if not set.
+     *
+     * @param batchSize the number of entries, must be positive
+     * @return the current {@link FeedbackStoreBuilder} instance
+     */
+    public FeedbackStoreBuilder batchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * The time after which pending feedback is flushed even if a batch is not complete,
+     * {@link FeedbackStore#DEFAULT_FLUSH_INTERVAL} if not set.
+     *
+     * @param flushInterval in milliseconds, must be positive
+     * @return the current {@link FeedbackStoreBuilder} instance
+     */
+    public FeedbackStoreBuilder flushInterval(final long flushInterval) {
+        if (flushInterval < 1) {
+            throw new IllegalArgumentException("flushInterval must be positive");
+        }
+        this.flushInterval = flushInterval;
+        return this;
+    }
+
+    /**
+     * Builds the configured store, loading the feedback known to the repository
+     *
+     * @return a new {@link FeedbackStore}
+     * @throws IOException if the repository cannot load the feedback
+     */
+    public FeedbackStore build() throws IOException {
+        return new FeedbackStore(this);
+    }
+
+    FeedbackRepository getRepository() {
+        return repository;
+    }
+
+    FeedbackListener getListener() {
+        return listener;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    long getFlushInterval() {
+        return flushInterval;
+    }
+}
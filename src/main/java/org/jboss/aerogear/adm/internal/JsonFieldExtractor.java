@@ -0,0 +1,411 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads selected top-level fields of a JSON object straight from a stream of UTF-8 bytes, without
+ * building a tree of the document. Nested objects and arrays are skipped, reading stops as soon as all
+ * requested fields have been found. Every extraction uses its own small buffers, which are not worth
+ * sharing: a pool per thread would never be reused by the virtual threads of a service.
+ */
+public final class JsonFieldExtractor {
+
+    private final byte[] input = new byte[512];
+    private int position;
+    private int limit;
+    private InputStream in;
+
+    private byte[] value = new byte[128];
+    private int valueLength;
+
+    private JsonFieldExtractor() {
+    }
+
+    /**
+     * Extracts top-level fields of a JSON object.
+     *
+     * @param in the stream holding the UTF-8 encoded JSON object, it is not closed
+     * @param fields the names of the fields, restricted to ASCII characters
+     * @return the values in the order of the requested fields; Strings, numbers and booleans as text,
+     * {@code null} for missing fields, JSON {@code null} and nested objects or arrays
+     * @throws IOException if reading the stream fails
+     * @throws IllegalArgumentException if the stream does not hold a JSON object
+     */
+    public static String[] extract(final InputStream in, final String... fields) throws IOException {
+        return new JsonFieldExtractor().read(in, fields);
+    }
+
+    /**
+     * Extracts top-level fields of a JSON object.
+     *
+     * @param json the UTF-8 encoded JSON object
+     * @param fields the names of the fields, restricted to ASCII characters
+     * @return the values in the order of the requested fields, see {@link #extract(InputStream, String...)}
+     * @throws IllegalArgumentException if the bytes do not hold a JSON object
+     */
+    public static String[] extract(final byte[] json, final String... fields) {
+        try {
+            return extract(new ByteArrayInputStream(json), fields);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String[] read(final InputStream source, final String[] fields) throws IOException {
+        in = source;
+        position = 0;
+        limit = 0;
+        try {
+            final String[] values = new String[fields.length];
+            int found = 0;
+
+            if (nextNonWhitespace() != '{') {
+                throw malformed();
+            }
+            int c = nextNonWhitespace();
+            if (c == '}') {
+                return values;
+            }
+            while (true) {
+                if (c != '"') {
+                    throw malformed();
+                }
+                readString();
+                final int index = indexOf(fields);
+                if (nextNonWhitespace() != ':') {
+                    throw malformed();
+                }
+
+                c = nextNonWhitespace();
+                if (index != -1 && values[index] == null) {
+                    values[index] = readValue(c);
+                    if (++found == fields.length) {
+                        return values;
+                    }
+                } else {
+                    skipValue(c);
+                }
+
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return values;
+                }
+                if (c != ',') {
+                    throw malformed();
+                }
+                c = nextNonWhitespace();
+            }
+        } finally {
+            in = null;
+        }
+    }
+
+    private int indexOf(final String[] fields) {
+        outer:
+        for (int i = 0; i < fields.length; i++) {
+            final String field = fields[i];
+            if (field.length() != valueLength) {
+                continue;
+            }
+            for (int j = 0; j < valueLength; j++) {
+                if (value[j] != field.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private String readValue(final int first) throws IOException {
+        if (first == '"') {
+            readString();
+            return new String(value, 0, valueLength, Utilities.UTF_8_CHARSET);
+        }
+        if (first == '{' || first == '[') {
+            skipValue(first);
+            return null;
+        }
+
+        readLiteral(first);
+        final String literal = new String(value, 0, valueLength, Utilities.UTF_8_CHARSET);
+        return "null".equals(literal) ? null : literal;
+    }
+
+    /**
+     * Reads a {@code true}, {@code false}, {@code null} or number literal into the value buffer.
+     *
+     * @throws IllegalArgumentException if the value is missing or not a valid literal
+     */
+    private void readLiteral(final int first) throws IOException {
+        if (first == -1 || first == '}' || first == ']' || first == ',' || first == ':') {
+            throw malformed();
+        }
+        valueLength = 0;
+        append(first);
+        while (!isDelimiter(peek())) {
+            append(next());
+        }
+        if (!isKeyword("true") && !isKeyword("false") && !isKeyword("null") && !isNumber()) {
+            throw malformed();
+        }
+    }
+
+    private boolean isKeyword(final String keyword) {
+        if (valueLength != keyword.length()) {
+            return false;
+        }
+        for (int i = 0; i < valueLength; i++) {
+            if (value[i] != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the value buffer holds a number as defined by JSON
+     */
+    private boolean isNumber() {
+        int i = value[0] == '-' ? 1 : 0;
+        if (i < valueLength && value[i] == '0') {
+            i++;
+        } else {
+            final int start = i;
+            i = skipDigits(i);
+            if (i == start) {
+                return false;
+            }
+        }
+        if (i < valueLength && value[i] == '.') {
+            final int start = ++i;
+            i = skipDigits(i);
+            if (i == start) {
+                return false;
+            }
+        }
+        if (i < valueLength && (value[i] == 'e' || value[i] == 'E')) {
+            i++;
+            if (i < valueLength && (value[i] == '+' || value[i] == '-')) {
+                i++;
+            }
+            final int start = i;
+            i = skipDigits(i);
+            if (i == start) {
+                return false;
+            }
+        }
+        return i == valueLength;
+    }
+
+    private int skipDigits(final int from) {
+        int i = from;
+        while (i < valueLength && value[i] >= '0' && value[i] <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    private void skipValue(final int first) throws IOException {
+        if (first == '"') {
+            readString();
+        } else if (first == '{' || first == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                final int c = next();
+                if (c == -1) {
+                    throw malformed();
+                } else if (c == '"') {
+                    readString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+        } else {
+            readLiteral(first);
+        }
+    }
+
+    /**
+     * Reads the rest of a String whose opening quote has been consumed into the value buffer, as UTF-8.
+     */
+    private void readString() throws IOException {
+        valueLength = 0;
+        while (true) {
+            final int c = next();
+            if (c == -1) {
+                throw malformed();
+            }
+            if (c == '"') {
+                return;
+            }
+            if (c != '\\') {
+                append(c);
+                continue;
+            }
+
+            readEscape(next());
+        }
+    }
+
+    /**
+     * Appends the character of an escape sequence whose backslash has been consumed.
+     */
+    private void readEscape(final int escaped) throws IOException {
+        switch (escaped) {
+            case 'b':
+                append('\b');
+                break;
+            case 'f':
+                append('\f');
+                break;
+            case 'n':
+                append('\n');
+                break;
+            case 'r':
+                append('\r');
+                break;
+            case 't':
+                append('\t');
+                break;
+            case 'u':
+                readUnicodeEscape();
+                break;
+            case -1:
+                throw malformed();
+            default:
+                // \" \\ and \/
+                append(escaped);
+        }
+    }
+
+    /**
+     * Appends the character of a unicode escape, joining a surrogate pair spread over two escapes.
+     * A lone surrogate, which UTF-8 cannot encode, is replaced by '?' and the escape following it is read as usual.
+     */
+    private void readUnicodeEscape() throws IOException {
+        char codeUnit = readHexChar();
+        while (Character.isHighSurrogate(codeUnit)) {
+            if (peek() != '\\') {
+                append('?');
+                return;
+            }
+            next();
+            final int escaped = next();
+            if (escaped != 'u') {
+                append('?');
+                readEscape(escaped);
+                return;
+            }
+            final char low = readHexChar();
+            if (Character.isLowSurrogate(low)) {
+                appendCodePoint(Character.toCodePoint(codeUnit, low));
+                return;
+            }
+            // the high surrogate stands alone, the next escape may start a pair of its own
+            append('?');
+            codeUnit = low;
+        }
+        appendCodePoint(Character.isLowSurrogate(codeUnit) ? '?' : codeUnit);
+    }
+
+    private char readHexChar() throws IOException {
+        int codeUnit = 0;
+        for (int i = 0; i < 4; i++) {
+            final int digit = Character.digit(next(), 16);
+            if (digit == -1) {
+                throw malformed();
+            }
+            codeUnit = codeUnit * 16 + digit;
+        }
+        return (char) codeUnit;
+    }
+
+    private void appendCodePoint(final int codePoint) {
+        if (codePoint < 0x80) {
+            append(codePoint);
+        } else if (codePoint < 0x800) {
+            append(0xC0 | (codePoint >> 6));
+            append(0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            append(0xE0 | (codePoint >> 12));
+            append(0x80 | ((codePoint >> 6) & 0x3F));
+            append(0x80 | (codePoint & 0x3F));
+        } else {
+            append(0xF0 | (codePoint >> 18));
+            append(0x80 | ((codePoint >> 12) & 0x3F));
+            append(0x80 | ((codePoint >> 6) & 0x3F));
+            append(0x80 | (codePoint & 0x3F));
+        }
+    }
+
+    private void append(final int b) {
+        if (valueLength == value.length) {
+            final byte[] grown = new byte[value.length * 2];
+            System.arraycopy(value, 0, grown, 0, valueLength);
+            value = grown;
+        }
+        value[valueLength++] = (byte) b;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c = next();
+        while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+            c = next();
+        }
+        return c;
+    }
+
+    private static boolean isDelimiter(final int c) {
+        return c == -1 || c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return input[position] & 0xFF;
+    }
+
+    private int next() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return input[position++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        final int read = in.read(input, 0, input.length);
+        if (read <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private static IllegalArgumentException malformed() {
+        return new IllegalArgumentException("The response is not a valid JSON object");
+    }
+}
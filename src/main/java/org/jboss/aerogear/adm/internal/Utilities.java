@@ -18,15 +18,13 @@
 package org.jboss.aerogear.adm.internal;
 
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-
-import javax.net.ssl.HttpsURLConnection;
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.URL;
 import java.nio.charset.Charset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 public final class Utilities {
 
@@ -35,8 +33,11 @@ public final class Utilities {
     public static final String AMAZON_ACCEPT_TYPE = "com.amazon.device.messaging.ADMSendResult@1.0";
     public static final String APPLICATION_X_WWW_FORM_URLENCODED = "application/x-www-form-urlencoded";
 
-    public static final String ADM_URL_TEMPLATE = "https://api.amazon.com/messaging/registrations/%1$s/messages";
-    public static final String HTTPS_API_AMAZON_COM_AUTH_O2_TOKEN = "https://api.amazon.com/auth/O2/token";
+    public static final String ADM_ENDPOINT = "https://api.amazon.com";
+    public static final String MESSAGES_PATH_TEMPLATE = "/messaging/registrations/%1$s/messages";
+    public static final String TOKEN_PATH = "/auth/O2/token";
+    public static final String ADM_URL_TEMPLATE = ADM_ENDPOINT + MESSAGES_PATH_TEMPLATE;
+    public static final String HTTPS_API_AMAZON_COM_AUTH_O2_TOKEN = ADM_ENDPOINT + TOKEN_PATH;
 
     public static final String UTF_8 = "UTF-8";
     public static final Charset UTF_8_CHARSET= Charset.forName(UTF_8);
@@ -48,41 +49,110 @@ public final class Utilities {
     private Utilities() {}
 
     /**
-     * Convenience method to open/establish the HttpsURLConnection agains ADM
+     * Generic method to parse an http response
+     * @param in the stream holding the response body, it is closed afterwards
+     * @return the response body as String
+     * @throws IOException if reading the stream fails
      */
-    public static HttpsURLConnection getHttpsURLConnection(URL url) throws Exception {
-        final HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
-        return conn;
+    public static String parseResponse(final InputStream in) throws IOException {
+        // Read from the input stream and convert into a String.
+        final ByteArrayOutputStream content = new ByteArrayOutputStream(256);
+        final byte[] buffer = new byte[1024];
+
+        try {
+            int read = in.read(buffer);
+            while (read != -1) {
+                content.write(buffer, 0, read);
+                read = in.read(buffer);
+            }
+        } finally {
+            in.close();
+        }
+
+        return new String(content.toByteArray(), UTF_8_CHARSET);
     }
 
+    /**
+     * Reads a top-level property of a JSON document as String
+     * @param jsonString the JSON document
+     * @param property the name of the property
+     * @return the value of the property, or {@code null} if the document does not contain it
+     */
+    public static String getStringFromJson(String jsonString, String property) {
+        return JsonFieldExtractor.extract(jsonString.getBytes(UTF_8_CHARSET), property)[0];
+    }
 
     /**
-     * Generic method to parse an http response
-     * @param in
-     * @return
-     * @throws Exception
+     * Reads a top-level property of a JSON document as String, straight from the stream
+     * @param in the stream holding the UTF-8 encoded JSON document, it is closed afterwards
+     * @param property the name of the property
+     * @return the value of the property, or {@code null} if the document does not contain it
+     * @throws IOException if reading the stream fails
      */
-    public static String parseResponse(final InputStream in) throws Exception {
-        // Read from the input stream and convert into a String.
-        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, Utilities.UTF_8));
-        final StringBuilder sb = new StringBuilder();
+    public static String getStringFromJson(final InputStream in, final String property) throws IOException {
+        return getStringsFromJson(in, property)[0];
+    }
 
+    /**
+     * Reads several top-level properties of a JSON document as Strings, straight from the stream
+     * @param in the stream holding the UTF-8 encoded JSON document, it is closed afterwards
+     * @param properties the names of the properties
+     * @return the values of the properties in the given order, {@code null} for those the document does not contain
+     * @throws IOException if reading the stream fails
+     */
+    public static String[] getStringsFromJson(final InputStream in, final String... properties) throws IOException {
         try {
-            String line = reader.readLine();
-            while(line != null) {
-                sb.append(line);
-                line = reader.readLine();
-            }
+            return JsonFieldExtractor.extract(in, properties);
         } finally {
-            reader.close();
+            in.close();
         }
+    }
 
-        return sb.toString();
+    /**
+     * @param value any String
+     * @return the number of bytes of the UTF-8 encoded value, computed without encoding it
+     */
+    public static int utf8Length(final CharSequence value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // a supplementary character, encoded in four bytes
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // an unpaired surrogate is replaced by '?'
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
     }
 
-    public static String getStringFromJson(String jsonString, String property) {
-        final Gson gson = new Gson();
-        final JsonObject parsedObject = gson.fromJson(jsonString,JsonObject.class);
-        return parsedObject.get(property).getAsString();
+    /**
+     * Parses the value of a {@code Retry-After} header, given either in seconds or as HTTP date
+     * @param retryAfter the value of the header, may be {@code null}
+     * @return the delay in milliseconds, or -1 if there is no valid value
+     */
+    public static long parseRetryAfter(final String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return -1;
+        }
+        final String value = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                final long until = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return Math.max(0, until - System.currentTimeMillis());
+            } catch (DateTimeParseException ignored) {
+                return -1;
+            }
+        }
     }
 }
@@ -0,0 +1,60 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.metrics;
+
+/**
+ * Receives the measurements of an {@link org.jboss.aerogear.adm.AdmService} and its
+ * {@link org.jboss.aerogear.adm.TokenService}. The methods are called on the sending threads,
+ * implementations have to be thread safe and should return quickly.
+ */
+public interface AdmMetrics {
+
+    /**
+     * Discards all measurements, used if no metrics are configured.
+     */
+    AdmMetrics NONE = new NoopAdmMetrics();
+
+    /**
+     * Records a message request ADM has answered, once per attempt.
+     *
+     * @param statusCode the HTTP status code of the response
+     * @param bytesSent the size of the payload in bytes
+     * @param connectTime nanoseconds spent establishing the connection, {@code 0} for a reused connection
+     * @param writeTime nanoseconds spent writing the request
+     * @param responseTime nanoseconds from the written request to the completely read response
+     */
+    void onMessageResponse(int statusCode, int bytesSent, long connectTime, long writeTime, long responseTime);
+
+    /**
+     * Records a message request which failed without a response, e.g. because the connection broke.
+     */
+    void onMessageFailure();
+
+    /**
+     * Records a request to the token endpoint.
+     *
+     * @param statusCode the HTTP status code of the response
+     * @param latency nanoseconds from sending the request to the completely read response
+     */
+    void onTokenResponse(int statusCode, long latency);
+
+    /**
+     * Records a token ADM rejected with HTTP 401, causing a new one to be fetched.
+     */
+    void onTokenRejected();
+}
@@ -0,0 +1,159 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps all measurements in memory, to be read by a monitoring endpoint or logged periodically.
+ * Recording only touches striped counters, it neither locks nor allocates.
+ */
+public class InMemoryAdmMetrics implements AdmMetrics {
+
+    private static final int MAX_STATUS_CODE = 599;
+
+    private final Histogram connectTime = new Histogram();
+    private final Histogram writeTime = new Histogram();
+    private final Histogram responseTime = new Histogram();
+    private final Histogram bytesSent = new Histogram();
+    private final AtomicLongArray statusCodes = new AtomicLongArray(MAX_STATUS_CODE + 1);
+    private final LongAdder messageFailures = new LongAdder();
+
+    private final Histogram tokenLatency = new Histogram();
+    private final AtomicLongArray tokenStatusCodes = new AtomicLongArray(MAX_STATUS_CODE + 1);
+    private final LongAdder rejectedTokens = new LongAdder();
+
+    @Override
+    public void onMessageResponse(final int statusCode, final int bytesSent, final long connectTime, final long writeTime, final long responseTime) {
+        statusCodes.incrementAndGet(index(statusCode));
+        this.bytesSent.record(bytesSent);
+        // reused connections are not counted, the histogram shows the cost of new connections
+        if (connectTime > 0) {
+            this.connectTime.record(connectTime);
+        }
+        this.writeTime.record(writeTime);
+        this.responseTime.record(responseTime);
+    }
+
+    @Override
+    public void onMessageFailure() {
+        messageFailures.increment();
+    }
+
+    @Override
+    public void onTokenResponse(final int statusCode, final long latency) {
+        tokenStatusCodes.incrementAndGet(index(statusCode));
+        tokenLatency.record(latency);
+    }
+
+    @Override
+    public void onTokenRejected() {
+        rejectedTokens.increment();
+    }
+
+    /**
+     * @return nanoseconds spent establishing new connections to ADM
+     */
+    public Histogram getConnectTime() {
+        return connectTime;
+    }
+
+    /**
+     * @return nanoseconds spent writing message requests
+     */
+    public Histogram getWriteTime() {
+        return writeTime;
+    }
+
+    /**
+     * @return nanoseconds from the written message request to the completely read response
+     */
+    public Histogram getResponseTime() {
+        return responseTime;
+    }
+
+    /**
+     * @return the payload sizes of all message requests, in bytes
+     */
+    public Histogram getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @param statusCode HTTP status code
+     * @return the number of message responses with the given status code
+     */
+    public long getStatusCount(final int statusCode) {
+        return statusCodes.get(index(statusCode));
+    }
+
+    /**
+     * @return the number of message responses per HTTP status code, only listing the status codes received;
+     * status codes outside of the HTTP range are counted as {@code 0}
+     */
+    public Map<Integer, Long> getStatusCounts() {
+        return counts(statusCodes);
+    }
+
+    /**
+     * @return the number of message requests which failed without a response
+     */
+    public long getMessageFailures() {
+        return messageFailures.sum();
+    }
+
+    /**
+     * @return nanoseconds spent on requests to the token endpoint
+     */
+    public Histogram getTokenLatency() {
+        return tokenLatency;
+    }
+
+    /**
+     * @return the number of token endpoint responses per HTTP status code, only listing the status codes received
+     */
+    public Map<Integer, Long> getTokenStatusCounts() {
+        return counts(tokenStatusCodes);
+    }
+
+    /**
+     * @return the number of tokens ADM rejected with HTTP 401, each causing a new token to be fetched
+     */
+    public long getRejectedTokens() {
+        return rejectedTokens.sum();
+    }
+
+    private static int index(final int statusCode) {
+        return statusCode < 0 || statusCode > MAX_STATUS_CODE ? 0 : statusCode;
+    }
+
+    private static Map<Integer, Long> counts(final AtomicLongArray counters) {
+        final Map<Integer, Long> counts = new TreeMap<Integer, Long>();
+        for (int i = 0; i < counters.length(); i++) {
+            final long count = counters.get(i);
+            if (count > 0) {
+                counts.put(i, count);
+            }
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.spool;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reads ahead of the {@link Journal} and hands out the buffered messages earliest deadline first, so that
+ * messages with a short expiry overtake bulk traffic which can wait. Messages with the same deadline, e.g. all
+ * messages without an expiry, keep the order of the journal. At most {@code readAhead} messages are buffered.
+ *
+ * The oldest buffered message is overtaken at most {@code readAhead} times, then it is handed out regardless of its
+ * deadline. Otherwise steady traffic with short expiries would hold back a message without expiry forever, and with
+ * it the acknowledged position of the journal, which keeps its segments on disk.
+ */
+final class DeadlineQueue {
+
+    private static final Comparator<SpooledMessage> JOURNAL_ORDER = new Comparator<SpooledMessage>() {
+        @Override
+        public int compare(final SpooledMessage left, final SpooledMessage right) {
+            return Long.compare(left.getOffset(), right.getOffset());
+        }
+    };
+
+    private static final Comparator<SpooledMessage> EARLIEST_DEADLINE = new Comparator<SpooledMessage>() {
+        @Override
+        public int compare(final SpooledMessage left, final SpooledMessage right) {
+            final int byDeadline = Long.compare(left.getDeadline(), right.getDeadline());
+            return byDeadline != 0 ? byDeadline : Long.compare(left.getOffset(), right.getOffset());
+        }
+    };
+
+    private final Journal journal;
+    private final int readAhead;
+    private final PriorityQueue<SpooledMessage> buffered;
+    private final TreeSet<SpooledMessage> oldest = new TreeSet<SpooledMessage>(JOURNAL_ORDER);
+    private final ReentrantLock lock = new ReentrantLock();
+    private int overtaken;
+
+    DeadlineQueue(final Journal journal, final int readAhead) {
+        this.journal = journal;
+        this.readAhead = readAhead;
+        this.buffered = new PriorityQueue<SpooledMessage>(Math.min(readAhead, 1024), EARLIEST_DEADLINE);
+    }
+
+    /**
+     * Takes the message with the earliest deadline, waiting until one is available.
+     *
+     * @return the next message, or {@code null} once the journal has been closed; buffered messages
+     * stay in the journal and are taken again after a restart
+     */
+    SpooledMessage take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if (buffered.isEmpty()) {
+                final SpooledMessage next = journal.take();
+                if (next == null) {
+                    return null;
+                }
+                add(next);
+            } else if (journal.isClosed()) {
+                return null;
+            }
+
+            while (buffered.size() < readAhead) {
+                final SpooledMessage next = journal.poll();
+                if (next == null) {
+                    break;
+                }
+                add(next);
+            }
+
+            final SpooledMessage first = oldest.first();
+            if (overtaken >= readAhead) {
+                // the oldest message has waited long enough, its deadline no longer counts
+                buffered.remove(first);
+                oldest.remove(first);
+                overtaken = 0;
+                return first;
+            }
+            final SpooledMessage next = buffered.poll();
+            oldest.remove(next);
+            overtaken = next == first ? 0 : overtaken + 1;
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(final SpooledMessage message) {
+        buffered.add(message);
+        oldest.add(message);
+    }
+}
@@ -0,0 +1,554 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.spool;
+
+import org.jboss.aerogear.adm.CompiledPayload;
+import org.jboss.aerogear.adm.internal.Utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of messages, stored in memory-mapped segment files of a fixed size.
+ *
+ * Every record consists of its length, a CRC32 of its body and the body itself: the expiry, the time it was
+ * appended, the registrationId, the consolidation key and the payload. The length is written last, so a record becomes visible only once it is complete.
+ * Records are addressed by their offset, the base offset of their segment plus their position in it.
+ *
+ * Messages are taken in the order they were appended and acknowledged once they have been handled, in any order. The offset
+ * below which all messages have been acknowledged is kept in a checkpoint file, after a restart the journal
+ * resumes from there. Messages taken but not acknowledged before a crash are therefore taken again.
+ *
+ * A message appended with a consolidation key supersedes the pending messages with the same registrationId
+ * and key. Superseded messages are still taken, in order to be acknowledged, but not {@link #claim claimed}.
+ */
+final class Journal {
+
+    static final String SEGMENT_SUFFIX = ".segment";
+    static final String CHECKPOINT_FILE = "acked.checkpoint";
+
+    private static final int HEADER_SIZE = 8;
+    private static final int ENQUEUED_AT = 8;
+    private static final int ID_LENGTH = 16;
+    private static final int KEY_LENGTH = 18;
+    private static final int FIXED_BODY_SIZE = 20;
+    private static final int END_OF_SEGMENT = -1;
+
+    private final File directory;
+    private final int segmentSize;
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+    private final TreeSet<Long> inFlight = new TreeSet<Long>();
+    private final Map<ConsolidationKey, Consolidation> newest = new HashMap<ConsolidationKey, Consolidation>();
+    private final MappedByteBuffer checkpoint;
+    private final CRC32 crc = new CRC32();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    // serializes syncs, which force the files without holding the journal lock
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    private Segment writeSegment;
+    private int writePosition;
+    private Segment readSegment;
+    private int readPosition;
+    private long ackedOffset;
+    private long pending;
+    private boolean closed;
+    private long syncedBase;
+
+    /**
+     * Opens the journal in the given directory, recovering the messages which have not been acknowledged.
+     *
+     * @param directory holding the segment files, created if it does not exist
+     * @param segmentSize size of new segment files in bytes
+     */
+    Journal(final File directory, final int segmentSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the journal directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.checkpoint = map(new File(directory, CHECKPOINT_FILE), 16);
+
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    final long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    // an empty file is left behind by a crash while creating the segment
+                    final int size = file.length() > 0 ? (int) file.length() : segmentSize;
+                    segments.put(base, new Segment(file, base, map(file, size)));
+                }
+            }
+        }
+
+        // a torn checkpoint falls back to the oldest segment, sending some messages twice rather than losing them
+        final long checkpointed = checkpoint.getLong(0);
+        final boolean valid = checkpoint.getLong(8) == ~checkpointed;
+        if (segments.isEmpty()) {
+            final long base = valid ? checkpointed : 0;
+            segments.put(base, newSegment(base));
+        }
+        recover(valid ? checkpointed : segments.firstKey());
+    }
+
+    /**
+     * Appends a message to the journal.
+     *
+     * @param consolidationKey of the message, {@code null} if it must not supersede other messages
+     * @return the offset of the message
+     */
+    long append(final String registrationId, final String consolidationKey, final byte[] payload, final long expiresAt) throws IOException {
+        final byte[] id = registrationId.getBytes(Utilities.UTF_8_CHARSET);
+        final byte[] key = consolidationKey == null ? new byte[0] : consolidationKey.getBytes(Utilities.UTF_8_CHARSET);
+        if (id.length > 0xFFFF || key.length > 0xFFFF) {
+            throw new IllegalArgumentException("The registrationId or consolidation key is too long");
+        }
+        final int length = FIXED_BODY_SIZE + id.length + key.length + payload.length;
+        final int recordSize = HEADER_SIZE + length;
+        if (recordSize + 4 > segmentSize) {
+            throw new IllegalArgumentException("A message of " + recordSize + " bytes does not fit into a journal segment of " + segmentSize + " bytes");
+        }
+
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("The journal has been closed");
+            }
+            // keep room for the end of segment marker
+            if (writePosition + recordSize + 4 > writeSegment.size) {
+                roll();
+            }
+
+            final ByteBuffer buffer = writeSegment.buffer;
+            buffer.position(writePosition + HEADER_SIZE);
+            buffer.putLong(expiresAt).putLong(System.currentTimeMillis()).putShort((short) id.length).putShort((short) key.length).put(id).put(key).put(payload);
+
+            final ByteBuffer body = buffer.duplicate();
+            body.position(writePosition + HEADER_SIZE).limit(writePosition + recordSize);
+            crc.reset();
+            crc.update(body);
+            buffer.putInt(writePosition + 4, (int) crc.getValue());
+            // publishes the record
+            buffer.putInt(writePosition, length);
+
+            final long offset = writeSegment.base + writePosition;
+            writePosition += recordSize;
+            pending++;
+            if (key.length > 0) {
+                consolidate(new ConsolidationKey(registrationId, consolidationKey), offset);
+            }
+            notEmpty.signal();
+            return offset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next message, waiting until one has been appended.
+     *
+     * @return the next message, or {@code null} once the journal has been closed
+     */
+    SpooledMessage take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            return next(true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next message if one is available.
+     *
+     * @return the next message, or {@code null} if all messages have been taken or the journal has been closed
+     */
+    SpooledMessage poll() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            return next(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Decides whether a taken message is to be sent, once it is its turn. A message with a consolidation key is
+     * not sent if a newer one with the same registrationId and key has been appended by then.
+     *
+     * @return {@code true} if the message is to be sent, {@code false} if it has been superseded
+     */
+    boolean claim(final SpooledMessage message) {
+        if (message.getConsolidationKey() == null) {
+            return true;
+        }
+        lock.lock();
+        try {
+            final Consolidation consolidation = newest.get(new ConsolidationKey(message.getRegistrationId(), message.getConsolidationKey()));
+            return consolidation == null || consolidation.newestOffset <= message.getOffset();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return {@code true} once the journal has been closed
+     */
+    boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the next record, the lock has to be held.
+     */
+    private SpooledMessage next(final boolean wait) throws InterruptedException {
+        while (true) {
+            if (closed) {
+                return null;
+            }
+            if (readSegment == writeSegment && readPosition == writePosition) {
+                if (!wait) {
+                    return null;
+                }
+                notEmpty.await();
+                continue;
+            }
+            if (isEndOfSegment(readSegment, readPosition)) {
+                readSegment = segments.higherEntry(readSegment.base).getValue();
+                readPosition = 0;
+                continue;
+            }
+
+            final ByteBuffer buffer = readSegment.buffer;
+            final int length = buffer.getInt(readPosition);
+            final long expiresAt = buffer.getLong(readPosition + HEADER_SIZE);
+            final long enqueuedAt = buffer.getLong(readPosition + HEADER_SIZE + ENQUEUED_AT);
+            final int idLength = buffer.getShort(readPosition + HEADER_SIZE + ID_LENGTH) & 0xFFFF;
+            final int keyLength = buffer.getShort(readPosition + HEADER_SIZE + KEY_LENGTH) & 0xFFFF;
+            final byte[] id = new byte[idLength];
+            final byte[] key = new byte[keyLength];
+            final byte[] payload = new byte[length - FIXED_BODY_SIZE - idLength - keyLength];
+            final ByteBuffer body = buffer.duplicate();
+            body.position(readPosition + HEADER_SIZE + FIXED_BODY_SIZE);
+            body.get(id).get(key).get(payload);
+
+            final long offset = readSegment.base + readPosition;
+            readPosition += HEADER_SIZE + length;
+            inFlight.add(offset);
+
+            final String consolidationKey = keyLength == 0 ? null : new String(key, Utilities.UTF_8_CHARSET);
+            return new SpooledMessage(offset, new String(id, Utilities.UTF_8_CHARSET), consolidationKey,
+                    CompiledPayload.of(payload), enqueuedAt, expiresAt);
+        }
+    }
+
+    /**
+     * Marks a taken message as handled. Segments holding only handled messages are deleted.
+     */
+    void ack(final SpooledMessage message) {
+        lock.lock();
+        try {
+            if (!inFlight.remove(message.getOffset())) {
+                return;
+            }
+            pending--;
+            if (message.getConsolidationKey() != null) {
+                // the newest offset is kept until the older messages have been handled as well,
+                // an older one may still be dispatched after the newest has been sent
+                final ConsolidationKey key = new ConsolidationKey(message.getRegistrationId(), message.getConsolidationKey());
+                final Consolidation consolidation = newest.get(key);
+                if (consolidation != null && --consolidation.pending == 0) {
+                    newest.remove(key);
+                }
+            }
+
+            final long acked = inFlight.isEmpty() ? readSegment.base + readPosition : inFlight.first();
+            if (acked > ackedOffset) {
+                ackedOffset = acked;
+                checkpoint.putLong(0, acked).putLong(8, ~acked);
+                deleteAckedSegments();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of messages which have been appended but not acknowledged yet
+     */
+    long getPendingCount() {
+        lock.lock();
+        try {
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces all changes to the storage device, so they survive a crash of the operating system as well.
+     * A crash of the process alone loses nothing, the mapped files are written back by the operating system.
+     * Only the segments written since the previous sync are forced, and outside of the journal lock, so appending
+     * and taking messages go on meanwhile.
+     */
+    void sync() {
+        syncLock.lock();
+        try {
+            final List<Segment> written;
+            lock.lock();
+            try {
+                // segments are only appended to, those before the last write segment have not changed since
+                written = new ArrayList<Segment>(segments.tailMap(syncedBase, true).values());
+                syncedBase = writeSegment.base;
+            } finally {
+                lock.unlock();
+            }
+            for (Segment segment : written) {
+                segment.buffer.force();
+            }
+            checkpoint.force();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting and handing out messages. Messages which have been taken can still be acknowledged.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recover(final long acked) throws IOException {
+        Map.Entry<Long, Segment> entry = segments.floorEntry(acked);
+        if (entry == null) {
+            entry = segments.firstEntry();
+        }
+        Segment segment = entry.getValue();
+        int position = (int) Math.min(Math.max(acked - segment.base, 0), segment.size);
+        readSegment = segment;
+        readPosition = position;
+
+        while (true) {
+            if (isEndOfSegment(segment, position)) {
+                final Map.Entry<Long, Segment> next = segments.higherEntry(segment.base);
+                if (next == null) {
+                    // crashed while rolling over to the next segment
+                    final Segment created = newSegment(segment.base + segment.size);
+                    segments.put(created.base, created);
+                    segment = created;
+                } else {
+                    segment = next.getValue();
+                }
+                position = 0;
+                continue;
+            }
+
+            final int length = segment.buffer.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            if (!isValid(segment, position, length)) {
+                // a record torn by a crash, everything after it is discarded
+                for (int i = position; i < segment.size; i++) {
+                    segment.buffer.put(i, (byte) 0);
+                }
+                break;
+            }
+            pending++;
+            final int keyLength = segment.buffer.getShort(position + HEADER_SIZE + KEY_LENGTH) & 0xFFFF;
+            if (keyLength > 0) {
+                final int idLength = segment.buffer.getShort(position + HEADER_SIZE + ID_LENGTH) & 0xFFFF;
+                final byte[] id = new byte[idLength];
+                final byte[] key = new byte[keyLength];
+                final ByteBuffer body = segment.buffer.duplicate();
+                body.position(position + HEADER_SIZE + FIXED_BODY_SIZE);
+                body.get(id).get(key);
+                consolidate(new ConsolidationKey(new String(id, Utilities.UTF_8_CHARSET), new String(key, Utilities.UTF_8_CHARSET)),
+                        segment.base + position);
+            }
+            position += HEADER_SIZE + length;
+        }
+
+        writeSegment = segment;
+        writePosition = position;
+        while (segments.lastKey() > writeSegment.base) {
+            delete(segments.pollLastEntry().getValue());
+        }
+
+        ackedOffset = readSegment.base + readPosition;
+        checkpoint.putLong(0, ackedOffset).putLong(8, ~ackedOffset);
+        deleteAckedSegments();
+    }
+
+    private boolean isValid(final Segment segment, final int position, final int length) {
+        if (length < FIXED_BODY_SIZE || position + HEADER_SIZE + length > segment.size) {
+            return false;
+        }
+        final ByteBuffer body = segment.buffer.duplicate();
+        body.position(position + HEADER_SIZE).limit(position + HEADER_SIZE + length);
+        crc.reset();
+        crc.update(body);
+        return segment.buffer.getInt(position + 4) == (int) crc.getValue();
+    }
+
+    private static boolean isEndOfSegment(final Segment segment, final int position) {
+        return position + HEADER_SIZE > segment.size || segment.buffer.getInt(position) == END_OF_SEGMENT;
+    }
+
+    private void roll() throws IOException {
+        writeSegment.buffer.putInt(writePosition, END_OF_SEGMENT);
+        final Segment created = newSegment(writeSegment.base + writeSegment.size);
+        segments.put(created.base, created);
+        writeSegment = created;
+        writePosition = 0;
+    }
+
+    private void deleteAckedSegments() {
+        final Iterator<Segment> iterator = segments.values().iterator();
+        while (iterator.hasNext()) {
+            final Segment segment = iterator.next();
+            if (segment == readSegment || segment == writeSegment || segment.base + segment.size > ackedOffset) {
+                return;
+            }
+            iterator.remove();
+            delete(segment);
+        }
+    }
+
+    private static void delete(final Segment segment) {
+        // the mapping stays valid until it is garbage collected, deleting the file is safe
+        if (!segment.file.delete()) {
+            segment.file.deleteOnExit();
+        }
+    }
+
+    private Segment newSegment(final long base) throws IOException {
+        final File file = new File(directory, String.format("%020d%s", base, SEGMENT_SUFFIX));
+        return new Segment(file, base, map(file, segmentSize));
+    }
+
+    private static MappedByteBuffer map(final File file, final int size) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Records a pending message with a consolidation key, the lock has to be held.
+     */
+    private void consolidate(final ConsolidationKey key, final long offset) {
+        Consolidation consolidation = newest.get(key);
+        if (consolidation == null) {
+            consolidation = new Consolidation();
+            newest.put(key, consolidation);
+        }
+        consolidation.newestOffset = offset;
+        consolidation.pending++;
+    }
+
+    /**
+     * The newest message of a registrationId and consolidation key, and the number of its messages not yet acked.
+     */
+    private static final class Consolidation {
+
+        private long newestOffset;
+        private int pending;
+    }
+
+    /**
+     * The registrationId and consolidation key a message replaces older messages of.
+     */
+    private static final class ConsolidationKey {
+
+        private final String registrationId;
+        private final String consolidationKey;
+
+        ConsolidationKey(final String registrationId, final String consolidationKey) {
+            this.registrationId = registrationId;
+            this.consolidationKey = consolidationKey;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ConsolidationKey)) {
+                return false;
+            }
+            final ConsolidationKey that = (ConsolidationKey) o;
+            return registrationId.equals(that.registrationId) && consolidationKey.equals(that.consolidationKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * registrationId.hashCode() + consolidationKey.hashCode();
+        }
+    }
+
+    /**
+     * A single memory-mapped segment file.
+     */
+    private static final class Segment {
+
+        private final File file;
+        private final long base;
+        private final int size;
+        private final MappedByteBuffer buffer;
+
+        Segment(final File file, final long base, final MappedByteBuffer buffer) {
+            this.file = file;
+            this.base = base;
+            this.size = buffer.capacity();
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.spool;
+
+import org.jboss.aerogear.adm.AdmService;
+import org.jboss.aerogear.adm.CircuitOpenException;
+import org.jboss.aerogear.adm.CompiledPayload;
+import org.jboss.aerogear.adm.internal.JsonFieldExtractor;
+import org.jboss.aerogear.adm.internal.NamedThreadFactory;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A durable send queue in front of an {@link AdmService}. Enqueued messages are appended to a memory-mapped
+ * journal, which makes enqueueing about as fast as copying the payload, while worker threads drain the
+ * journal to ADM. Messages not yet handled when the process stops are sent after the next start.
+ *
+ * Delivery is at least once: a message which was in flight during a crash is sent again.
+ *
+ * An enqueued message survives a crash of the process right away. To survive a crash of the operating system
+ * it has to reach the storage device first: the journal is forced there every sync interval, on {@link #sync()}
+ * and on {@link #close()}.
+ *
+ * Messages are sent earliest deadline first: the workers pick the message expiring next among the messages
+ * read ahead from the journal, messages without expiry are sent in the order they were enqueued. The oldest message
+ * read ahead is overtaken at most read-ahead times, so expiring traffic cannot starve it. A message which expires before it is sent is reported to the {@link SpoolListener} instead. The expiry is taken from the
+ * {@code expiresAfter} of the payload, counted from the time the message is enqueued, unless one is given explicitly.
+ *
+ * Messages carrying a {@code consolidationKey} are coalesced: when a message is enqueued for the same
+ * registrationId and consolidation key as a message which has not been sent yet, only the newer one is sent,
+ * just like ADM would only deliver the newer one.
+ */
+public class MessageSpool implements Closeable {
+
+    /**
+     * Default number of worker threads draining the journal.
+     */
+    public static final int DEFAULT_WORKERS = 4;
+
+    /**
+     * Default size of a journal segment file, 64 MiB.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Default number of messages read ahead of the workers to be ordered by their deadlines.
+     */
+    public static final int DEFAULT_READ_AHEAD = 1024;
+
+    /**
+     * Default interval in milliseconds in which the journal is forced to the storage device.
+     */
+    public static final long DEFAULT_SYNC_INTERVAL = 1000;
+
+    /**
+     * Time in milliseconds a worker waits before trying again while the circuit breaker of the service is open.
+     */
+    static final long CIRCUIT_OPEN_PAUSE = 1000;
+
+    private final Journal journal;
+    private final DeadlineQueue queue;
+    private final AdmService service;
+    private final String clientId;
+    private final String clientSecret;
+    private final SpoolListener listener;
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private final CountDownLatch closing = new CountDownLatch(1);
+    private final ScheduledExecutorService syncer;
+
+    MessageSpool(final MessageSpoolBuilder builder) throws IOException {
+        this.journal = new Journal(builder.getDirectory(), builder.getSegmentSize());
+        this.queue = new DeadlineQueue(journal, builder.getReadAhead());
+        this.service = builder.getService();
+        this.clientId = builder.getClientId();
+        this.clientSecret = builder.getClientSecret();
+        this.listener = builder.getListener();
+
+        if (builder.getSyncInterval() > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("adm-spool-sync"));
+            syncer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    journal.sync();
+                }
+            }, builder.getSyncInterval(), builder.getSyncInterval(), TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+
+        final ThreadFactory threadFactory = new NamedThreadFactory("adm-spool");
+        for (int i = 0; i < builder.getWorkers(); i++) {
+            final Thread worker = threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * @param service sending the spooled messages
+     * @return a new {@link MessageSpoolBuilder} for configuring a {@link MessageSpool}
+     */
+    public static MessageSpoolBuilder newBuilder(final AdmService service) {
+        return new MessageSpoolBuilder(service);
+    }
+
+    /**
+     * Appends a message to the journal, to be sent by one of the workers.
+     *
+     * @param registrationId representing the unique identifier of the device
+     * @param payload , a String representing the complete payload to be submitted
+     * @throws IOException if the journal cannot be extended
+     */
+    public void enqueue(final String registrationId, final String payload) throws IOException {
+        enqueue(registrationId, CompiledPayload.of(payload), 0);
+    }
+
+    /**
+     * Appends a message to the journal, to be sent by one of the workers.
+     *
+     * @param registrationId representing the unique identifier of the device
+     * @param payload the {@link CompiledPayload}, with all template fields bound
+     * @throws IOException if the journal cannot be extended
+     */
+    public void enqueue(final String registrationId, final CompiledPayload payload) throws IOException {
+        enqueue(registrationId, payload, 0);
+    }
+
+    /**
+     * Appends a message to the journal, to be sent by one of the workers unless it has expired by then.
+     *
+     * @param registrationId representing the unique identifier of the device
+     * @param payload the {@link CompiledPayload}, with all template fields bound
+     * @param expiresAt time in milliseconds since the epoch after which the message is reported as expired
+     *                  instead of being sent, {@code 0} to derive it from the {@code expiresAfter} of the payload
+     * @throws IOException if the journal cannot be extended
+     */
+    public void enqueue(final String registrationId, final CompiledPayload payload, final long expiresAt) throws IOException {
+        final byte[] bytes = payload.getBytes();
+        final String[] fields = fields(bytes);
+        long deadline = expiresAt;
+        if (deadline <= 0 && fields[1] != null) {
+            try {
+                deadline = System.currentTimeMillis() + Long.parseLong(fields[1]) * 1000;
+            } catch (NumberFormatException e) {
+                // ADM is going to reject it, no reason to expire it
+            }
+        }
+        journal.append(registrationId, fields[0], bytes, deadline);
+    }
+
+    /**
+     * @return the number of messages enqueued but not handled yet
+     */
+    public long getPendingCount() {
+        return journal.getPendingCount();
+    }
+
+    /**
+     * Forces the journal to the storage device, so that the enqueued messages survive a crash of the
+     * operating system. A crash of the process alone does not lose any enqueued message.
+     */
+    public void sync() {
+        journal.sync();
+    }
+
+    /**
+     * Stops the workers once they have handled their current message. Messages which have not been
+     * handled remain in the journal and are sent by the next spool opened on the same directory, as does
+     * a message waiting for ADM to become available again.
+     */
+    @Override
+    public void close() throws IOException {
+        closing.countDown();
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        journal.close();
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the spool workers");
+        } finally {
+            journal.sync();
+        }
+    }
+
+    private void drain() {
+        try {
+            SpooledMessage message = queue.take();
+            while (message != null) {
+                if (journal.claim(message)) {
+                    deliver(message);
+                } else {
+                    listener.onCoalesced(message);
+                }
+                journal.ack(message);
+                message = queue.take();
+            }
+        } catch (InterruptedException e) {
+            // the message in flight stays in the journal
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the consolidationKey and expiresAfter of the payload
+     */
+    private static String[] fields(final byte[] payload) {
+        try {
+            return JsonFieldExtractor.extract(payload, "consolidationKey", "expiresAfter");
+        } catch (IllegalArgumentException e) {
+            // not a JSON object, ADM is going to reject it anyway
+            return new String[2];
+        }
+    }
+
+    private void deliver(final SpooledMessage message) throws InterruptedException {
+        while (true) {
+            if (message.isExpired(System.currentTimeMillis())) {
+                listener.onExpired(message);
+                return;
+            }
+            try {
+                final String canonicalRegistrationId = service.sendMessageToDevice(message.getRegistrationId(), clientId, clientSecret, message.getPayload());
+                listener.onSent(message, canonicalRegistrationId);
+                return;
+            } catch (CircuitOpenException e) {
+                // ADM is unavailable, keep the message until it has recovered or the spool is closed
+                if (closing.await(CIRCUIT_OPEN_PAUSE, TimeUnit.MILLISECONDS)) {
+                    throw new InterruptedException("The spool has been closed while ADM was unavailable");
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (InterruptedIOException e) {
+                throw new InterruptedException(e.getMessage());
+            } catch (Exception e) {
+                listener.onFailed(message, e);
+                return;
+            }
+        }
+    }
+}
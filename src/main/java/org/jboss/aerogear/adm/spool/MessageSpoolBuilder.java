@@ -0,0 +1,199 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.spool;
+
+import org.jboss.aerogear.adm.AdmService;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A builder class to configure and create a {@link MessageSpool}
+ *
+ */
+public class MessageSpoolBuilder {
+
+    private final AdmService service;
+    private File directory;
+    private String clientId;
+    private String clientSecret;
+    private int workers = MessageSpool.DEFAULT_WORKERS;
+    private int segmentSize = MessageSpool.DEFAULT_SEGMENT_SIZE;
+    private int readAhead = MessageSpool.DEFAULT_READ_AHEAD;
+    private SpoolListener listener = SpoolListener.NONE;
+    private long syncInterval = MessageSpool.DEFAULT_SYNC_INTERVAL;
+
+    MessageSpoolBuilder(final AdmService service) {
+        if (service == null) {
+            throw new IllegalArgumentException("service must not be null");
+        }
+        this.service = service;
+    }
+
+    /**
+     * The directory holding the journal. A spool opened on a directory used before resumes with the
+     * messages which have not been handled. Only one spool may use a directory at a time.
+     *
+     * @param directory of the journal, created if it does not exist
+     * @return the current {@link MessageSpoolBuilder} instance
+     */
+    public MessageSpoolBuilder directory(final File directory) {
+        this.directory = directory;
+        return this;
+    }
+
+    /**
+     * The credentials all spooled messages are sent with.
+     *
+     * @param clientId unique ID supplied by ADM Services
+     * @param clientSecret secret value supplied by ADM services
+     * @return the current {@link MessageSpoolBuilder} instance
+     */
+    public MessageSpoolBuilder credentials(final String clientId, final String clientSecret) {
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        return this;
+    }
+
+    /**
+     * The number of worker threads sending the spooled messages, {@link MessageSpool#DEFAULT_WORKERS} if not set.
+     *
+     * @param workers the number of threads, must be positive
+     * @return the current {@link MessageSpoolBuilder} instance
+     */
+    public MessageSpoolBuilder workers(final int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive");
+        }
+        this.workers = workers;
+        return this;
+    }
+
+    /**
+     * The size of the journal segment files, {@link MessageSpool#DEFAULT_SEGMENT_SIZE} if not set. Segments are
+     * deleted once all their messages have been handled, a single message has to fit into a segment.
+     *
+     * @param segmentSize in bytes
+     * @return the current {@link MessageSpoolBuilder} instance
+     */
+    public MessageSpoolBuilder segmentSize(final int segmentSize) {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("segmentSize must be at least 1024 bytes");
+        }
+        this.segmentSize = segmentSize;
+        return this;
+    }
+
+    /**
+     * The number of messages read ahead of the workers and ordered by their deadlines,
+     * {@link MessageSpool#DEFAULT_READ_AHEAD} if not set. A message can only overtake messages within this window,
+     * {@code 1} sends all messages in the order they were enqueued. The oldest message of the window is overtaken at
+     * most this many times, then it is sent regardless of its deadline.
+     *
+     * @param readAhead the number of messages, must be positive
+     * @return the current {@link MessageSpoolBuilder} instance
+     */
+    public MessageSpoolBuilder readAhead(final int readAhead) {
+        if (readAhead < 1) {
+            throw new IllegalArgumentException("readAhead must be positive");
+        }
+        this.readAhead = readAhead;
+        return this;
+    }
+
+    /**
+     * The interval in which the journal is forced to the storage device, {@link MessageSpool#DEFAULT_SYNC_INTERVAL}
+     * if not set. Messages enqueued within the last interval can be lost if the operating system crashes.
+     *
+     * @param syncInterval the interval in milliseconds, {@code 0} to sync only through {@link MessageSpool#sync()} and on close
+     * @return the current {@link MessageSpoolBuilder} instance
+     */
+    public MessageSpoolBuilder syncInterval(final long syncInterval) {
+        if (syncInterval < 0) {
+            throw new IllegalArgumentException("syncInterval must not be negative");
+        }
+        this.syncInterval = syncInterval;
+        return this;
+    }
+
+    /**
+     * The {@link SpoolListener} informed about the outcome of every message. If none is given, outcomes are ignored.
+     *
+     * @param listener informed about the outcomes
+     * @return the current {@link MessageSpoolBuilder} instance
+     */
+    public MessageSpoolBuilder listener(final SpoolListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null, use SpoolListener.NONE to ignore the outcomes");
+        }
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Opens the journal and starts the workers
+     *
+     * @return a new {@link MessageSpool}
+     * @throws IOException if the journal cannot be opened
+     */
+    public MessageSpool build() throws IOException {
+        if (directory == null) {
+            throw new IllegalStateException("The directory of the journal has not been set");
+        }
+        if (clientId == null || clientSecret == null) {
+            throw new IllegalStateException("The credentials have not been set");
+        }
+        return new MessageSpool(this);
+    }
+
+    AdmService getService() {
+        return service;
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    String getClientId() {
+        return clientId;
+    }
+
+    String getClientSecret() {
+        return clientSecret;
+    }
+
+    int getWorkers() {
+        return workers;
+    }
+
+    int getSegmentSize() {
+        return segmentSize;
+    }
+
+    int getReadAhead() {
+        return readAhead;
+    }
+
+    long getSyncInterval() {
+        return syncInterval;
+    }
+
+    SpoolListener getListener() {
+        return listener;
+    }
+}
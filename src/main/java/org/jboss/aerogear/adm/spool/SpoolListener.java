@@ -0,0 +1,69 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.spool;
+
+/**
+ * Informs about the outcome of every message drained from a {@link MessageSpool}. The methods are
+ * called on the worker threads of the spool and should return quickly.
+ */
+public interface SpoolListener {
+
+    /**
+     * Ignores all outcomes, used if no listener is configured.
+     */
+    SpoolListener NONE = new SpoolListener() {
+        @Override
+        public void onSent(final SpooledMessage message, final String canonicalRegistrationId) {
+        }
+
+        @Override
+        public void onFailed(final SpooledMessage message, final Exception error) {
+        }
+
+        @Override
+        public void onExpired(final SpooledMessage message) {
+        }
+
+        @Override
+        public void onCoalesced(final SpooledMessage message) {
+        }
+    };
+
+    /**
+     * @param message which has been accepted by ADM
+     * @param canonicalRegistrationId the registrationId returned by ADM
+     */
+    void onSent(SpooledMessage message, String canonicalRegistrationId);
+
+    /**
+     * @param message which could not be sent, after all retries of the {@link org.jboss.aerogear.adm.AdmService}
+     * @param error the reason, e.g. an {@link org.jboss.aerogear.adm.AdmException}
+     */
+    void onFailed(SpooledMessage message, Exception error);
+
+    /**
+     * @param message which expired before it could be sent
+     */
+    void onExpired(SpooledMessage message);
+
+    /**
+     * @param message which has not been sent, because a newer message with the same registrationId and
+     * consolidation key has been enqueued in the meantime
+     */
+    void onCoalesced(SpooledMessage message);
+}
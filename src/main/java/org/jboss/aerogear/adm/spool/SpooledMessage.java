@@ -0,0 +1,101 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.spool;
+
+import org.jboss.aerogear.adm.CompiledPayload;
+
+/**
+ * A message read back from the journal of a {@link MessageSpool}.
+ */
+public final class SpooledMessage {
+
+    private final long offset;
+    private final String registrationId;
+    private final String consolidationKey;
+    private final CompiledPayload payload;
+    private final long enqueuedAt;
+    private final long expiresAt;
+
+    SpooledMessage(final long offset, final String registrationId, final String consolidationKey,
+                   final CompiledPayload payload, final long enqueuedAt, final long expiresAt) {
+        this.offset = offset;
+        this.registrationId = registrationId;
+        this.consolidationKey = consolidationKey;
+        this.payload = payload;
+        this.enqueuedAt = enqueuedAt;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return the position of the message in the journal
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the registrationId the message is addressed to
+     */
+    public String getRegistrationId() {
+        return registrationId;
+    }
+
+    /**
+     * @return the consolidation key of the message, {@code null} if it has none
+     */
+    public String getConsolidationKey() {
+        return consolidationKey;
+    }
+
+    /**
+     * @return the payload of the message
+     */
+    public CompiledPayload getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return the time in milliseconds since the epoch the message has been enqueued
+     */
+    public long getEnqueuedAt() {
+        return enqueuedAt;
+    }
+
+    /**
+     * @return the time in milliseconds since the epoch after which the message is no longer sent, {@code 0} if it never expires
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * @param now the current time in milliseconds since the epoch
+     * @return {@code true} if the message must no longer be sent
+     */
+    public boolean isExpired(final long now) {
+        return expiresAt > 0 && expiresAt <= now;
+    }
+
+    /**
+     * @return the time in milliseconds since the epoch by which the message has to be sent, {@link Long#MAX_VALUE}
+     * if it never expires
+     */
+    long getDeadline() {
+        return expiresAt > 0 ? expiresAt : Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A {@link HttpTransport} based on the HTTP/2 capable {@link HttpClient} of the JDK. Concurrent requests
+ * to the same host are multiplexed over a single connection instead of each occupying its own socket.
+ * Servers not supporting HTTP/2 are talked to over HTTP/1.1.
+ */
+public class Http2Transport implements HttpTransport {
+
+    private final HttpClient client;
+    private final Duration requestTimeout;
+
+    public Http2Transport() {
+        this(PooledHttpTransport.DEFAULT_CONNECT_TIMEOUT, PooledHttpTransport.DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * @param connectTimeout the timeout for establishing a connection, in milliseconds
+     * @param requestTimeout the timeout for receiving the response of a request, in milliseconds
+     */
+    public Http2Transport(final int connectTimeout, final int requestTimeout) {
+        this(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeout))
+                .build(), requestTimeout);
+    }
+
+    /**
+     * @param client a preconfigured {@link HttpClient}, e.g. with a custom {@link javax.net.ssl.SSLContext}
+     * @param requestTimeout the timeout for receiving the response of a request, in milliseconds
+     */
+    public Http2Transport(final HttpClient client, final int requestTimeout) {
+        this.client = client;
+        this.requestTimeout = Duration.ofMillis(requestTimeout);
+    }
+
+    @Override
+    public TransportResponse post(final URL url, final Map<String, String> headers, final byte[] body) throws IOException {
+        final HttpRequest.Builder request;
+        try {
+            request = HttpRequest.newBuilder(url.toURI())
+                    .timeout(requestTimeout)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL " + url, e);
+        }
+
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            // both are derived from the request by the client
+            if ("host".equalsIgnoreCase(header.getKey()) || "content-length".equalsIgnoreCase(header.getKey())) {
+                continue;
+            }
+            request.header(header.getKey(), header.getValue());
+        }
+
+        final HttpResponse<byte[]> response;
+        final long started = System.nanoTime();
+        try {
+            response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + url);
+        }
+        final long responseTime = System.nanoTime() - started;
+
+        final Map<String, String> responseHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            responseHeaders.put(header.getKey(), String.join(", ", header.getValue()));
+        }
+        // the client multiplexes the request onto a shared connection, only the total time is known
+        return new TransportResponse(response.statusCode(), responseHeaders, response.body(), 0, 0, responseTime);
+    }
+
+    /**
+     * The {@link HttpClient} releases its connections once it is no longer referenced.
+     */
+    @Override
+    public void close() {
+    }
+}
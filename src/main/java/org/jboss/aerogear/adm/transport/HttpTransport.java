@@ -0,0 +1,45 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * The HTTP layer used by {@link org.jboss.aerogear.adm.AdmService} and {@link org.jboss.aerogear.adm.TokenService}
+ * to talk to ADM. Implementations have to be thread-safe, a single instance is shared by all requests.
+ *
+ * The default implementation is {@link PooledHttpTransport}, other implementations (e.g. an in-process stub
+ * for tests) can be plugged in through {@link org.jboss.aerogear.adm.AdmServiceBuilder#transport(HttpTransport)}.
+ */
+public interface HttpTransport extends Closeable {
+
+    /**
+     * Sends a POST request and reads the complete response.
+     *
+     * @param url the target of the request
+     * @param headers the request headers, without {@code Host} and {@code Content-Length}
+     * @param body the request body
+     * @return the {@link TransportResponse}, for any HTTP status code
+     * @throws IOException if the request could not be sent or the response could not be read
+     */
+    TransportResponse post(URL url, Map<String, String> headers, byte[] body) throws IOException;
+
+}
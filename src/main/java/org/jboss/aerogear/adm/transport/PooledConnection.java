@@ -0,0 +1,289 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A single HTTP/1.1 connection, speaking just enough of the protocol to POST a request
+ * and read the complete response, so that the connection can be reused afterwards.
+ */
+final class PooledConnection {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final long connectTime;
+    private int requests;
+    // a fresh connection can take a request, afterwards the last response decides
+    private boolean reusable = true;
+    private boolean responseStarted;
+    private boolean stale;
+    private volatile long lastUsed;
+
+    /**
+     * @param socket the connected socket
+     * @param connectTime nanoseconds spent establishing the connection, reported with its first response
+     */
+    PooledConnection(final Socket socket, final long connectTime) throws IOException {
+        this.socket = socket;
+        this.connectTime = connectTime;
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * @return {@code true} if this connection has completed an earlier request
+     */
+    boolean isReused() {
+        return requests > 0;
+    }
+
+    /**
+     * A message POST is not idempotent, it may only be sent again if it cannot have reached the server.
+     *
+     * @return {@code true} if the last request failed because the server had closed this reused connection
+     * before the request arrived: writing failed, or the connection ended before any byte of the response
+     */
+    boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * @return {@code true} if the connection is fresh or the last response allows to send another request over it
+     */
+    boolean isReusable() {
+        return reusable && !socket.isClosed();
+    }
+
+    boolean isIdleSince(final long timestamp) {
+        return lastUsed <= timestamp;
+    }
+
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing left to do for a connection we give up on
+        }
+    }
+
+    TransportResponse execute(final URL url, final Map<String, String> headers, final byte[] body) throws IOException {
+        responseStarted = false;
+        reusable = false;
+        stale = false;
+        final long started = System.nanoTime();
+        try {
+            writeRequest(url, headers, body);
+        } catch (IOException e) {
+            stale = isReused();
+            throw e;
+        }
+        final long written = System.nanoTime();
+        final TransportResponse response;
+        try {
+            response = readResponse(requests == 0 ? connectTime : 0, written - started, written);
+        } catch (EOFException e) {
+            // a read timeout is no sign of a stale connection, the server may be processing the request
+            stale = isReused() && !responseStarted;
+            throw e;
+        }
+        requests++;
+        return response;
+    }
+
+    private void writeRequest(final URL url, final Map<String, String> headers, final byte[] body) throws IOException {
+        final StringBuilder head = new StringBuilder(256);
+        final String file = url.getFile();
+        head.append("POST ").append(file.isEmpty() ? "/" : file).append(" HTTP/1.1\r\n");
+
+        head.append("Host: ").append(url.getHost());
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+            head.append(':').append(url.getPort());
+        }
+        head.append("\r\n");
+        head.append("Content-Length: ").append(body.length).append("\r\n");
+
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            final String name = header.getKey();
+            if ("host".equalsIgnoreCase(name) || "content-length".equalsIgnoreCase(name)) {
+                continue;
+            }
+            checkHeader(name, header.getValue());
+            head.append(name).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("\r\n");
+
+        out.write(head.toString().getBytes(ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+
+    private TransportResponse readResponse(final long connectTime, final long writeTime, final long written) throws IOException {
+        String statusLine;
+        int statusCode;
+        Map<String, String> headers;
+
+        // skip interim 1xx responses
+        do {
+            statusLine = readLine();
+            statusCode = parseStatusCode(statusLine);
+            headers = readHeaders();
+        } while (statusCode >= 100 && statusCode < 200);
+
+        final String connection = headers.get("connection");
+        boolean keepAlive = statusLine.startsWith("HTTP/1.1")
+                ? !"close".equalsIgnoreCase(connection)
+                : "keep-alive".equalsIgnoreCase(connection);
+
+        final byte[] content;
+        final String transferEncoding = headers.get("transfer-encoding");
+        final String contentLength = headers.get("content-length");
+        if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ENGLISH).contains("chunked")) {
+            content = readChunked();
+        } else if (contentLength != null) {
+            content = readFully(Integer.parseInt(contentLength.trim()));
+        } else if (statusCode == 204 || statusCode == 304) {
+            content = new byte[0];
+        } else {
+            // the body is delimited by the end of the connection
+            content = readToEnd();
+            keepAlive = false;
+        }
+
+        reusable = keepAlive;
+        return new TransportResponse(statusCode, headers, content, connectTime, writeTime, System.nanoTime() - written);
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        final Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        String line = readLine();
+        while (!line.isEmpty()) {
+            final int colon = line.indexOf(':');
+            if (colon > 0) {
+                final String name = line.substring(0, colon).trim();
+                final String value = line.substring(colon + 1).trim();
+                final String previous = headers.get(name);
+                headers.put(name, previous == null ? value : previous + ", " + value);
+            }
+            line = readLine();
+        }
+        return headers;
+    }
+
+    private byte[] readChunked() throws IOException {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        while (true) {
+            String sizeLine = readLine();
+            final int extension = sizeLine.indexOf(';');
+            if (extension != -1) {
+                sizeLine = sizeLine.substring(0, extension);
+            }
+            final int size = Integer.parseInt(sizeLine.trim(), 16);
+            if (size == 0) {
+                // skip the trailers
+                String trailer = readLine();
+                while (!trailer.isEmpty()) {
+                    trailer = readLine();
+                }
+                return content.toByteArray();
+            }
+            content.write(readFully(size));
+            readLine();
+        }
+    }
+
+    private byte[] readFully(final int length) throws IOException {
+        final byte[] content = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            final int read = in.read(content, offset, length - offset);
+            if (read == -1) {
+                throw new EOFException("Connection closed after " + offset + " of " + length + " bytes");
+            }
+            offset += read;
+        }
+        return content;
+    }
+
+    private byte[] readToEnd() throws IOException {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read = in.read(buffer);
+        while (read != -1) {
+            content.write(buffer, 0, read);
+            read = in.read(buffer);
+        }
+        return content.toByteArray();
+    }
+
+    private String readLine() throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b = in.read();
+        while (b != '\n') {
+            if (b == -1) {
+                throw new EOFException("Connection closed by the server");
+            }
+            responseStarted = true;
+            line.write(b);
+            b = in.read();
+        }
+        final byte[] bytes = line.toByteArray();
+        final int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, ISO_8859_1);
+    }
+
+    private static int parseStatusCode(final String statusLine) throws IOException {
+        final String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Invalid HTTP status line: " + statusLine);
+        }
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid HTTP status line: " + statusLine);
+        }
+    }
+
+    private static void checkHeader(final String name, final String value) {
+        if (name.indexOf('\r') != -1 || name.indexOf('\n') != -1 || name.indexOf(':') != -1
+                || value.indexOf('\r') != -1 || value.indexOf('\n') != -1) {
+            throw new IllegalArgumentException("Invalid header: " + name);
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.transport;
+
+import org.jboss.aerogear.adm.internal.NamedThreadFactory;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The default {@link HttpTransport}, keeping HTTP/1.1 connections alive between requests so that
+ * the TCP and TLS handshakes are paid once per connection instead of once per message.
+ *
+ * The number of connections per host is limited, requests wait for a free connection once the
+ * limit is reached, at most for the connect timeout. Connections which have not been used for the idle timeout are closed.
+ * A request is only sent again on a fresh connection if a reused one turned out to be closed before the request reached
+ * the server, never after a read timeout, since message requests are not idempotent. A connection which cannot be
+ * established within the connect timeout fails with a {@link ConnectException}, telling it apart from a read timeout.
+ * Connections are made directly, use {@link UrlConnectionTransport} if requests have to go through a proxy.
+ */
+public class PooledHttpTransport implements HttpTransport {
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 64;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_READ_TIMEOUT = 30000;
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("adm-connection-evictor"));
+
+    private final int maxConnectionsPerHost;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final long idleTimeout;
+    private final SSLSocketFactory sslSocketFactory;
+    private final ConcurrentMap<String, HostPool> pools = new ConcurrentHashMap<String, HostPool>();
+    private final ScheduledFuture<?> eviction;
+    private volatile boolean closed;
+
+    public PooledHttpTransport() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param maxConnectionsPerHost the maximum number of connections to a single host
+     * @param connectTimeout the timeout for establishing a connection and for waiting for a free one, in milliseconds
+     * @param readTimeout the timeout for reading from a connection, in milliseconds
+     * @param idleTimeout the time after which unused connections are closed, in milliseconds
+     */
+    public PooledHttpTransport(final int maxConnectionsPerHost, final int connectTimeout, final int readTimeout, final long idleTimeout) {
+        this(maxConnectionsPerHost, connectTimeout, readTimeout, idleTimeout, HttpsURLConnection.getDefaultSSLSocketFactory());
+    }
+
+    /**
+     * @param maxConnectionsPerHost the maximum number of connections to a single host
+     * @param connectTimeout the timeout for establishing a connection and for waiting for a free one, in milliseconds
+     * @param readTimeout the timeout for reading from a connection, in milliseconds
+     * @param idleTimeout the time after which unused connections are closed, in milliseconds
+     * @param sslSocketFactory the factory creating the TLS connections
+     */
+    public PooledHttpTransport(final int maxConnectionsPerHost, final int connectTimeout, final int readTimeout, final long idleTimeout,
+                               final SSLSocketFactory sslSocketFactory) {
+        if (maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerHost must be positive");
+        }
+        if (idleTimeout < 1) {
+            throw new IllegalArgumentException("idleTimeout must be positive");
+        }
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.idleTimeout = idleTimeout;
+        this.sslSocketFactory = sslSocketFactory;
+
+        final long sweepInterval = Math.max(idleTimeout / 2, 1);
+        this.eviction = EVICTOR.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdleConnections();
+            }
+        }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public TransportResponse post(final URL url, final Map<String, String> headers, final byte[] body) throws IOException {
+        return post(url, headers, body, null);
+    }
+
+    /**
+     * Sends a POST request which can be aborted through the given {@link RequestHandle}, e.g. to enforce a timeout.
+     *
+     * @param url the target of the request
+     * @param headers the request headers, without {@code Host} and {@code Content-Length}
+     * @param body the request body
+     * @param handle aborting the request when cancelled, or {@code null}
+     * @return the {@link TransportResponse}, for any HTTP status code
+     * @throws InterruptedIOException if the request has been cancelled
+     * @throws IOException if the request could not be sent or the response could not be read
+     */
+    public TransportResponse post(final URL url, final Map<String, String> headers, final byte[] body, final RequestHandle handle) throws IOException {
+        if (closed) {
+            throw new IOException("Transport has been closed");
+        }
+
+        final HostPool pool = pool(url);
+        pool.acquire();
+        try {
+            PooledConnection connection = pool.borrow();
+            if (connection != null) {
+                try {
+                    return execute(pool, connection, url, headers, body, handle);
+                } catch (IOException e) {
+                    // the server may have closed the idle connection in the meantime, try again on a fresh
+                    // connection only if the request cannot have reached it, as messages are not idempotent
+                    if (!connection.isStale() || handle != null && handle.isCancelled()) {
+                        throw e;
+                    }
+                }
+            }
+            connection = pool.open(true);
+            return execute(pool, connection, url, headers, body, handle);
+        } finally {
+            pool.permits.release();
+        }
+    }
+
+    /**
+     * Opens connections to the host of the given URL ahead of the first requests, so that these neither wait for
+     * the DNS lookup nor for the TCP and TLS handshakes. The first connection performs a full TLS handshake; the
+     * session it establishes is cached by the {@link SSLSocketFactory} and resumed by the other connections as well as
+     * by those opened later. Connections which stay unused are closed after the idle timeout like all others.
+     *
+     * @param url any URL of the host, e.g. the ADM endpoint
+     * @param connections the number of idle connections to keep ready, at most the maximum per host
+     * @return the number of connections opened
+     * @throws IOException if a connection cannot be established
+     */
+    public int preconnect(final URL url, final int connections) throws IOException {
+        if (closed) {
+            throw new IOException("Transport has been closed");
+        }
+
+        final HostPool pool = pool(url);
+        final int missing = Math.min(connections, maxConnectionsPerHost) - pool.idle.size();
+        for (int i = 0; i < missing; i++) {
+            // the handshake is not part of any request, don't report it as its connect time
+            pool.release(pool.open(false));
+        }
+        return Math.max(missing, 0);
+    }
+
+    /**
+     * Closes all idle connections, connections still in use are closed once their request completes.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        eviction.cancel(false);
+        for (HostPool pool : pools.values()) {
+            pool.closeIdle(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * @return the number of idle connections kept for reuse, over all hosts
+     */
+    public int getIdleConnectionCount() {
+        int count = 0;
+        for (HostPool pool : pools.values()) {
+            count += pool.idle.size();
+        }
+        return count;
+    }
+
+    private TransportResponse execute(final HostPool pool, final PooledConnection connection, final URL url,
+                                      final Map<String, String> headers, final byte[] body, final RequestHandle handle) throws IOException {
+        if (handle != null && !handle.attach(connection)) {
+            pool.release(connection);
+            throw new InterruptedIOException("The request has been cancelled");
+        }
+
+        boolean reusable = false;
+        try {
+            final TransportResponse response = connection.execute(url, headers, body);
+            reusable = connection.isReusable();
+            return response;
+        } catch (IOException e) {
+            if (handle != null && handle.isCancelled()) {
+                final InterruptedIOException cancelled = new InterruptedIOException("The request has been cancelled");
+                cancelled.initCause(e);
+                throw cancelled;
+            }
+            throw e;
+        } finally {
+            if (handle != null) {
+                handle.detach();
+                // the connection may have been closed by the cancellation
+                reusable &= !handle.isCancelled();
+            }
+            if (reusable && !closed) {
+                pool.release(connection);
+            } else {
+                connection.close();
+            }
+        }
+    }
+
+    private void evictIdleConnections() {
+        final long idleSince = System.currentTimeMillis() - idleTimeout;
+        for (HostPool pool : pools.values()) {
+            pool.closeIdle(idleSince);
+        }
+    }
+
+    private HostPool pool(final URL url) {
+        final String protocol = url.getProtocol().toLowerCase(Locale.ENGLISH);
+        final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        final String key = protocol + "://" + url.getHost() + ":" + port;
+
+        HostPool pool = pools.get(key);
+        if (pool == null) {
+            final HostPool created = new HostPool(url.getHost(), port, "https".equals(protocol));
+            pool = pools.putIfAbsent(key, created);
+            if (pool == null) {
+                pool = created;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * The connections to a single host.
+     */
+    private final class HostPool {
+
+        private final String host;
+        private final int port;
+        private final boolean secure;
+        private final Semaphore permits = new Semaphore(maxConnectionsPerHost);
+        private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<PooledConnection>();
+
+        HostPool(final String host, final int port, final boolean secure) {
+            this.host = host;
+            this.port = port;
+            this.secure = secure;
+        }
+
+        void acquire() throws IOException {
+            try {
+                if (connectTimeout == 0) {
+                    permits.acquire();
+                } else if (!permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)) {
+                    throw new SocketTimeoutException("Timed out waiting for one of the " + maxConnectionsPerHost + " connections to " + host);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a connection to " + host);
+            }
+        }
+
+        PooledConnection borrow() {
+            final long idleSince = System.currentTimeMillis() - idleTimeout;
+            // most recently used first, it is the least likely to have been closed by the server
+            PooledConnection connection = idle.pollFirst();
+            while (connection != null) {
+                if (!connection.isIdleSince(idleSince) && connection.isReusable()) {
+                    return connection;
+                }
+                connection.close();
+                connection = idle.pollFirst();
+            }
+            return null;
+        }
+
+        void release(final PooledConnection connection) {
+            connection.touch();
+            idle.offerFirst(connection);
+        }
+
+        void closeIdle(final long idleSince) {
+            final Iterator<PooledConnection> iterator = idle.iterator();
+            while (iterator.hasNext()) {
+                final PooledConnection connection = iterator.next();
+                if (connection.isIdleSince(idleSince) && idle.remove(connection)) {
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * @param reportConnectTime whether the first request of the connection reports the time it took to open it
+         */
+        PooledConnection open(final boolean reportConnectTime) throws IOException {
+            final long started = reportConnectTime ? System.nanoTime() : 0;
+            final Socket plain = new Socket();
+            try {
+                plain.setTcpNoDelay(true);
+                try {
+                    plain.connect(new InetSocketAddress(host, port), connectTimeout);
+                } catch (SocketTimeoutException e) {
+                    // tells callers apart from a read timeout: the request has not been sent
+                    final ConnectException timeout = new ConnectException("Timed out connecting to " + host + ":" + port);
+                    timeout.initCause(e);
+                    throw timeout;
+                }
+                plain.setSoTimeout(readTimeout);
+                if (!secure) {
+                    return new PooledConnection(plain, reportConnectTime ? System.nanoTime() - started : 0);
+                }
+
+                final SSLSocket socket = (SSLSocket) sslSocketFactory.createSocket(plain, host, port, true);
+                final SSLParameters parameters = socket.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                socket.setSSLParameters(parameters);
+                socket.startHandshake();
+                return new PooledConnection(socket, reportConnectTime ? System.nanoTime() - started : 0);
+            } catch (IOException e) {
+                plain.close();
+                throw e;
+            }
+        }
+    }
+}
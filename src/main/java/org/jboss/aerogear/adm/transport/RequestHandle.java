@@ -0,0 +1,87 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.transport;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets a request sent through {@link PooledHttpTransport#post(java.net.URL, java.util.Map, byte[], RequestHandle)}
+ * be aborted from another thread, e.g. because it timed out or because a duplicate request has already been answered.
+ * Cancelling closes the connection the request is using, so a blocked read returns immediately and the request
+ * fails with an {@link java.io.InterruptedIOException}. A handle belongs to a single request at a time.
+ */
+public final class RequestHandle {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile boolean cancelled;
+    private PooledConnection connection;
+
+    /**
+     * Aborts the request. A request which has not started yet fails as soon as it does, one which has
+     * already completed is not affected.
+     */
+    public void cancel() {
+        lock.lock();
+        try {
+            cancelled = true;
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return {@code true} if {@link #cancel()} has been called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Registers the connection the request is about to use.
+     *
+     * @return {@code false} if the request has been cancelled already
+     */
+    boolean attach(final PooledConnection connection) {
+        lock.lock();
+        try {
+            if (cancelled) {
+                return false;
+            }
+            this.connection = connection;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the connection once the request is done with it, before it is handed to the next request.
+     */
+    void detach() {
+        lock.lock();
+        try {
+            connection = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A complete HTTP response as returned by a {@link HttpTransport}.
+ */
+public final class TransportResponse {
+
+    private final int statusCode;
+    private final Map<String, String> headers;
+    private final byte[] body;
+    private final long connectTime;
+    private final long writeTime;
+    private final long responseTime;
+
+    /**
+     * @param statusCode the HTTP status code
+     * @param headers the response headers, multiple values of the same header joined by {@code ", "}
+     * @param body the response body
+     */
+    public TransportResponse(final int statusCode, final Map<String, String> headers, final byte[] body) {
+        this(statusCode, headers, body, 0, 0, 0);
+    }
+
+    /**
+     * @param statusCode the HTTP status code
+     * @param headers the response headers, multiple values of the same header joined by {@code ", "}
+     * @param body the response body
+     * @param connectTime nanoseconds spent establishing the connection, {@code 0} for a reused connection
+     * @param writeTime nanoseconds spent writing the request
+     * @param responseTime nanoseconds from the written request to the completely read response
+     */
+    public TransportResponse(final int statusCode, final Map<String, String> headers, final byte[] body,
+                             final long connectTime, final long writeTime, final long responseTime) {
+        final Map<String, String> caseInsensitiveHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        caseInsensitiveHeaders.putAll(headers);
+
+        this.statusCode = statusCode;
+        this.headers = Collections.unmodifiableMap(caseInsensitiveHeaders);
+        this.body = body;
+        this.connectTime = connectTime;
+        this.writeTime = writeTime;
+        this.responseTime = responseTime;
+    }
+
+    /**
+     * @return the HTTP status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @param name of the header, case insensitive
+     * @return the value of the header, or {@code null} if the response does not contain it
+     */
+    public String getHeader(final String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * @return all response headers, keyed case insensitive
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return a stream over the response body
+     */
+    public InputStream getBody() {
+        return new ByteArrayInputStream(body);
+    }
+
+    /**
+     * @return the length of the response body in bytes
+     */
+    public int getContentLength() {
+        return body.length;
+    }
+
+    /**
+     * @return nanoseconds spent establishing the connection, {@code 0} if an open connection has been reused
+     * or the transport does not measure it separately
+     */
+    public long getConnectTime() {
+        return connectTime;
+    }
+
+    /**
+     * @return nanoseconds spent writing the request, {@code 0} if the transport does not measure it separately
+     */
+    public long getWriteTime() {
+        return writeTime;
+    }
+
+    /**
+     * @return nanoseconds from the written request to the completely read response
+     */
+    public long getResponseTime() {
+        return responseTime;
+    }
+}
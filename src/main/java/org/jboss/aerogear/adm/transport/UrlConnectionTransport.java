@@ -0,0 +1,123 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A {@link HttpTransport} based on {@link java.net.HttpURLConnection}, leaving connection reuse to the
+ * keep-alive cache of the JDK. Unlike {@link PooledHttpTransport} it honours the proxy settings of the JVM.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    public UrlConnectionTransport() {
+        this(PooledHttpTransport.DEFAULT_CONNECT_TIMEOUT, PooledHttpTransport.DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * @param connectTimeout the timeout for establishing a connection, in milliseconds
+     * @param readTimeout the timeout for reading from a connection, in milliseconds
+     */
+    public UrlConnectionTransport(final int connectTimeout, final int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public TransportResponse post(final URL url, final Map<String, String> headers, final byte[] body) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        conn.setDoOutput(true);
+        conn.setUseCaches(false);
+        conn.setRequestMethod("POST");
+        conn.setFixedLengthStreamingMode(body.length);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            conn.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        // the keep-alive cache of the JDK makes connecting to a known host almost free
+        final long started = System.nanoTime();
+        conn.connect();
+        final long connected = System.nanoTime();
+        final OutputStream out = conn.getOutputStream();
+        try {
+            out.write(body);
+            out.flush();
+        } finally {
+            out.close();
+        }
+        final long written = System.nanoTime();
+
+        final int statusCode = conn.getResponseCode();
+        final Map<String, String> responseHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : conn.getHeaderFields().entrySet()) {
+            // the status line is reported with a null key
+            if (header.getKey() != null) {
+                responseHeaders.put(header.getKey(), join(header.getValue()));
+            }
+        }
+
+        // the body has to be read completely for the JDK to reuse the connection
+        final InputStream in = statusCode >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        final byte[] content = in == null ? new byte[0] : readFully(in);
+        return new TransportResponse(statusCode, responseHeaders, content,
+                connected - started, written - connected, System.nanoTime() - written);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static String join(final List<String> values) {
+        final StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() > 0) {
+                joined.append(", ");
+            }
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    private static byte[] readFully(final InputStream in) throws IOException {
+        try {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read = in.read(buffer);
+            while (read != -1) {
+                content.write(buffer, 0, read);
+                read = in.read(buffer);
+            }
+            return content.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveRateLimiterTest {
+
+    @Test
+    public void testPacesToRate() throws Exception {
+        final AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(50, 1, 1);
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < 11; i++) {
+            limiter.acquire("client");
+        }
+        // the first permit is available at once, the other ten are 20ms apart
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 190);
+    }
+
+    @Test
+    public void testClientIdsAreIndependent() throws Exception {
+        final AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(1, 1, 1);
+
+        final long start = System.nanoTime();
+        limiter.acquire("first");
+        limiter.acquire("second");
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+    }
+
+    @Test
+    public void testThrottlingHalvesRateAndRecovers() {
+        final AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(100, 10, 1);
+
+        limiter.onThrottled("client", -1);
+        assertEquals(50, limiter.getRate("client"), 0.001);
+        limiter.onThrottled("client", -1);
+        limiter.onThrottled("client", -1);
+        limiter.onThrottled("client", -1);
+        assertEquals(10, limiter.getRate("client"), 0.001);
+
+        for (int i = 0; i < 5; i++) {
+            limiter.onSuccess("client");
+        }
+        assertEquals(15, limiter.getRate("client"), 0.001);
+    }
+
+    @Test
+    public void testRetryAfterPausesClientId() throws Exception {
+        final AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(1000);
+        limiter.onThrottled("client", 300);
+
+        final long start = System.nanoTime();
+        limiter.acquire("client");
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+    }
+
+    @Test
+    public void testRetryAfterPausesWaitingThreads() throws Exception {
+        final AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(10, 1, 1);
+        limiter.acquire("client");
+
+        final long[] acquiredAt = new long[1];
+        final Thread waiting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // its slot lies 100ms ahead
+                    limiter.acquire("client");
+                    acquiredAt[0] = System.nanoTime();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waiting.start();
+        Thread.sleep(20);
+        final long throttledAt = System.nanoTime();
+        limiter.onThrottled("client", 400);
+        waiting.join();
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(acquiredAt[0] - throttledAt) >= 350);
+    }
+}
@@ -0,0 +1,498 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import org.jboss.aerogear.adm.feedback.FeedbackStore;
+import org.jboss.aerogear.adm.internal.VirtualThreads;
+import org.jboss.aerogear.adm.metrics.InMemoryAdmMetrics;
+import org.jboss.aerogear.adm.transport.HttpTransport;
+import org.jboss.aerogear.adm.transport.StubHttpTransport;
+import org.jboss.aerogear.adm.transport.TransportResponse;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdmServiceTest {
+
+    @Test
+    public void testAsyncReturnsCanonicalId() throws Exception {
+        final AdmService service = new AdmService() {
+            @Override
+            public String sendMessageToDevice(String registrationId, String clientId, String clientSecret, String payload) {
+                return "canonical-" + registrationId;
+            }
+        };
+
+        assertEquals("canonical-device", service.sendMessageToDeviceAsync("device", "id", "secret", "{}").get(5, TimeUnit.SECONDS));
+        service.close();
+    }
+
+    @Test
+    public void testAsyncFailure() throws Exception {
+        final AdmService service = new AdmService() {
+            @Override
+            public String sendMessageToDevice(String registrationId, String clientId, String clientSecret, String payload) {
+                throw new IllegalStateException("boom");
+            }
+        };
+
+        try {
+            service.sendMessageToDeviceAsync("device", "id", "secret", "{}").get(5, TimeUnit.SECONDS);
+            fail("expected the future to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testMaxInFlightRequests() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxSeen = new AtomicInteger();
+        final AdmService service = new AdmService(ADM.newServiceBuilder().maxInFlightRequests(3)) {
+            @Override
+            public String sendMessageToDevice(String registrationId, String clientId, String clientSecret, String payload) throws Exception {
+                final int current = inFlight.incrementAndGet();
+                maxSeen.set(Math.max(maxSeen.get(), current));
+                Thread.sleep(10);
+                inFlight.decrementAndGet();
+                return registrationId;
+            }
+        };
+
+        final List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 30; i++) {
+            futures.add(service.sendMessageToDeviceAsync("device" + i, "id", "secret", "{}"));
+        }
+        for (int i = 0; i < 30; i++) {
+            assertEquals("device" + i, futures.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertTrue(maxSeen.get() <= 3);
+        service.close();
+    }
+
+    @Test
+    public void testAsyncRequestsAreQueued() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AdmService service = new AdmService(ADM.newServiceBuilder().maxInFlightRequests(1)) {
+            @Override
+            public String sendMessageToDevice(String registrationId, String clientId, String clientSecret, String payload) throws Exception {
+                release.await();
+                return registrationId;
+            }
+        };
+
+        // the caller is not held back while the only request slot is taken
+        final long start = System.nanoTime();
+        final List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(service.sendMessageToDeviceAsync("device" + i, "id", "secret", "{}"));
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        assertFalse(futures.get(4).isDone());
+
+        release.countDown();
+        for (int i = 0; i < 5; i++) {
+            assertEquals("device" + i, futures.get(i).get(5, TimeUnit.SECONDS));
+        }
+        service.close();
+    }
+
+    @Test
+    public void testMulticastReportsEveryDevice() throws Exception {
+        final AdmService service = new AdmService() {
+            @Override
+            public String sendMessageToDevice(String registrationId, String clientId, String clientSecret, String payload) {
+                if ("bad".equals(registrationId)) {
+                    throw new AdmException(400, "{\"reason\":\"InvalidRegistrationId\"}");
+                }
+                if ("old".equals(registrationId)) {
+                    return "new";
+                }
+                return registrationId;
+            }
+        };
+
+        final MulticastResult result = service.sendMessageToDevices(Arrays.asList("good", "bad", "old", "good"), "id", "secret", "{}");
+        service.close();
+
+        assertEquals(3, result.getResults().size());
+        assertEquals(2, result.getSuccessCount());
+        assertEquals(1, result.getFailureCount());
+        assertEquals(SendResult.Status.SUCCESS, result.getResult("good").getStatus());
+        assertEquals(SendResult.Status.ERROR, result.getResult("bad").getStatus());
+        assertEquals(400, ((AdmException) result.getResult("bad").getError()).getStatusCode());
+        assertEquals(SendResult.Status.CANONICAL_ID, result.getResult("old").getStatus());
+        assertEquals("new", result.getCanonicalIds().get(0).getCanonicalRegistrationId());
+    }
+
+    @Test
+    public void testSendMessageToDevice() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport();
+        final AdmService service = ADM.newServiceBuilder().transport(transport).build();
+
+        assertEquals("device", service.sendMessageToDevice("device", "id", "secret", "{\"data\":{}}"));
+        service.close();
+
+        final List<StubHttpTransport.Request> requests = transport.getRequests();
+        assertEquals(2, requests.size());
+        assertEquals("/auth/O2/token", requests.get(0).getUrl().getPath());
+
+        final StubHttpTransport.Request message = requests.get(1);
+        assertEquals("/messaging/registrations/device/messages", message.getUrl().getPath());
+        assertEquals("{\"data\":{}}", message.getBody());
+        assertEquals("Bearer token-1", message.getHeaders().get("Authorization"));
+        assertEquals("com.amazon.device.messaging.ADMMessage@1.0", message.getHeaders().get("X-Amzn-Type-Version"));
+        assertEquals("com.amazon.device.messaging.ADMSendResult@1.0", message.getHeaders().get("X-Amzn-Accept-Type"));
+    }
+
+    @Test
+    public void testCustomEndpoint() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport();
+        final AdmService service = ADM.newServiceBuilder().transport(transport).endpoint("http://localhost:8080/").build();
+
+        service.sendMessageToDevice("device", "id", "secret", "{}");
+        service.close();
+
+        final List<StubHttpTransport.Request> requests = transport.getRequests();
+        assertEquals("http://localhost:8080/auth/O2/token", requests.get(0).getUrl().toString());
+        assertEquals("http://localhost:8080/messaging/registrations/device/messages", requests.get(1).getUrl().toString());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport().respond(401, "").respond(400, "");
+        final InMemoryAdmMetrics metrics = new InMemoryAdmMetrics();
+        final AdmService service = ADM.newServiceBuilder().transport(transport).metrics(metrics).build();
+
+        try {
+            service.sendMessageToDevice("device", "id", "secret", "{}");
+            fail("the message should have been rejected");
+        } catch (AdmException e) {
+            assertEquals(400, e.getStatusCode());
+        }
+        service.sendMessageToDevice("device", "id", "secret", "{\"data\":{}}");
+        service.close();
+
+        assertEquals(1, metrics.getStatusCount(401));
+        assertEquals(1, metrics.getStatusCount(400));
+        assertEquals(1, metrics.getStatusCount(200));
+        assertEquals(3, metrics.getResponseTime().getCount());
+        assertEquals(1, metrics.getRejectedTokens());
+        assertEquals(2, metrics.getTokenLatency().getCount());
+        assertEquals(Long.valueOf(2), metrics.getTokenStatusCounts().get(200));
+        assertEquals(2 + 2 + 11, metrics.getBytesSent().getSum());
+    }
+
+    @Test
+    public void testCanonicalRegistrationId() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport().respond(200, "{\"registrationID\":\"canonical\"}");
+        final AdmService service = ADM.newServiceBuilder().transport(transport).build();
+
+        assertEquals("canonical", service.sendMessageToDevice("device", "id", "secret", "{}"));
+        service.close();
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport();
+        final AdmServiceBuilder builder = ADM.newServiceBuilder().transport(transport)
+                .virtualThreads(true)
+                .maxInFlightRequests(10000);
+        if (!VirtualThreads.isSupported()) {
+            try {
+                builder.build();
+                fail("expected virtual threads to be unsupported");
+            } catch (IllegalStateException e) {
+                return;
+            }
+        }
+
+        final AdmService service = builder.build();
+        final List<String> registrationIds = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            registrationIds.add("device" + i);
+        }
+        assertEquals(1000, service.sendMessageToDevices(registrationIds, "id", "secret", "{}").getSuccessCount());
+        service.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testVirtualThreadsWithExecutor() {
+        ADM.newServiceBuilder().virtualThreads(true).executor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                command.run();
+            }
+        }).build();
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport();
+        final AdmService service = ADM.newServiceBuilder().transport(transport).build();
+
+        service.warmUp(Arrays.asList(new AdmCredentials("first", "secret"), new AdmCredentials("second", "secret")), 4);
+        assertEquals(2, transport.getTokenCount());
+
+        service.sendMessageToDevice("device", "first", "secret", "{}");
+        service.sendMessageToDevice("device", "second", "secret", "{}");
+        assertEquals(2, transport.getTokenCount());
+        service.close();
+    }
+
+    @Test
+    public void testFeedbackStore() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport()
+                .respond(200, "{\"registrationID\":\"new\"}")
+                .respond(410, "{\"reason\":\"Unregistered\"}");
+        final FeedbackStore feedbackStore = FeedbackStore.newBuilder().build();
+        final AdmService service = ADM.newServiceBuilder().transport(transport).feedbackStore(feedbackStore).build();
+
+        assertEquals("new", service.sendMessageToDevice("old", "id", "secret", "{}"));
+        try {
+            service.sendMessageToDevice("gone", "id", "secret", "{}");
+            fail("expected an AdmException");
+        } catch (AdmException e) {
+            assertEquals(410, e.getStatusCode());
+        }
+        assertEquals("new", service.sendMessageToDevice("old", "id", "secret", "{}"));
+        try {
+            service.sendMessageToDevice("gone", "id", "secret", "{}");
+            fail("expected an UnregisteredDeviceException");
+        } catch (UnregisteredDeviceException e) {
+            assertEquals("Unregistered", e.getReason());
+        } finally {
+            service.close();
+            feedbackStore.close();
+        }
+
+        // the old registrationId is replaced and the unregistered device is not contacted again
+        final List<StubHttpTransport.Request> requests = transport.getRequests();
+        assertEquals(4, requests.size());
+        assertEquals("/messaging/registrations/new/messages", requests.get(3).getUrl().getPath());
+    }
+
+    @Test
+    public void testRejectedTokenIsRefreshed() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport().respond(401, "{\"reason\":\"AccessTokenExpired\"}");
+        final AdmService service = ADM.newServiceBuilder().transport(transport).build();
+
+        assertEquals("device", service.sendMessageToDevice("device", "id", "secret", "{}"));
+        service.close();
+
+        assertEquals(2, transport.getTokenCount());
+        assertEquals("Bearer token-2", transport.getRequests().get(3).getHeaders().get("Authorization"));
+    }
+
+    @Test
+    public void testRejectedTokenIsDroppedWithoutRetry() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport().respond(401, "{\"reason\":\"AccessTokenExpired\"}");
+        final AdmService service = ADM.newServiceBuilder().transport(transport).retryPolicy(RetryPolicy.NONE).build();
+
+        try {
+            service.sendMessageToDevice("device", "id", "secret", "{}");
+            fail("expected an AdmException");
+        } catch (AdmException e) {
+            assertEquals(401, e.getStatusCode());
+        }
+        // the next message does not reuse the rejected token
+        assertEquals("device", service.sendMessageToDevice("device", "id", "secret", "{}"));
+        service.close();
+
+        assertEquals(2, transport.getTokenCount());
+        assertEquals("Bearer token-2", transport.getRequests().get(3).getHeaders().get("Authorization"));
+    }
+
+    @Test
+    public void testReadTimeoutIsNotRetried() throws Exception {
+        final StubHttpTransport stub = new StubHttpTransport();
+        final AdmService service = ADM.newServiceBuilder().transport(failingOnce(stub, new SocketTimeoutException("Read timed out")))
+                .retryPolicy(new RetryPolicy(2, 0, 0)).build();
+
+        try {
+            // ADM may have accepted the message before the response was lost
+            service.sendMessageToDevice("device", "id", "secret", "{}");
+            fail("expected a SocketTimeoutException");
+        } catch (SocketTimeoutException e) {
+            // only the token request reached the stub, the message was not sent again
+            assertEquals(1, stub.getRequests().size());
+        }
+        service.close();
+    }
+
+    @Test
+    public void testReadTimeoutIsRetriedOnRequest() throws Exception {
+        final AdmService service = ADM.newServiceBuilder().transport(failingOnce(new StubHttpTransport(), new SocketTimeoutException("Read timed out")))
+                .retryPolicy(new RetryPolicy(2, 0, 0).withUnconfirmedRetries()).build();
+
+        assertEquals("device", service.sendMessageToDevice("device", "id", "secret", "{}"));
+        service.close();
+    }
+
+    @Test
+    public void testConnectFailureIsRetried() throws Exception {
+        final AdmService service = ADM.newServiceBuilder().transport(failingOnce(new StubHttpTransport(), new ConnectException("Connection refused")))
+                .retryPolicy(new RetryPolicy(2, 0, 0)).build();
+
+        assertEquals("device", service.sendMessageToDevice("device", "id", "secret", "{}"));
+        service.close();
+    }
+
+    /**
+     * @return a transport failing the first message request with the given exception
+     */
+    private static HttpTransport failingOnce(final StubHttpTransport stub, final IOException failure) {
+        final AtomicInteger failures = new AtomicInteger(1);
+        return new HttpTransport() {
+            @Override
+            public TransportResponse post(final URL url, final Map<String, String> headers, final byte[] body) throws IOException {
+                if (url.getPath().startsWith("/messaging") && failures.getAndDecrement() > 0) {
+                    throw failure;
+                }
+                return stub.post(url, headers, body);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Test
+    public void testErrorResponse() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport().respond(400, "{\"reason\":\"InvalidRegistrationId\"}");
+        final AdmService service = ADM.newServiceBuilder().transport(transport).build();
+
+        try {
+            service.sendMessageToDevice("device", "id", "secret", "{}");
+            fail("expected an AdmException");
+        } catch (AdmException e) {
+            assertEquals(400, e.getStatusCode());
+            assertEquals("{\"reason\":\"InvalidRegistrationId\"}", e.getErrorContent());
+            assertEquals("InvalidRegistrationId", e.getReason());
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testThrottledMessageIsRetried() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport()
+                .respond(429, Collections.singletonMap("Retry-After", "0"), "{\"reason\":\"MaxRateExceeded\"}");
+        final AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(100);
+        final AdmService service = ADM.newServiceBuilder().transport(transport).rateLimiter(rateLimiter).build();
+
+        assertEquals("device", service.sendMessageToDevice("device", "id", "secret", "{}"));
+        service.close();
+
+        assertEquals(3, transport.getRequests().size());
+        assertTrue(rateLimiter.getRate("id") < 100);
+    }
+
+    @Test
+    public void testServerErrorIsRetried() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport().respond(503, "").respond(500, "");
+        final AdmService service = ADM.newServiceBuilder().transport(transport)
+                .retryPolicy(new RetryPolicy(3, 1, 10)).build();
+
+        assertEquals("device", service.sendMessageToDevice("device", "id", "secret", "{}"));
+        service.close();
+        assertEquals(4, transport.getRequests().size());
+    }
+
+    @Test
+    public void testRejectedTokenRetriesAreBounded() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport().respond(401, "").respond(401, "").respond(401, "");
+        final AdmService service = ADM.newServiceBuilder().transport(transport).build();
+
+        try {
+            service.sendMessageToDevice("device", "id", "secret", "{}");
+            fail("expected an AdmException");
+        } catch (AdmException e) {
+            assertEquals(401, e.getStatusCode());
+        } finally {
+            service.close();
+        }
+        assertEquals(3, transport.getTokenCount());
+    }
+
+    @Test
+    public void testCircuitBreakerFailsFast() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport().respond(500, "").respond(500, "");
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(2, 60000);
+        final AdmService service = ADM.newServiceBuilder().transport(transport)
+                .retryPolicy(RetryPolicy.NONE).circuitBreaker(circuitBreaker).build();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                service.sendMessageToDevice("device", "id", "secret", "{}");
+                fail("expected an AdmException");
+            } catch (AdmException e) {
+                assertEquals(500, e.getStatusCode());
+            }
+        }
+        try {
+            service.sendMessageToDevice("device", "id", "secret", "{}");
+            fail("expected a CircuitOpenException");
+        } catch (CircuitOpenException e) {
+            assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        } finally {
+            service.close();
+        }
+        assertEquals(3, transport.getRequests().size());
+    }
+
+    @Test
+    public void testSendCompiledPayload() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport();
+        final AdmService service = ADM.newServiceBuilder().transport(transport).build();
+        final CompiledPayload template = ADM.newPayload().templateField("greeting").compile();
+
+        final MulticastResult result = service.sendMessageToDevices(Arrays.asList("first", "second"), "id", "secret", template.with("greeting", "hello"));
+        assertEquals(2, result.getSuccessCount());
+        assertEquals("canonical", service.sendMessageToDeviceAsync("canonical", "id", "secret", template.with("greeting", "hi")).get());
+        service.close();
+
+        for (StubHttpTransport.Request request : transport.getRequests()) {
+            if (request.getUrl().getPath().startsWith("/messaging")) {
+                assertTrue(request.getBody().matches("\\{\"data\":\\{\"greeting\":\"h(ello|i)\"}}"));
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import org.jboss.aerogear.adm.transport.StubHttpTransport;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AdmTenantRegistryTest {
+
+    @Test
+    public void testTenantsKeepTheirTokens() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport();
+        final AdmService service = ADM.newServiceBuilder().transport(transport).build();
+        final AdmTenantRegistry registry = new AdmTenantRegistry(service);
+        assertNull(registry.register("first", new AdmCredentials("first-id", "first-secret")));
+        registry.register("second", new AdmCredentials("second-id", "second-secret"));
+
+        for (int i = 0; i < 5; i++) {
+            registry.sendMessageToDevice("first", "device", "{}");
+            registry.sendMessageToDeviceAsync("second", "device", CompiledPayload.of("{}")).get();
+        }
+        // every tenant fetched a single token and kept using it
+        assertEquals(2, transport.getTokenCount());
+        final Set<String> authorizations = new HashSet<String>();
+        for (StubHttpTransport.Request request : transport.getRequests()) {
+            if (request.getUrl().getPath().startsWith("/messaging")) {
+                authorizations.add(request.getHeaders().get("Authorization"));
+            }
+        }
+        assertEquals(2, authorizations.size());
+
+        // the token of a removed tenant is dropped
+        assertEquals("first-id", registry.unregister("first").getClientId());
+        registry.register("first", new AdmCredentials("first-id", "first-secret"));
+        registry.sendMessageToDevice("first", "device", "{}");
+        assertEquals(3, transport.getTokenCount());
+        service.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownTenant() throws Exception {
+        final AdmService service = new AdmService();
+        try {
+            new AdmTenantRegistry(service).sendMessageToDevice("unknown", "device", "{}");
+        } finally {
+            service.close();
+        }
+    }
+}
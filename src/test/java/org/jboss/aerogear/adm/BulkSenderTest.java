@@ -0,0 +1,215 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import org.jboss.aerogear.adm.internal.Utilities;
+import org.jboss.aerogear.adm.transport.StubHttpTransport;
+import org.jboss.aerogear.adm.transport.TransportResponse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkSenderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSendIterator() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport().respond(400, "{\"reason\":\"InvalidRegistrationId\"}");
+        final AdmService service = ADM.newServiceBuilder().transport(transport).maxInFlightRequests(4).build();
+        final AtomicInteger failures = new AtomicInteger();
+        final File checkpoint = new File(folder.getRoot(), "campaign.checkpoint");
+        final BulkSender sender = BulkSender.newBuilder(service)
+                .credentials("id", "secret")
+                .checkpoint(checkpoint)
+                .checkpointInterval(10)
+                .listener(new BulkSendListener() {
+                    @Override
+                    public void onResult(final SendResult result) {
+                        if (!result.isSuccess()) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                })
+                .build();
+
+        final BulkSendResult result = sender.send(registrationIds(100).iterator(), CompiledPayload.of("{}"));
+        assertEquals(0, result.getSkippedCount());
+        assertEquals(99, result.getSuccessCount());
+        assertEquals(1, result.getFailureCount());
+        assertEquals(1, failures.get());
+        assertTrue(result.isComplete());
+        // a completed campaign removes its checkpoint, the next one starts from the beginning
+        assertFalse(checkpoint.exists());
+
+        assertEquals(0, sender.send(registrationIds(100).stream(), CompiledPayload.of("{}")).getSkippedCount());
+        service.close();
+        assertEquals(201, transport.getRequests().size());
+    }
+
+    @Test
+    public void testResumeFromFile() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport();
+        final AdmService service = ADM.newServiceBuilder().transport(transport).build();
+        final File checkpoint = folder.newFile("campaign.checkpoint");
+        Files.write(checkpoint.toPath(), "60".getBytes(Utilities.UTF_8_CHARSET));
+        final File devices = folder.newFile("devices.txt");
+        final List<String> lines = registrationIds(100);
+        lines.add(50, "");
+        Files.write(devices.toPath(), lines, Utilities.UTF_8_CHARSET);
+
+        final BulkSendResult result = BulkSender.newBuilder(service)
+                .credentials("id", "secret")
+                .checkpoint(checkpoint)
+                .build()
+                .send(devices, CompiledPayload.of("{}"));
+        service.close();
+
+        assertEquals(60, result.getSkippedCount());
+        assertEquals(40, result.getSuccessCount());
+        assertFalse(checkpoint.exists());
+        // one token request and the messages to the devices after the checkpoint
+        assertEquals(41, transport.getRequests().size());
+        for (StubHttpTransport.Request request : transport.getRequests().subList(1, 41)) {
+            final String path = request.getUrl().getPath();
+            assertEquals(true, Integer.parseInt(path.replaceAll("\\D", "")) >= 60);
+        }
+    }
+
+    @Test
+    public void testStopOnTransientFailure() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport();
+        for (int i = 0; i < 5; i++) {
+            transport.respond(200, "{}");
+        }
+        transport.respond(503, "");
+        final AdmService service = ADM.newServiceBuilder().transport(transport)
+                .retryPolicy(RetryPolicy.NONE)
+                .maxInFlightRequests(1)
+                .build();
+        final File checkpoint = new File(folder.getRoot(), "outage.checkpoint");
+        final BulkSender sender = BulkSender.newBuilder(service)
+                .credentials("id", "secret")
+                .checkpoint(checkpoint)
+                .build();
+
+        final BulkSendResult stopped = sender.send(registrationIds(100).iterator(), CompiledPayload.of("{}"));
+        assertFalse(stopped.isComplete());
+        assertEquals(503, ((AdmException) stopped.getStopCause()).getStatusCode());
+        assertEquals(1, stopped.getFailureCount());
+        // the failed device is the first one sent again
+        assertEquals("5", read(checkpoint));
+
+        final BulkSendResult resumed = sender.send(registrationIds(100).iterator(), CompiledPayload.of("{}"));
+        service.close();
+        assertTrue(resumed.isComplete());
+        assertEquals(5, resumed.getSkippedCount());
+        assertEquals(95, resumed.getSuccessCount());
+        assertFalse(checkpoint.exists());
+    }
+
+    @Test
+    public void testStopOnRejectedCredentials() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport() {
+            @Override
+            public TransportResponse post(final URL url, final Map<String, String> headers, final byte[] body) {
+                if (url.getPath().equals("/auth/O2/token")) {
+                    return new TransportResponse(401, Collections.<String, String>emptyMap(),
+                            "{\"error\":\"invalid_client\"}".getBytes(Utilities.UTF_8_CHARSET));
+                }
+                return super.post(url, headers, body);
+            }
+        };
+        final AdmService service = ADM.newServiceBuilder().transport(transport)
+                .retryPolicy(RetryPolicy.NONE)
+                .maxInFlightRequests(1)
+                .build();
+        final File checkpoint = new File(folder.getRoot(), "credentials.checkpoint");
+
+        final BulkSendResult result = BulkSender.newBuilder(service)
+                .credentials("id", "revoked")
+                .checkpoint(checkpoint)
+                .build()
+                .send(registrationIds(100).iterator(), CompiledPayload.of("{}"));
+        service.close();
+
+        assertFalse(result.isComplete());
+        assertEquals(401, ((AdmException) result.getStopCause()).getStatusCode());
+        assertEquals(0, result.getSuccessCount());
+        // the campaign is kept from its first device on
+        assertEquals("0", read(checkpoint));
+    }
+
+    @Test
+    public void testStopOnRejectedRequest() throws Exception {
+        assertStopsAt(401, "{\"reason\":\"AccessTokenExpired\"}");
+        assertStopsAt(400, "{\"reason\":\"InvalidData\"}");
+        assertStopsAt(413, "{\"reason\":\"MessageTooLarge\"}");
+    }
+
+    private void assertStopsAt(final int statusCode, final String body) throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport();
+        for (int i = 0; i < 3; i++) {
+            transport.respond(200, "{}");
+        }
+        transport.respond(statusCode, body);
+        final AdmService service = ADM.newServiceBuilder().transport(transport)
+                .retryPolicy(RetryPolicy.NONE)
+                .maxInFlightRequests(1)
+                .build();
+        final File checkpoint = new File(folder.getRoot(), statusCode + ".checkpoint");
+
+        final BulkSendResult result = BulkSender.newBuilder(service)
+                .credentials("id", "secret")
+                .checkpoint(checkpoint)
+                .build()
+                .send(registrationIds(100).iterator(), CompiledPayload.of("{}"));
+        service.close();
+
+        assertFalse(result.isComplete());
+        assertEquals(statusCode, ((AdmException) result.getStopCause()).getStatusCode());
+        // a message already waiting for the request slot may still be sent, the checkpoint stays at the failed device
+        assertEquals("3", read(checkpoint));
+    }
+
+    private static List<String> registrationIds(final int count) {
+        final List<String> registrationIds = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            registrationIds.add("device" + i);
+        }
+        return registrationIds;
+    }
+
+    private static String read(final File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), Utilities.UTF_8_CHARSET);
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jboss.aerogear.adm.internal.Utilities;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HedgedSenderTest {
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private AdmService service;
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0);
+    private final AtomicInteger messages = new AtomicInteger();
+    // the message request answered after 5 seconds, all others are answered right away
+    private volatile int slowMessage = 1;
+
+    @Before
+    public void start() throws IOException {
+        serverThreads = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(serverThreads);
+        server.createContext(Utilities.TOKEN_PATH, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                respond(exchange, "{\"access_token\":\"token\",\"expires_in\":3600}");
+            }
+        });
+        server.createContext("/messaging/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                if (messages.incrementAndGet() == slowMessage) {
+                    try {
+                        Thread.sleep(5000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                respond(exchange, "{\"registrationID\":\"device\"}");
+            }
+        });
+        server.start();
+        service = ADM.newServiceBuilder()
+                .endpoint("http://localhost:" + server.getAddress().getPort())
+                .retryPolicy(RetryPolicy.NONE)
+                .circuitBreaker(circuitBreaker)
+                .build();
+    }
+
+    @After
+    public void stop() throws IOException {
+        service.close();
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Test
+    public void testHedgeWins() throws Exception {
+        final HedgedSender sender = HedgedSender.newBuilder(service).initialDelay(50).build();
+        final CompiledPayload payload = ADM.newPayload().dataField("score", "1:0").consolidationKey("score").compile();
+
+        final long started = System.nanoTime();
+        assertEquals("device", sender.send("device", "id", "secret", payload).get());
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(2, messages.get());
+        assertEquals(1, sender.getHedgeCount());
+        assertEquals(1, sender.getHedgeWinCount());
+        sender.close();
+    }
+
+    @Test
+    public void testFastResponseNotHedged() throws Exception {
+        slowMessage = 0;
+        final HedgedSender sender = HedgedSender.newBuilder(service).initialDelay(1000).build();
+        final CompiledPayload payload = ADM.newPayload().dataField("score", "1:0").consolidationKey("score").compile();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("device", sender.send("device", "id", "secret", payload).get());
+        }
+        assertEquals(10, messages.get());
+        assertEquals(0, sender.getHedgeCount());
+        assertEquals(10, sender.getResponseTime().getCount());
+        sender.close();
+    }
+
+    @Test
+    public void testTimeoutWithoutConsolidationKey() throws Exception {
+        final HedgedSender sender = HedgedSender.newBuilder(service).initialDelay(10).timeout(200).build();
+
+        final long started = System.nanoTime();
+        try {
+            sender.send("device", "id", "secret", ADM.newPayload().dataField("score", "1:0").compile()).get();
+            fail("TimeoutException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(2));
+        // without a consolidation key the message is never sent twice
+        Thread.sleep(100);
+        assertEquals(1, messages.get());
+        assertEquals(0, sender.getHedgeCount());
+        sender.close();
+    }
+
+    @Test
+    public void testTimeoutReleasesCircuitTrial() throws Exception {
+        final HedgedSender sender = HedgedSender.newBuilder(service).timeout(300).build();
+        final CompiledPayload payload = ADM.newPayload().dataField("score", "1:0").compile();
+        circuitBreaker.onFailure();
+
+        // the timed out request is the trial of the open circuit
+        try {
+            sender.send("device", "id", "secret", payload).get();
+            fail("TimeoutException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (circuitBreaker.getState() == CircuitBreaker.State.HALF_OPEN && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        // the next message becomes the trial and closes the circuit
+        assertEquals("device", sender.send("device", "id", "secret", payload).get());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        sender.close();
+    }
+
+    private static void respond(final HttpExchange exchange, final String body) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        final byte[] bytes = body.getBytes(Utilities.UTF_8_CHARSET);
+        exchange.sendResponseHeaders(200, bytes.length);
+        final OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
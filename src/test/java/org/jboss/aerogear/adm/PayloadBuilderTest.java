@@ -18,9 +18,14 @@
 package org.jboss.aerogear.adm;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jboss.aerogear.adm.internal.Utilities;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.*;
@@ -76,6 +81,133 @@ public class PayloadBuilderTest {
         assertEqualsJson(expected, actual);
     }
 
+    @Test
+    public void testCompile() {
+        final PayloadBuilder builder = ADM.newPayload();
+        builder.consolidationKey("SyncNow").expiresAfter(86400).dataField("custom", "custom");
+
+        final CompiledPayload compiled = builder.compile();
+        assertTrue(compiled.isComplete());
+        assertEqualsJson(builder.build(), compiled.toString());
+        assertEqualsJson(builder.build(), new String(compiled.getBytes(), Utilities.UTF_8_CHARSET));
+    }
+
+    @Test
+    public void testTemplateFields() {
+        final CompiledPayload template = ADM.newPayload()
+                .dataField("custom", "custom")
+                .templateField("name")
+                .templateField("score")
+                .compile();
+        assertEquals(Arrays.asList("name", "score"), sorted(template.getTemplateFields()));
+
+        final CompiledPayload partial = template.with("name", "Bob \"the\" builder\n");
+        assertEquals(Collections.singletonList("score"), partial.getTemplateFields());
+
+        final CompiledPayload message = partial.with("score", "3:1");
+        final String expected = "{\"data\":{\"custom\":\"custom\",\"name\":\"Bob \\\"the\\\" builder\\n\",\"score\":\"3:1\"}}";
+        assertEqualsJson(expected, message.toString());
+
+        final Map<String, String> values = new HashMap<String, String>();
+        values.put("name", "Alice");
+        values.put("score", "0:0");
+        assertEqualsJson("{\"data\":{\"custom\":\"custom\",\"name\":\"Alice\",\"score\":\"0:0\"}}", template.with(values).toString());
+    }
+
+    @Test
+    public void testComputeMd5() throws Exception {
+        final PayloadBuilder builder = ADM.newPayload().dataField("name", "Bob").dataField("custom", "value").computeMd5();
+
+        // base64(md5("custom:value,name:Bob"))
+        final CompiledPayload compiled = builder.compile();
+        assertEquals("LdV5hODWhcBcmjJ8Yj9vPg==", compiled.getMd5());
+        assertEquals("LdV5hODWhcBcmjJ8Yj9vPg==", new ObjectMapper().readTree(compiled.toString()).get("md5").asText());
+        assertEquals("LdV5hODWhcBcmjJ8Yj9vPg==", new ObjectMapper().readTree(builder.build()).get("md5").asText());
+        assertNull(ADM.newPayload().compile().getMd5());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testComputeMd5WithTemplateFields() {
+        ADM.newPayload().templateField("name").computeMd5().compile();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @SuppressWarnings("deprecation")
+    public void testNonStringValue() {
+        // rejected where it is added, not only once the payload is built
+        ADM.newPayload().dataField("count", 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullValue() {
+        ADM.newPayload().dataField("name", (String) null);
+    }
+
+    @Test
+    public void testToStringDoesNotValidate() {
+        final char[] value = new char[PayloadBuilder.MAX_DATA_SIZE];
+        Arrays.fill(value, 'x');
+        final PayloadBuilder builder = ADM.newPayload().dataField("k", new String(value));
+
+        assertTrue(builder.toString().contains(new String(value)));
+    }
+
+    @Test
+    public void testDataSizeLimit() {
+        final char[] value = new char[PayloadBuilder.MAX_DATA_SIZE / 2 - 1];
+        Arrays.fill(value, '\u00e9');
+        // two bytes per character in UTF-8, just fitting with the key
+        final CompiledPayload template = ADM.newPayload().dataField("k", new String(value)).templateField("n").compile();
+        template.with("n", "");
+        try {
+            template.with("n", "x");
+            fail("expected the bound payload to exceed the limit");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(String.valueOf(PayloadBuilder.MAX_DATA_SIZE + 1)));
+        }
+        try {
+            ADM.newPayload().dataField("k", new String(value) + "ee").build();
+            fail("expected the payload to exceed the limit");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(String.valueOf(PayloadBuilder.MAX_DATA_SIZE)));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnboundTemplateField() {
+        ADM.newPayload().templateField("name").compile().getBytes();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownTemplateField() {
+        ADM.newPayload().templateField("name").compile().with("other", "value");
+    }
+
+    @Test
+    public void testNullTemplateValue() {
+        final CompiledPayload template = ADM.newPayload().templateField("name").templateField("city").compile();
+        try {
+            template.with("name", null);
+            fail("expected null to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("name"));
+        }
+        final Map<String, String> values = new HashMap<String, String>();
+        values.put("name", "Jane");
+        values.put("city", null);
+        try {
+            template.with(values);
+            fail("expected null to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("city"));
+        }
+    }
+
+    private static List<String> sorted(final List<String> values) {
+        final List<String> sorted = new ArrayList<String>(values);
+        Collections.sort(sorted);
+        return sorted;
+    }
 
     private void assertEqualsJson(final String expected, final String actual) {
         final ObjectMapper mapper = new ObjectMapper();
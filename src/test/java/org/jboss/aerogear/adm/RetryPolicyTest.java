@@ -0,0 +1,43 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testBackoff() {
+        final RetryPolicy policy = new RetryPolicy(4, 100, 300, 2, 0.5);
+
+        assertTrue(policy.canRetry(3));
+        assertFalse(policy.canRetry(4));
+        for (int i = 0; i < 100; i++) {
+            assertBetween(50, 100, policy.getBackoff(1));
+            assertBetween(100, 200, policy.getBackoff(2));
+            assertBetween(150, 300, policy.getBackoff(3));
+        }
+    }
+
+    private static void assertBetween(final long min, final long max, final long actual) {
+        assertTrue(actual + " not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class TokenServiceTest {
+
+    @Test
+    public void testTokenIsCachedPerClientId() throws Exception {
+        final CountingTokenService tokenService = new CountingTokenService(3600, 0);
+
+        assertEquals("first-token-1", tokenService.getAuthToken("first", "secret"));
+        assertEquals("first-token-1", tokenService.getAuthToken("first", "secret"));
+        assertEquals("second-token-2", tokenService.getAuthToken("second", "secret"));
+        assertEquals(2, tokenService.fetches.get());
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneFetch() throws Exception {
+        final CountingTokenService tokenService = new CountingTokenService(3600, 200);
+        final ExecutorService executor = Executors.newFixedThreadPool(16);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final List<Future<String>> tokens = new ArrayList<Future<String>>();
+        for (int i = 0; i < 16; i++) {
+            tokens.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    start.await();
+                    return tokenService.getAuthToken("client", "secret");
+                }
+            }));
+        }
+        start.countDown();
+
+        for (Future<String> token : tokens) {
+            assertEquals("client-token-1", token.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, tokenService.fetches.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testInvalidateOnlyDropsRejectedToken() throws Exception {
+        final CountingTokenService tokenService = new CountingTokenService(3600, 0);
+        final String rejected = tokenService.getAuthToken("client", "secret");
+
+        tokenService.invalidateAuthToken("client", "some-older-token");
+        assertEquals(rejected, tokenService.getAuthToken("client", "secret"));
+
+        tokenService.invalidateAuthToken("client", rejected);
+        assertNotEquals(rejected, tokenService.getAuthToken("client", "secret"));
+        assertEquals(2, tokenService.fetches.get());
+    }
+
+    @Test
+    public void testTokenIsRefreshedAheadOfExpiry() throws Exception {
+        final CountingTokenService tokenService = new CountingTokenService(2, 0);
+        assertEquals("client-token-1", tokenService.getAuthToken("client", "secret"));
+
+        // three quarters of the lifetime are over, the current token is still handed out
+        Thread.sleep(1600);
+        assertEquals("client-token-1", tokenService.getAuthToken("client", "secret"));
+
+        Thread.sleep(200);
+        assertEquals("client-token-2", tokenService.getAuthToken("client", "secret"));
+        assertEquals(2, tokenService.fetches.get());
+    }
+
+    private static class CountingTokenService extends TokenService {
+
+        private final AtomicInteger fetches = new AtomicInteger();
+        private final long expiresIn;
+        private final long delay;
+
+        CountingTokenService(final long expiresIn, final long delay) {
+            this.expiresIn = expiresIn;
+            this.delay = delay;
+        }
+
+        @Override
+        protected AccessToken fetchAccessToken(String clientId, String clientSecret) throws Exception {
+            Thread.sleep(delay);
+            return new AccessToken(clientId + "-token-" + fetches.incrementAndGet(), expiresIn);
+        }
+    }
+}
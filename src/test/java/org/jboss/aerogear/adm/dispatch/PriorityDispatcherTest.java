@@ -0,0 +1,127 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.dispatch;
+
+import org.jboss.aerogear.adm.AdmException;
+import org.jboss.aerogear.adm.AdmService;
+import org.jboss.aerogear.adm.CompiledPayload;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PriorityDispatcherTest {
+
+    @Test
+    public void testWeightedFairOrder() throws Exception {
+        final CountDownLatch taken = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final AdmService service = new AdmService() {
+            @Override
+            public String sendMessageToDevice(String registrationId, String clientId, String clientSecret, CompiledPayload payload) throws Exception {
+                if ("gate".equals(registrationId)) {
+                    // hold the only worker until all lanes are filled
+                    taken.countDown();
+                    release.await();
+                }
+                order.add(registrationId);
+                return registrationId;
+            }
+        };
+        final PriorityDispatcher dispatcher = PriorityDispatcher.newBuilder(service)
+                .lane("urgent", 3)
+                .lane("bulk", 1)
+                .workers(1)
+                .build();
+
+        dispatcher.submit("bulk", "gate", "id", "secret", "{}");
+        assertTrue(taken.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 6; i++) {
+            dispatcher.submit("bulk", "bulk" + i, "id", "secret", "{}");
+        }
+        CompletableFuture<String> last = null;
+        for (int i = 0; i < 6; i++) {
+            last = dispatcher.submit("urgent", "urgent" + i, "id", "secret", "{}");
+        }
+        assertEquals(6, dispatcher.getLane("urgent").getQueueDepth());
+        release.countDown();
+        assertEquals("urgent5", last.get(5, TimeUnit.SECONDS));
+        dispatcher.close();
+
+        // three urgent messages for every bulk message while both lanes are busy, then the rest of the bulk lane
+        assertEquals(Arrays.asList("gate",
+                "urgent0", "urgent1", "bulk0", "urgent2",
+                "urgent3", "urgent4", "bulk1", "urgent5",
+                "bulk2", "bulk3", "bulk4", "bulk5"), order);
+        service.close();
+    }
+
+    @Test
+    public void testLaneMetrics() throws Exception {
+        final AdmService service = new AdmService() {
+            @Override
+            public String sendMessageToDevice(String registrationId, String clientId, String clientSecret, CompiledPayload payload) {
+                if ("bad".equals(registrationId)) {
+                    throw new AdmException(400, "{\"reason\":\"InvalidRegistrationId\"}");
+                }
+                return registrationId;
+            }
+        };
+        final PriorityDispatcher dispatcher = PriorityDispatcher.newBuilder(service).lane("default", 1).build();
+
+        assertEquals("good", dispatcher.submit("default", "good", "id", "secret", "{}").get(5, TimeUnit.SECONDS));
+        try {
+            dispatcher.submit("default", "bad", "id", "secret", "{}").get(5, TimeUnit.SECONDS);
+            fail("the message should have been rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AdmException);
+        }
+        dispatcher.close();
+
+        final Lane lane = dispatcher.getLane("default");
+        assertEquals(1, lane.getSentCount());
+        assertEquals(1, lane.getFailedCount());
+        assertEquals(0, lane.getQueueDepth());
+        assertEquals(2, lane.getQueueTime().getCount());
+        assertEquals(2, lane.getSendTime().getCount());
+        service.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownLane() throws Exception {
+        final AdmService service = new AdmService();
+        final PriorityDispatcher dispatcher = PriorityDispatcher.newBuilder(service).lane("default", 1).build();
+        try {
+            dispatcher.submit("other", "device", "id", "secret", "{}");
+        } finally {
+            dispatcher.close();
+            service.close();
+        }
+    }
+}
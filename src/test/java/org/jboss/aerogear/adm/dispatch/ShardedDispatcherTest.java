@@ -0,0 +1,181 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.dispatch;
+
+import org.jboss.aerogear.adm.AdmService;
+import org.jboss.aerogear.adm.CompiledPayload;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedDispatcherTest {
+
+    @Test
+    public void testOrderPerDevice() throws Exception {
+        final Map<String, List<String>> received = new ConcurrentHashMap<String, List<String>>();
+        final Random random = new Random(42);
+        final AdmService service = new AdmService() {
+            @Override
+            public String sendMessageToDevice(String registrationId, String clientId, String clientSecret, CompiledPayload payload) throws Exception {
+                // uneven send times would reorder the messages of a device if they were sent concurrently
+                Thread.sleep(random.nextInt(3));
+                List<String> messages = received.get(registrationId);
+                if (messages == null) {
+                    received.putIfAbsent(registrationId, new CopyOnWriteArrayList<String>());
+                    messages = received.get(registrationId);
+                }
+                messages.add(payload.toString());
+                return registrationId;
+            }
+        };
+        final ShardedDispatcher dispatcher = ShardedDispatcher.newBuilder(service).shards(4).shardCapacity(8).build();
+
+        for (int i = 0; i < 20; i++) {
+            for (int device = 0; device < 10; device++) {
+                dispatcher.submit("device" + device, "id", "secret", String.valueOf(i));
+            }
+        }
+        dispatcher.close();
+
+        final List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(String.valueOf(i));
+        }
+        assertEquals(10, received.size());
+        for (List<String> messages : received.values()) {
+            assertEquals(expected, messages);
+        }
+        assertEquals(0, dispatcher.getQueueDepth());
+        service.close();
+    }
+
+    @Test
+    public void testCanonicalIdKeepsShard() throws Exception {
+        final AdmService service = new AdmService() {
+            @Override
+            public String sendMessageToDevice(String registrationId, String clientId, String clientSecret, CompiledPayload payload) {
+                return registrationId.startsWith("old") ? "new" + registrationId.substring(3) : registrationId;
+            }
+        };
+        final ShardedDispatcher dispatcher = ShardedDispatcher.newBuilder(service).shards(64).build();
+
+        for (int i = 0; i < 10; i++) {
+            final String canonical = dispatcher.submit("old" + i, "id", "secret", "{}").get(5, TimeUnit.SECONDS);
+            assertEquals("new" + i, canonical);
+            assertEquals(dispatcher.shardOf("old" + i), dispatcher.shardOf(canonical));
+        }
+        dispatcher.close();
+        service.close();
+    }
+
+    @Test
+    public void testPinIsReleased() throws Exception {
+        final AdmService service = new AdmService() {
+            @Override
+            public String sendMessageToDevice(String registrationId, String clientId, String clientSecret, CompiledPayload payload) {
+                return registrationId.startsWith("old") ? "new" + registrationId.substring(3) : registrationId;
+            }
+        };
+        final ShardedDispatcher dispatcher = ShardedDispatcher.newBuilder(service).shards(2).shardCapacity(2).build();
+
+        // the first id which hashes to another shard than its canonical id is pinned
+        int i = 0;
+        while (dispatcher.getPinned() == 0) {
+            dispatcher.submit("old" + ++i, "id", "secret", "{}").get(5, TimeUnit.SECONDS);
+        }
+        final int pinned = dispatcher.shardOf("new" + i);
+        assertEquals(dispatcher.shardOf("old" + i), pinned);
+        dispatcher.submit("new" + i, "id", "secret", "{}").get(5, TimeUnit.SECONDS);
+        assertEquals(0, dispatcher.getPinned());
+        assertTrue(dispatcher.shardOf("new" + i) != pinned);
+
+        // unused pins are dropped beyond one per message the shards can hold or send
+        for (int j = 0; j < 50; j++) {
+            dispatcher.submit("old" + j, "id", "secret", "{}").get(5, TimeUnit.SECONDS);
+            assertTrue(dispatcher.getPinned() <= 6);
+        }
+        dispatcher.close();
+        service.close();
+    }
+
+    @Test
+    public void testBusyPinIsKept() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final AdmService service = new AdmService() {
+            @Override
+            public String sendMessageToDevice(String registrationId, String clientId, String clientSecret, CompiledPayload payload) throws Exception {
+                if (registrationId.startsWith("block")) {
+                    blocked.await();
+                }
+                return registrationId.startsWith("old") ? "new" + registrationId.substring(3) : registrationId;
+            }
+        };
+        final ShardedDispatcher dispatcher = ShardedDispatcher.newBuilder(service).shards(2).shardCapacity(2).build();
+
+        int i = 0;
+        while (dispatcher.getPinned() == 0) {
+            dispatcher.submit("old" + ++i, "id", "secret", "{}").get(5, TimeUnit.SECONDS);
+        }
+        final String busy = "new" + i;
+        final int pinned = dispatcher.shardOf(busy);
+        int b = 0;
+        while (dispatcher.shardOf("block" + b) != pinned) {
+            b++;
+        }
+        // the eldest pin stays busy behind a blocked message
+        final CompletableFuture<String> blocking = dispatcher.submit("block" + b, "id", "secret", "{}");
+        final CompletableFuture<String> queued = dispatcher.submit(busy, "id", "secret", "{}");
+
+        for (int j = 1000; j < 1100; j++) {
+            if (dispatcher.shardOf("old" + j) != pinned) {
+                dispatcher.submit("old" + j, "id", "secret", "{}").get(5, TimeUnit.SECONDS);
+                assertTrue(dispatcher.getPinned() <= 6);
+            }
+        }
+        assertEquals(pinned, dispatcher.shardOf(busy));
+
+        blocked.countDown();
+        blocking.get(5, TimeUnit.SECONDS);
+        queued.get(5, TimeUnit.SECONDS);
+        dispatcher.close();
+        service.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSubmitAfterClose() throws Exception {
+        final AdmService service = new AdmService();
+        final ShardedDispatcher dispatcher = ShardedDispatcher.newBuilder(service).build();
+        dispatcher.close();
+        try {
+            dispatcher.submit("device", "id", "secret", "{}");
+        } finally {
+            service.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.feedback;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FeedbackStoreTest {
+
+    @Test
+    public void testBatches() throws Exception {
+        final List<List<Feedback>> batches = Collections.synchronizedList(new ArrayList<List<Feedback>>());
+        final FeedbackStore store = FeedbackStore.newBuilder()
+                .listener(new FeedbackListener() {
+                    @Override
+                    public void onFeedback(final List<Feedback> batch) {
+                        batches.add(batch);
+                    }
+                })
+                .batchSize(2)
+                .flushInterval(60000)
+                .build();
+
+        store.onCanonicalId("a", "b");
+        store.onCanonicalId("b", "c");
+        store.onCanonicalId("b", "c");
+        store.onUnregistered("d", "Unregistered");
+        store.onUnregistered("d", "Unregistered");
+        store.onUnregistered("e", "InvalidRegistrationId");
+        store.close();
+
+        // repeated feedback is reported once, in batches of at most two entries
+        final List<Feedback> feedback = new ArrayList<Feedback>();
+        for (List<Feedback> batch : batches) {
+            assertTrue(batch.size() <= 2);
+            feedback.addAll(batch);
+        }
+        assertEquals(4, feedback.size());
+        assertEquals(Feedback.Type.CANONICAL_ID, feedback.get(0).getType());
+        assertEquals("c", feedback.get(1).getCanonicalRegistrationId());
+        assertEquals("Unregistered", feedback.get(2).getReason());
+        assertEquals("e", feedback.get(3).getRegistrationId());
+        assertEquals(0, store.getPendingCount());
+
+        assertEquals("c", store.resolve("a"));
+        assertEquals("x", store.resolve("x"));
+        assertTrue(store.isUnregistered("d"));
+        store.forget("d");
+        assertFalse(store.isUnregistered("d"));
+    }
+
+    @Test
+    public void testRepository() throws Exception {
+        final List<Feedback> saved = new ArrayList<Feedback>();
+        final FeedbackRepository repository = new FeedbackRepository() {
+            private boolean failing = true;
+
+            @Override
+            public Collection<Feedback> load() {
+                return Arrays.asList(Feedback.canonicalId("old", "new", 1), Feedback.unregistered("gone", "Unregistered", 2));
+            }
+
+            @Override
+            public void save(final List<Feedback> batch) throws IOException {
+                if (failing) {
+                    failing = false;
+                    throw new IOException("unavailable");
+                }
+                saved.addAll(batch);
+            }
+        };
+        final FeedbackStore store = FeedbackStore.newBuilder().repository(repository).flushInterval(60000).build();
+
+        assertEquals("new", store.resolve("old"));
+        assertEquals("Unregistered", store.getUnregisteredReason("gone"));
+        assertNull(store.getUnregisteredReason("new"));
+
+        store.onUnregistered("new", "Unregistered");
+        try {
+            store.flush();
+            fail("expected the repository to fail");
+        } catch (IOException e) {
+            assertEquals(1, store.getPendingCount());
+        }
+        store.close();
+
+        assertEquals(1, saved.size());
+        assertEquals("new", saved.get(0).getRegistrationId());
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.internal;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class JsonFieldExtractorTest {
+
+    @Test
+    public void testTokenResponse() throws Exception {
+        final String json = "{\"access_token\":\"Atc|MQEWYJxEnP3I1ND03ZzbY_NxQkA7Kn7Aioev_OfMRcyVQ4NxGzJMEaKJ8f0lSOiV-yW270o6fnkI\",\n"
+                + " \"expires_in\" : 3600, \"scope\":\"messaging:push\",\"token_type\":\"Bearer\"}";
+
+        assertArrayEquals(new String[] {"Atc|MQEWYJxEnP3I1ND03ZzbY_NxQkA7Kn7Aioev_OfMRcyVQ4NxGzJMEaKJ8f0lSOiV-yW270o6fnkI", "3600"},
+                JsonFieldExtractor.extract(json.getBytes(Utilities.UTF_8_CHARSET), "access_token", "expires_in"));
+    }
+
+    @Test
+    public void testSkipsNestedValuesAndMissingFields() {
+        final String json = "{\"nested\":{\"reason\":\"inner\",\"list\":[1,{\"a\":\"]}\"}]},\"flag\":true,\"empty\":null,\"reason\":\"Unregistered\"}";
+
+        assertArrayEquals(new String[] {"Unregistered", "true", null, null, null},
+                JsonFieldExtractor.extract(json.getBytes(Utilities.UTF_8_CHARSET), "reason", "flag", "empty", "nested", "missing"));
+    }
+
+    @Test
+    public void testEscapes() {
+        final String json = "{\"registrationID\":\"a\\\"b\\\\c\\/d\\n\\u00e9\\ud83d\\ude00ü\"}";
+
+        assertEquals("a\"b\\c/d\né😀ü", JsonFieldExtractor.extract(json.getBytes(Utilities.UTF_8_CHARSET), "registrationID")[0]);
+    }
+
+    @Test
+    public void testLiterals() {
+        final String json = "{\"a\":-1.5e+3,\"b\":0,\"c\":false,\"d\":null,\"e\":12}";
+
+        assertArrayEquals(new String[] {"-1.5e+3", "0", "false", null, "12"},
+                JsonFieldExtractor.extract(json.getBytes(Utilities.UTF_8_CHARSET), "a", "b", "c", "d", "e"));
+    }
+
+    @Test
+    public void testMissingOrInvalidValues() {
+        final String[] malformed = {
+            "{\"registrationID\":",
+            "{\"registrationID\":}",
+            "{\"registrationID\":,\"reason\":\"x\"}",
+            "{\"registrationID\":]}",
+            "{\"registrationID\"::1}",
+            "{\"registrationID\":nope}",
+            "{\"registrationID\":01}",
+            "{\"registrationID\":1.}",
+            "{\"registrationID\":-}",
+            // skipped values are checked as well
+            "{\"other\":tru,\"registrationID\":\"x\"}",
+        };
+        for (String json : malformed) {
+            try {
+                JsonFieldExtractor.extract(json.getBytes(Utilities.UTF_8_CHARSET), "registrationID");
+                fail("expected " + json + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testLoneSurrogates() {
+        // lone high surrogates before another escape, before a pair and at the end, and a lone low surrogate
+        final String json = "{\"registrationID\":\"\\ud800\\na\\ud800\\ud83d\\ude00b\\udc00c\\ud800\"}";
+
+        assertEquals("?\na?😀b?c?", JsonFieldExtractor.extract(json.getBytes(Utilities.UTF_8_CHARSET), "registrationID")[0]);
+    }
+
+    @Test
+    public void testValuesLargerThanBuffers() throws Exception {
+        final char[] id = new char[5000];
+        Arrays.fill(id, 'x');
+        final String json = "{\"padding\":\"" + new String(id) + "\",\"registrationID\":\"" + new String(id) + "\"}";
+
+        final InputStream in = new ByteArrayInputStream(json.getBytes(Utilities.UTF_8_CHARSET));
+        assertEquals(new String(id), JsonFieldExtractor.extract(in, "registrationID")[0]);
+    }
+
+    @Test
+    public void testEmptyObject() {
+        assertNull(JsonFieldExtractor.extract(" { } ".getBytes(Utilities.UTF_8_CHARSET), "reason")[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotAnObject() {
+        JsonFieldExtractor.extract("<html>Bad Gateway</html>".getBytes(Utilities.UTF_8_CHARSET), "reason");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncated() {
+        JsonFieldExtractor.extract("{\"reason\":\"Unreg".getBytes(Utilities.UTF_8_CHARSET), "reason");
+    }
+}
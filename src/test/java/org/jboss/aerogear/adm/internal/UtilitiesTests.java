@@ -19,6 +19,8 @@ package org.jboss.aerogear.adm.internal;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+
 import static org.junit.Assert.assertEquals;
 
 public class UtilitiesTests {
@@ -29,4 +31,25 @@ public class UtilitiesTests {
         String name = Utilities.getStringFromJson(jsonString, "name");
         assertEquals(name, "bob");
     }
+
+    @Test
+    public void testParseResponseKeepsNewlines() throws Exception {
+        final String body = "first line\nsecond line\n";
+        assertEquals(body, Utilities.parseResponse(new ByteArrayInputStream(body.getBytes(Utilities.UTF_8_CHARSET))));
+    }
+
+    @Test
+    public void testUtf8Length() {
+        for (String value : new String[] {"", "ascii", "caf\u00e9", "\u20ac", "\ud83d\ude00", "\ud83d"}) {
+            assertEquals(value, value.getBytes(Utilities.UTF_8_CHARSET).length, Utilities.utf8Length(value));
+        }
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        assertEquals(5000, Utilities.parseRetryAfter("5"));
+        assertEquals(-1, Utilities.parseRetryAfter(null));
+        assertEquals(-1, Utilities.parseRetryAfter("soon"));
+        assertEquals(0, Utilities.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
 }
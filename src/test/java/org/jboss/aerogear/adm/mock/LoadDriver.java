@@ -0,0 +1,134 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.mock;
+
+import org.jboss.aerogear.adm.ADM;
+import org.jboss.aerogear.adm.AdmService;
+import org.jboss.aerogear.adm.CompiledPayload;
+import org.jboss.aerogear.adm.RetryPolicy;
+import org.jboss.aerogear.adm.metrics.Histogram;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * Pushes an {@link AdmService} at a target rate and measures the throughput and latency it reaches. Messages
+ * are scheduled at fixed intervals regardless of how long earlier ones take, so a service falling behind shows up
+ * in the latencies instead of silently lowering the rate.
+ *
+ * Run {@link #main(String[])} to drive a service against a {@link MockAdmServer}.
+ */
+public final class LoadDriver {
+
+    private final AdmService service;
+    private final String clientId;
+    private final String clientSecret;
+    private final CompiledPayload payload;
+
+    /**
+     * @param service under load
+     * @param clientId unique ID supplied by ADM Services
+     * @param clientSecret secret value supplied by ADM services
+     * @param payload sent with every message
+     */
+    public LoadDriver(final AdmService service, final String clientId, final String clientSecret, final CompiledPayload payload) {
+        this.service = service;
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        this.payload = payload;
+    }
+
+    /**
+     * Sends messages at the given rate and waits until all of them completed.
+     *
+     * @param rate the target rate, in messages per second
+     * @param duration the time messages are sent for, in milliseconds
+     * @param devices the number of distinct registrationIds the messages are spread over
+     * @return the {@link LoadReport} of the run
+     * @throws InterruptedException if interrupted while sending or waiting
+     */
+    public LoadReport run(final double rate, final long duration, final int devices) throws InterruptedException {
+        final int messages = (int) (rate * duration / 1000);
+        final long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        final Histogram latency = new Histogram();
+        final LongAdder successes = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final CountDownLatch completed = new CountDownLatch(messages);
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            final long scheduled = start + i * interval;
+            long wait = scheduled - System.nanoTime();
+            while (wait > 0) {
+                LockSupport.parkNanos(wait);
+                wait = scheduled - System.nanoTime();
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            service.sendMessageToDeviceAsync("device-" + (i % devices), clientId, clientSecret, payload).whenComplete(new BiConsumer<String, Throwable>() {
+                @Override
+                public void accept(final String canonicalRegistrationId, final Throwable error) {
+                    latency.record(System.nanoTime() - scheduled);
+                    if (error == null) {
+                        successes.increment();
+                    } else {
+                        failures.increment();
+                    }
+                    completed.countDown();
+                }
+            });
+        }
+        completed.await();
+        return new LoadReport(successes.sum(), failures.sum(), System.nanoTime() - start, latency);
+    }
+
+    /**
+     * Drives a service against a local {@link MockAdmServer}.
+     *
+     * @param args the rate in messages per second, the duration in seconds, the maximum of in-flight requests
+     *             and the server latency in milliseconds, defaulting to {@code 2000 10 64 20}
+     * @throws Exception if the run fails
+     */
+    public static void main(final String[] args) throws Exception {
+        final double rate = args.length > 0 ? Double.parseDouble(args[0]) : 2000;
+        final long duration = TimeUnit.SECONDS.toMillis(args.length > 1 ? Long.parseLong(args[1]) : 10);
+        final int inFlight = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        final long serverLatency = args.length > 3 ? Long.parseLong(args[3]) : 20;
+
+        final MockAdmServer server = new MockAdmServer().latency(serverLatency / 2, serverLatency * 3 / 2);
+        final AdmService service = ADM.newServiceBuilder()
+                .endpoint(server.getEndpoint())
+                .maxInFlightRequests(inFlight)
+                .retryPolicy(RetryPolicy.NONE)
+                .build();
+        try {
+            final LoadDriver driver = new LoadDriver(service, "load", "secret", ADM.newPayload().dataField("load", "test").compile());
+            // let the connections and the JIT settle before measuring
+            driver.run(rate, Math.min(duration, 2000), 10000);
+            System.out.println(driver.run(rate, duration, 10000));
+        } finally {
+            service.close();
+            server.close();
+        }
+    }
+}
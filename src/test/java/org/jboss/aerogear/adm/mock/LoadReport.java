@@ -0,0 +1,83 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.mock;
+
+import org.jboss.aerogear.adm.metrics.Histogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a {@link LoadDriver} run. Latencies are measured from the moment a message was scheduled
+ * to be sent, so time spent waiting for a free request slot is part of them.
+ */
+public final class LoadReport {
+
+    private final long successCount;
+    private final long failureCount;
+    private final long elapsed;
+    private final Histogram latency;
+
+    LoadReport(final long successCount, final long failureCount, final long elapsed, final Histogram latency) {
+        this.successCount = successCount;
+        this.failureCount = failureCount;
+        this.elapsed = elapsed;
+        this.latency = latency;
+    }
+
+    /**
+     * @return the number of messages accepted
+     */
+    public long getSuccessCount() {
+        return successCount;
+    }
+
+    /**
+     * @return the number of messages which failed
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return the time from the first message until the last one completed, in nanoseconds
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return the completed messages per second
+     */
+    public double getThroughput() {
+        return (successCount + failureCount) * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(elapsed, 1);
+    }
+
+    /**
+     * @return the latencies of all messages, in nanoseconds
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d messages (%d failed) in %.1f s, %.0f msg/s, latency p50=%.2f ms p99=%.2f ms p999=%.2f ms max=%.2f ms",
+                successCount + failureCount, failureCount, elapsed / 1e9, getThroughput(),
+                latency.getPercentile(50) / 1e6, latency.getPercentile(99) / 1e6, latency.getPercentile(99.9) / 1e6, latency.getMax() / 1e6);
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.mock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jboss.aerogear.adm.internal.NamedThreadFactory;
+import org.jboss.aerogear.adm.internal.Utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An embedded ADM endpoint for tests and load tests, serving the token and message endpoints of
+ * {@link Utilities#TOKEN_PATH} and {@link Utilities#MESSAGES_PATH_TEMPLATE} over plain HTTP on the loopback interface.
+ * A service is pointed at it through {@link org.jboss.aerogear.adm.AdmServiceBuilder#endpoint(String)}.
+ *
+ * Every message is answered after a random latency within the configured range. A share of the messages can be
+ * answered with HTTP 500 or throttled with HTTP 429, and registrationIds can be rewritten to canonical ones or
+ * reported as unregistered. The behavior can be changed while requests are served.
+ */
+public final class MockAdmServer implements Closeable {
+
+    private static final String MESSAGES_PREFIX = Utilities.MESSAGES_PATH_TEMPLATE.substring(0, Utilities.MESSAGES_PATH_TEMPLATE.indexOf('%'));
+    private static final String TOKEN_PREFIX = "mock-token-";
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final AtomicInteger tokens = new AtomicInteger();
+    private final AtomicLongArray messageStatusCounts = new AtomicLongArray(600);
+    private final ConcurrentMap<String, String> canonicalIds = new ConcurrentHashMap<String, String>();
+    private final Set<String> unregistered = ConcurrentHashMap.newKeySet();
+
+    private volatile long minLatency;
+    private volatile long maxLatency;
+    private volatile double errorRate;
+    private volatile double throttleRate;
+    private volatile long retryAfter;
+    private volatile double canonicalRate;
+
+    /**
+     * Starts the server on a free port.
+     *
+     * @throws IOException if the server cannot be started
+     */
+    public MockAdmServer() throws IOException {
+        // without it, delayed ACKs of the small responses dominate the latency
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        workers = Executors.newCachedThreadPool(new NamedThreadFactory("mock-adm"));
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.setExecutor(workers);
+        server.createContext(Utilities.TOKEN_PATH, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                handleToken(exchange);
+            }
+        });
+        server.createContext(MESSAGES_PREFIX, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                handleMessage(exchange);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @param minLatency the minimum time a message is answered after, in milliseconds
+     * @param maxLatency the maximum time a message is answered after, in milliseconds
+     * @return this server
+     */
+    public MockAdmServer latency(final long minLatency, final long maxLatency) {
+        if (minLatency < 0 || maxLatency < minLatency) {
+            throw new IllegalArgumentException("the latency must not be negative and maxLatency must not be below minLatency");
+        }
+        this.minLatency = minLatency;
+        this.maxLatency = maxLatency;
+        return this;
+    }
+
+    /**
+     * @param errorRate the share of messages answered with HTTP 500, between 0 and 1
+     * @return this server
+     */
+    public MockAdmServer errorRate(final double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * @param throttleRate the share of messages answered with HTTP 429, between 0 and 1
+     * @param retryAfter the value of the {@code Retry-After} header, in seconds
+     * @return this server
+     */
+    public MockAdmServer throttleRate(final double throttleRate, final long retryAfter) {
+        this.throttleRate = throttleRate;
+        this.retryAfter = retryAfter;
+        return this;
+    }
+
+    /**
+     * @param canonicalRate the share of messages answered with the canonical registrationId {@code <registrationId>-canonical}
+     * @return this server
+     */
+    public MockAdmServer canonicalRate(final double canonicalRate) {
+        this.canonicalRate = canonicalRate;
+        return this;
+    }
+
+    /**
+     * @param registrationId which has been replaced
+     * @param canonicalRegistrationId returned for every message to the registrationId
+     * @return this server
+     */
+    public MockAdmServer canonicalId(final String registrationId, final String canonicalRegistrationId) {
+        canonicalIds.put(registrationId, canonicalRegistrationId);
+        return this;
+    }
+
+    /**
+     * @param registrationId answered with HTTP 410 and the reason {@code Unregistered}
+     * @return this server
+     */
+    public MockAdmServer unregistered(final String registrationId) {
+        unregistered.add(registrationId);
+        return this;
+    }
+
+    /**
+     * @return the base URL of the server, to be passed to {@link org.jboss.aerogear.adm.AdmServiceBuilder#endpoint(String)}
+     */
+    public String getEndpoint() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return the number of tokens handed out
+     */
+    public int getTokenCount() {
+        return tokens.get();
+    }
+
+    /**
+     * @return the number of messages received
+     */
+    public long getMessageCount() {
+        long count = 0;
+        for (int i = 0; i < messageStatusCounts.length(); i++) {
+            count += messageStatusCounts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param status an HTTP status code
+     * @return the number of messages answered with the status code
+     */
+    public long getMessageCount(final int status) {
+        return messageStatusCounts.get(status);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        workers.shutdownNow();
+    }
+
+    private void handleToken(final HttpExchange exchange) throws IOException {
+        final String body = new String(readAll(exchange), Utilities.UTF_8_CHARSET);
+        if (!body.contains("grant_type=client_credentials") || !body.contains("client_id=")) {
+            respond(exchange, 400, "{\"error\":\"invalid_request\"}");
+            return;
+        }
+        respond(exchange, 200, "{\"access_token\":\"" + TOKEN_PREFIX + tokens.incrementAndGet() + "\",\"expires_in\":3600}");
+    }
+
+    private void handleMessage(final HttpExchange exchange) throws IOException {
+        readAll(exchange);
+        final String path = exchange.getRequestURI().getPath();
+        final String registrationId = path.substring(MESSAGES_PREFIX.length(), path.lastIndexOf('/'));
+        final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        final long latency = minLatency + (maxLatency > minLatency ? random.nextLong(maxLatency - minLatency + 1) : 0);
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.close();
+                return;
+            }
+        }
+
+        if (authorization == null || !authorization.startsWith("Bearer " + TOKEN_PREFIX)) {
+            respondMessage(exchange, 401, "{\"reason\":\"AccessTokenExpired\"}");
+        } else if (unregistered.contains(registrationId)) {
+            respondMessage(exchange, 410, "{\"reason\":\"Unregistered\"}");
+        } else if (random.nextDouble() < throttleRate) {
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfter));
+            respondMessage(exchange, 429, "{\"reason\":\"MaxRateExceeded\"}");
+        } else if (random.nextDouble() < errorRate) {
+            respondMessage(exchange, 500, "{\"reason\":\"InternalServerError\"}");
+        } else {
+            String canonicalRegistrationId = canonicalIds.get(registrationId);
+            if (canonicalRegistrationId == null) {
+                canonicalRegistrationId = random.nextDouble() < canonicalRate ? registrationId + "-canonical" : registrationId;
+            }
+            respondMessage(exchange, 200, "{\"registrationID\":\"" + canonicalRegistrationId + "\"}");
+        }
+    }
+
+    private void respondMessage(final HttpExchange exchange, final int status, final String body) throws IOException {
+        messageStatusCounts.incrementAndGet(status);
+        exchange.getResponseHeaders().set("X-Amzn-RequestId", String.valueOf(System.nanoTime()));
+        respond(exchange, status, body);
+    }
+
+    private static byte[] readAll(final HttpExchange exchange) throws IOException {
+        final InputStream in = exchange.getRequestBody();
+        try {
+            return in.readAllBytes();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String body) throws IOException {
+        final byte[] bytes = body.getBytes(Utilities.UTF_8_CHARSET);
+        exchange.getResponseHeaders().set("Content-Type", Utilities.APPLICATION_JSON);
+        exchange.sendResponseHeaders(status, bytes.length);
+        final OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.mock;
+
+import org.jboss.aerogear.adm.ADM;
+import org.jboss.aerogear.adm.AdmException;
+import org.jboss.aerogear.adm.AdmService;
+import org.jboss.aerogear.adm.CompiledPayload;
+import org.jboss.aerogear.adm.RetryPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MockAdmServerTest {
+
+    private MockAdmServer server;
+    private AdmService service;
+    private final CompiledPayload payload = ADM.newPayload().dataField("key", "value").compile();
+
+    @Before
+    public void start() throws IOException {
+        server = new MockAdmServer();
+        service = ADM.newServiceBuilder()
+                .endpoint(server.getEndpoint())
+                .retryPolicy(RetryPolicy.NONE)
+                .maxInFlightRequests(32)
+                .build();
+    }
+
+    @After
+    public void stop() throws IOException {
+        service.close();
+        server.close();
+    }
+
+    @Test
+    public void testSend() throws Exception {
+        server.canonicalId("old", "new");
+
+        assertEquals("device", service.sendMessageToDevice("device", "client", "secret", payload));
+        assertEquals("new", service.sendMessageToDevice("old", "client", "secret", payload));
+        assertEquals(1, server.getTokenCount());
+        assertEquals(2, server.getMessageCount(200));
+    }
+
+    @Test
+    public void testUnregistered() throws Exception {
+        server.unregistered("gone");
+        try {
+            service.sendMessageToDevice("gone", "client", "secret", payload);
+            fail("AdmException expected");
+        } catch (AdmException e) {
+            assertEquals(410, e.getStatusCode());
+            assertEquals("Unregistered", e.getReason());
+        }
+    }
+
+    @Test
+    public void testThrottled() throws Exception {
+        server.throttleRate(1, 0);
+        try {
+            service.sendMessageToDevice("device", "client", "secret", payload);
+            fail("AdmException expected");
+        } catch (AdmException e) {
+            assertEquals(429, e.getStatusCode());
+            assertEquals("MaxRateExceeded", e.getReason());
+        }
+        assertEquals(1, server.getMessageCount(429));
+    }
+
+    @Test
+    public void testLoadDriver() throws Exception {
+        server.latency(1, 5).errorRate(0.1);
+
+        final LoadReport report = new LoadDriver(service, "client", "secret", payload).run(500, 400, 50);
+
+        assertEquals(200, report.getSuccessCount() + report.getFailureCount());
+        assertEquals(server.getMessageCount(500), report.getFailureCount());
+        assertEquals(200, report.getLatency().getCount());
+        assertTrue(report.getThroughput() > 0);
+        assertTrue(report.getLatency().getPercentile(50) >= 1000000);
+        assertTrue(report.getLatency().getPercentile(50) <= report.getLatency().getPercentile(99));
+        assertTrue(report.getLatency().getPercentile(99) <= report.getLatency().getPercentile(99.9));
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.spool;
+
+import org.jboss.aerogear.adm.internal.Utilities;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResumeFromAckedOffset() throws Exception {
+        final File directory = folder.newFolder();
+        final Journal journal = new Journal(directory, 4096);
+        for (int i = 0; i < 3; i++) {
+            journal.append("device" + i, null, payload(i), 1234L + i);
+        }
+        final SpooledMessage first = journal.take();
+        final SpooledMessage second = journal.take();
+        journal.ack(second);
+        journal.ack(first);
+        // taken, but not acknowledged before the "crash"
+        journal.take();
+        assertEquals(1, journal.getPendingCount());
+        journal.close();
+
+        final Journal reopened = new Journal(directory, 4096);
+        assertEquals(1, reopened.getPendingCount());
+        final SpooledMessage message = reopened.take();
+        assertEquals("device2", message.getRegistrationId());
+        assertEquals("{\"data\":{\"n\":\"2\"}}", message.getPayload().toString());
+        assertEquals(1236L, message.getExpiresAt());
+
+        reopened.append("device3", null, payload(3), 0);
+        assertEquals("device3", reopened.take().getRegistrationId());
+    }
+
+    @Test
+    public void testSegmentsAreRolledAndDeleted() throws Exception {
+        final File directory = folder.newFolder();
+        final Journal journal = new Journal(directory, 1024);
+        for (int i = 0; i < 100; i++) {
+            journal.append("device" + i, null, payload(i), 0);
+        }
+        assertTrue(segmentCount(directory) > 3);
+
+        for (int i = 0; i < 100; i++) {
+            final SpooledMessage message = journal.take();
+            assertEquals("device" + i, message.getRegistrationId());
+            journal.ack(message);
+        }
+        assertEquals(0, journal.getPendingCount());
+        assertEquals(1, segmentCount(directory));
+        journal.close();
+
+        assertEquals(0, new Journal(directory, 1024).getPendingCount());
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws Exception {
+        final File directory = folder.newFolder();
+        final Journal journal = new Journal(directory, 4096);
+        journal.append("device0", null, payload(0), 0);
+        final long torn = journal.append("device1", null, payload(1), 0);
+        journal.sync();
+        journal.close();
+
+        final RandomAccessFile segment = new RandomAccessFile(new File(directory, String.format("%020d%s", 0, Journal.SEGMENT_SUFFIX)), "rw");
+        segment.seek(torn + 20);
+        segment.write(0x7f);
+        segment.close();
+
+        final Journal reopened = new Journal(directory, 4096);
+        assertEquals(1, reopened.getPendingCount());
+        assertEquals("device0", reopened.take().getRegistrationId());
+        reopened.append("device2", null, payload(2), 0);
+        assertEquals("device2", reopened.take().getRegistrationId());
+    }
+
+    @Test
+    public void testConsolidatedMessagesAreSuperseded() throws Exception {
+        final File directory = folder.newFolder();
+        final Journal journal = new Journal(directory, 4096);
+        journal.append("device", "score", payload(0), 0);
+        journal.append("other", "score", payload(1), 0);
+        journal.append("device", null, payload(2), 0);
+        journal.append("device", "score", payload(3), 0);
+        journal.close();
+
+        // the newest message per registrationId and key is recovered after a restart
+        final Journal reopened = new Journal(directory, 4096);
+        final SpooledMessage superseded = reopened.take();
+        assertTrue(reopened.claim(reopened.take()));
+        assertTrue(reopened.claim(reopened.take()));
+        final SpooledMessage newest = reopened.take();
+        assertEquals("score", newest.getConsolidationKey());
+        assertTrue(reopened.claim(newest));
+        // an older message dispatched after the newer one is still superseded
+        assertFalse(reopened.claim(superseded));
+
+        // once the newest message has been sent, an older one dispatched later is still superseded
+        reopened.ack(newest);
+        assertFalse(reopened.claim(superseded));
+        reopened.ack(superseded);
+
+        // with all of them handled, a new message is sent as usual
+        reopened.append("device", "score", payload(4), 0);
+        final SpooledMessage next = reopened.take();
+        assertTrue(reopened.claim(next));
+
+        // a message appended while the newest one is being sent supersedes neither
+        reopened.append("device", "score", payload(5), 0);
+        assertTrue(reopened.claim(reopened.take()));
+        reopened.ack(next);
+        assertEquals(3, reopened.getPendingCount());
+    }
+
+    @Test
+    public void testDeadlineOrder() throws Exception {
+        final Journal journal = new Journal(folder.newFolder(), 4096);
+        final long now = System.currentTimeMillis();
+        journal.append("bulk0", null, payload(0), 0);
+        journal.append("late", null, payload(1), now + 60000);
+        journal.append("bulk1", null, payload(2), 0);
+        journal.append("soon", null, payload(3), now + 1000);
+
+        final DeadlineQueue queue = new DeadlineQueue(journal, 16);
+        assertEquals("soon", queue.take().getRegistrationId());
+        assertEquals("late", queue.take().getRegistrationId());
+        assertEquals("bulk0", queue.take().getRegistrationId());
+        final SpooledMessage last = queue.take();
+        assertEquals("bulk1", last.getRegistrationId());
+        assertTrue(last.getEnqueuedAt() >= now);
+
+        // without read ahead, the order of the journal is kept
+        journal.append("bulk2", null, payload(4), 0);
+        journal.append("urgent", null, payload(5), now + 1000);
+        final DeadlineQueue fifo = new DeadlineQueue(journal, 1);
+        assertEquals("bulk2", fifo.take().getRegistrationId());
+        assertEquals("urgent", fifo.take().getRegistrationId());
+    }
+
+    @Test
+    public void testOvertakingIsBounded() throws Exception {
+        final Journal journal = new Journal(folder.newFolder(), 1 << 16);
+        final long now = System.currentTimeMillis();
+        journal.append("bulk", null, payload(0), 0);
+        final DeadlineQueue queue = new DeadlineQueue(journal, 4);
+
+        // continuous expiring traffic, always earlier than the message without expiry
+        int overtaken = 0;
+        for (int i = 1; ; i++) {
+            journal.append("urgent" + i, null, payload(i), now + 60000);
+            final SpooledMessage next = queue.take();
+            journal.ack(next);
+            if ("bulk".equals(next.getRegistrationId())) {
+                break;
+            }
+            overtaken++;
+            assertTrue(overtaken <= 4);
+        }
+        assertEquals(4, overtaken);
+    }
+
+    private static byte[] payload(final int i) {
+        return ("{\"data\":{\"n\":\"" + i + "\"}}").getBytes(Utilities.UTF_8_CHARSET);
+    }
+
+    private static int segmentCount(final File directory) {
+        int count = 0;
+        for (String name : directory.list()) {
+            if (name.endsWith(Journal.SEGMENT_SUFFIX)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.spool;
+
+import org.jboss.aerogear.adm.ADM;
+import org.jboss.aerogear.adm.AdmService;
+import org.jboss.aerogear.adm.CircuitOpenException;
+import org.jboss.aerogear.adm.CompiledPayload;
+import org.jboss.aerogear.adm.internal.Utilities;
+import org.jboss.aerogear.adm.transport.StubHttpTransport;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MessageSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMessagesAreDrained() throws Exception {
+        final StubHttpTransport transport = new StubHttpTransport().respond(400, "{\"reason\":\"InvalidRegistrationId\"}");
+        final AdmService service = ADM.newServiceBuilder().transport(transport).build();
+        final RecordingListener listener = new RecordingListener(22);
+        final MessageSpool spool = MessageSpool.newBuilder(service)
+                .directory(folder.newFolder())
+                .credentials("id", "secret")
+                .listener(listener)
+                .build();
+
+        for (int i = 0; i < 20; i++) {
+            spool.enqueue("device" + i, "{\"data\":{}}");
+        }
+        spool.enqueue("expired", CompiledPayload.of("{}"), System.currentTimeMillis() - 1);
+        spool.enqueue("elapsed", ADM.newPayload().expiresAfter(0).compile(), 0);
+
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        assertEquals(19, listener.sent.size());
+        assertEquals(1, listener.failed.size());
+        assertTrue(listener.expired.contains("expired"));
+        assertTrue(listener.expired.contains("elapsed"));
+        // the listener is informed right before the message is acknowledged
+        spool.close();
+        assertEquals(0, spool.getPendingCount());
+        service.close();
+    }
+
+    @Test
+    public void testMessagesAreCoalesced() throws Exception {
+        final CountDownLatch taken = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+        final AdmService service = new AdmService() {
+            @Override
+            public String sendMessageToDevice(String registrationId, String clientId, String clientSecret, CompiledPayload payload) throws Exception {
+                // hold the worker, so that the following messages queue up
+                taken.countDown();
+                release.await();
+                sent.add(payload.toString());
+                return registrationId;
+            }
+        };
+        final RecordingListener listener = new RecordingListener(5);
+        final MessageSpool spool = MessageSpool.newBuilder(service).directory(folder.newFolder()).credentials("id", "secret")
+                .workers(1).listener(listener).build();
+
+        final CompiledPayload score = ADM.newPayload().templateField("score").consolidationKey("match").compile();
+        spool.enqueue("device", score.with("score", "0:0"));
+        assertTrue(taken.await(5, TimeUnit.SECONDS));
+        spool.enqueue("device", score.with("score", "1:0"));
+        spool.enqueue("device", score.with("score", "2:0"));
+        spool.enqueue("other", score.with("score", "2:0"));
+        spool.enqueue("device", score.with("score", "2:1"));
+        release.countDown();
+
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, sent.size());
+        assertTrue(sent.get(0).contains("0:0"));
+        assertEquals(2, listener.coalesced.size());
+        assertTrue(sent.get(2).contains("2:1"));
+        spool.close();
+        service.close();
+    }
+
+    @Test
+    public void testPendingMessagesAreSentAfterRestart() throws Exception {
+        final File directory = folder.newFolder();
+
+        // messages left behind by a process which stopped before sending them
+        final Journal journal = new Journal(directory, MessageSpool.DEFAULT_SEGMENT_SIZE);
+        journal.append("device0", null, "{}".getBytes(Utilities.UTF_8_CHARSET), 0);
+        journal.append("device1", null, "{}".getBytes(Utilities.UTF_8_CHARSET), 0);
+        journal.close();
+
+        final AdmService service = ADM.newServiceBuilder().transport(new StubHttpTransport()).build();
+        final RecordingListener listener = new RecordingListener(2);
+        final MessageSpool spool = MessageSpool.newBuilder(service).directory(directory).credentials("id", "secret").listener(listener).build();
+
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        assertTrue(listener.sent.contains("device0"));
+        assertTrue(listener.sent.contains("device1"));
+        spool.close();
+        service.close();
+    }
+
+    @Test
+    public void testCloseWhileCircuitIsOpen() throws Exception {
+        final CountDownLatch attempted = new CountDownLatch(1);
+        final AdmService service = new AdmService() {
+            @Override
+            public String sendMessageToDevice(String registrationId, String clientId, String clientSecret, CompiledPayload payload) {
+                attempted.countDown();
+                throw new CircuitOpenException();
+            }
+        };
+        final File directory = folder.newFolder();
+        final MessageSpool spool = MessageSpool.newBuilder(service).directory(directory).credentials("id", "secret")
+                .syncInterval(10).build();
+        spool.enqueue("device", "{}");
+        assertTrue(attempted.await(5, TimeUnit.SECONDS));
+
+        final long started = System.nanoTime();
+        spool.close();
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(MessageSpool.CIRCUIT_OPEN_PAUSE / 2));
+        // the message is kept for the next start
+        assertEquals(1, spool.getPendingCount());
+        service.close();
+    }
+
+    private static final class RecordingListener implements SpoolListener {
+
+        private final Set<String> sent = ConcurrentHashMap.newKeySet();
+        private final Set<String> failed = ConcurrentHashMap.newKeySet();
+        private final Set<String> expired = ConcurrentHashMap.newKeySet();
+        private final Set<String> coalesced = ConcurrentHashMap.newKeySet();
+        private final CountDownLatch done;
+
+        RecordingListener(final int expected) {
+            this.done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onSent(final SpooledMessage message, final String canonicalRegistrationId) {
+            sent.add(message.getRegistrationId());
+            done.countDown();
+        }
+
+        @Override
+        public void onFailed(final SpooledMessage message, final Exception error) {
+            failed.add(message.getRegistrationId());
+            done.countDown();
+        }
+
+        @Override
+        public void onExpired(final SpooledMessage message) {
+            expired.add(message.getRegistrationId());
+            done.countDown();
+        }
+
+        @Override
+        public void onCoalesced(final SpooledMessage message) {
+            coalesced.add(message.getPayload().toString());
+            done.countDown();
+        }
+    }
+}
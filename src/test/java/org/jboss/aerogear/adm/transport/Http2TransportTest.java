@@ -0,0 +1,103 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.transport;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jboss.aerogear.adm.internal.Utilities;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+public class Http2TransportTest {
+
+    private HttpServer server;
+    private final CopyOnWriteArrayList<Headers> receivedHeaders = new CopyOnWriteArrayList<Headers>();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                receivedHeaders.add(exchange.getRequestHeaders());
+                final String request = new String(exchange.getRequestBody().readAllBytes(), Utilities.UTF_8_CHARSET);
+                final byte[] response = ("{\"echo\":\"" + request + "\"}").getBytes(Utilities.UTF_8_CHARSET);
+                exchange.getResponseHeaders().add("Retry-After", "5");
+                exchange.sendResponseHeaders(429, response.length);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testPost() throws Exception {
+        final TransportResponse response = new Http2Transport().post(url(), headers(), "payload".getBytes(Utilities.UTF_8_CHARSET));
+
+        assertEquals(429, response.getStatusCode());
+        assertEquals("5", response.getHeader("retry-after"));
+        assertEquals("{\"echo\":\"payload\"}", Utilities.parseResponse(response.getBody()));
+    }
+
+    @Test
+    public void testSameHeadersAsPooledTransport() throws Exception {
+        final PooledHttpTransport pooled = new PooledHttpTransport();
+        pooled.post(url(), headers(), new byte[0]);
+        pooled.close();
+        new Http2Transport().post(url(), headers(), new byte[0]);
+
+        for (Map.Entry<String, String> header : headers().entrySet()) {
+            assertEquals(header.getValue(), receivedHeaders.get(0).getFirst(header.getKey()));
+            assertEquals(header.getValue(), receivedHeaders.get(1).getFirst(header.getKey()));
+        }
+    }
+
+    private URL url() throws IOException {
+        return new URL("http://localhost:" + server.getAddress().getPort() + "/messaging/registrations/device/messages");
+    }
+
+    private static Map<String, String> headers() {
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("content-type", "application/json");
+        headers.put("accept", "application/json");
+        headers.put("X-Amzn-Type-Version", "com.amazon.device.messaging.ADMMessage@1.0");
+        headers.put("X-Amzn-Accept-Type", "com.amazon.device.messaging.ADMSendResult@1.0");
+        headers.put("Authorization", "Bearer token");
+        return headers;
+    }
+}
@@ -0,0 +1,373 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.transport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jboss.aerogear.adm.internal.Utilities;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PooledHttpTransportTest {
+
+    private HttpServer server;
+    private final Set<Integer> clientPorts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    // holds back the response to "/slow"
+    private final CountDownLatch slowResponse = new CountDownLatch(1);
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+
+                final byte[] request = readAll(exchange.getRequestBody());
+                if (exchange.getRequestURI().getPath().equals("/slow")) {
+                    try {
+                        slowResponse.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                final String type = exchange.getRequestHeaders().getFirst("content-type");
+                final byte[] response = ("echo:" + type + ":" + new String(request, Utilities.UTF_8_CHARSET)).getBytes(Utilities.UTF_8_CHARSET);
+
+                exchange.getResponseHeaders().add("X-Path", exchange.getRequestURI().getPath());
+                final int status = exchange.getRequestURI().getPath().equals("/error") ? 500 : 200;
+                // "/chunked" answers without Content-Length, forcing a chunked response
+                exchange.sendResponseHeaders(status, exchange.getRequestURI().getPath().equals("/chunked") ? 0 : response.length);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        slowResponse.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testPostAndReuseConnection() throws Exception {
+        final PooledHttpTransport transport = new PooledHttpTransport();
+        for (int i = 0; i < 5; i++) {
+            final TransportResponse response = transport.post(url("/messages"), headers(), ("body" + i).getBytes(Utilities.UTF_8_CHARSET));
+            assertEquals(200, response.getStatusCode());
+            assertEquals("/messages", response.getHeader("x-path"));
+            assertEquals("echo:application/json:body" + i, Utilities.parseResponse(response.getBody()));
+            // only the first request pays for the connection
+            assertEquals(i == 0, response.getConnectTime() > 0);
+            assertTrue(response.getResponseTime() > 0);
+        }
+        assertEquals(1, clientPorts.size());
+        assertEquals(1, transport.getIdleConnectionCount());
+        transport.close();
+        assertEquals(0, transport.getIdleConnectionCount());
+    }
+
+    @Test
+    public void testPreconnect() throws Exception {
+        final PooledHttpTransport transport = new PooledHttpTransport(2, 1000, 1000, 60000);
+
+        assertEquals(2, transport.preconnect(url("/"), 3));
+        assertEquals(2, transport.getIdleConnectionCount());
+        assertEquals(0, transport.preconnect(url("/"), 2));
+
+        // the request uses a connection opened before and does not report its handshake
+        final TransportResponse response = transport.post(url("/messages"), headers(), new byte[0]);
+        assertEquals(200, response.getStatusCode());
+        assertEquals(0, response.getConnectTime());
+        assertEquals(2, transport.getIdleConnectionCount());
+        transport.close();
+    }
+
+    @Test
+    public void testChunkedAndErrorResponses() throws Exception {
+        final PooledHttpTransport transport = new PooledHttpTransport();
+
+        final TransportResponse chunked = transport.post(url("/chunked"), headers(), "chunks".getBytes(Utilities.UTF_8_CHARSET));
+        assertEquals("echo:application/json:chunks", Utilities.parseResponse(chunked.getBody()));
+
+        final TransportResponse error = transport.post(url("/error"), headers(), "failure".getBytes(Utilities.UTF_8_CHARSET));
+        assertEquals(500, error.getStatusCode());
+        assertEquals("echo:application/json:failure", Utilities.parseResponse(error.getBody()));
+
+        assertEquals(1, clientPorts.size());
+        transport.close();
+    }
+
+    @Test
+    public void testIdleConnectionsAreEvicted() throws Exception {
+        final PooledHttpTransport transport = new PooledHttpTransport(4, 1000, 1000, 100);
+
+        transport.post(url("/messages"), headers(), new byte[0]);
+        assertEquals(1, transport.getIdleConnectionCount());
+
+        Thread.sleep(400);
+        assertEquals(0, transport.getIdleConnectionCount());
+
+        transport.post(url("/messages"), headers(), new byte[0]);
+        assertEquals(2, clientPorts.size());
+        transport.close();
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final PooledHttpTransport transport = new PooledHttpTransport();
+        final RequestHandle handle = new RequestHandle();
+        final Thread canceller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                handle.cancel();
+            }
+        });
+        canceller.start();
+
+        final long started = System.nanoTime();
+        try {
+            transport.post(url("/slow"), headers(), new byte[0], handle);
+            fail("InterruptedIOException expected");
+        } catch (InterruptedIOException e) {
+            assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(2));
+        }
+        // the aborted connection is not reused
+        assertEquals(0, transport.getIdleConnectionCount());
+
+        try {
+            transport.post(url("/messages"), headers(), new byte[0], handle);
+            fail("InterruptedIOException expected");
+        } catch (InterruptedIOException e) {
+            assertTrue(handle.isCancelled());
+        }
+        transport.close();
+    }
+
+    @Test
+    public void testStaleConnectionIsReplaced() throws Exception {
+        // answers every request and closes the connection right after, although it announces keep-alive
+        final RawServer raw = new RawServer(Integer.MAX_VALUE, true);
+        final PooledHttpTransport transport = new PooledHttpTransport(4, 1000, 1000, 60000);
+
+        assertEquals(200, transport.post(raw.url(), headers(), new byte[0]).getStatusCode());
+        Thread.sleep(100);
+        assertEquals(200, transport.post(raw.url(), headers(), new byte[0]).getStatusCode());
+        assertEquals(2, raw.requests.get());
+        transport.close();
+        raw.close();
+    }
+
+    @Test
+    public void testReadTimeoutIsNotRetried() throws Exception {
+        // answers the first request only
+        final RawServer raw = new RawServer(1, false);
+        final PooledHttpTransport transport = new PooledHttpTransport(4, 1000, 300, 60000);
+
+        assertEquals(200, transport.post(raw.url(), headers(), new byte[0]).getStatusCode());
+        final long started = System.nanoTime();
+        try {
+            transport.post(raw.url(), headers(), new byte[0]);
+            fail("SocketTimeoutException expected");
+        } catch (SocketTimeoutException e) {
+            assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(550));
+        }
+        Thread.sleep(100);
+        assertEquals(2, raw.requests.get());
+        transport.close();
+        raw.close();
+    }
+
+    @Test
+    public void testWaitForConnectionIsBounded() throws Exception {
+        final PooledHttpTransport transport = new PooledHttpTransport(1, 200, 5000, 60000);
+        final Thread blocker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    transport.post(url("/slow"), headers(), new byte[0]);
+                } catch (IOException e) {
+                    // released at the end of the test
+                }
+            }
+        });
+        blocker.start();
+        Thread.sleep(100);
+
+        try {
+            transport.post(url("/messages"), headers(), new byte[0]);
+            fail("SocketTimeoutException expected");
+        } catch (SocketTimeoutException e) {
+            assertTrue(e.getMessage().contains("1 connections"));
+        }
+        slowResponse.countDown();
+        blocker.join();
+        transport.close();
+    }
+
+    /**
+     * A bare HTTP server counting the requests it receives, for misbehaviour the JDK server cannot produce.
+     */
+    private static final class RawServer implements Runnable {
+
+        private final ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        private final int answered;
+        private final boolean closeAfterResponse;
+        private final AtomicInteger requests = new AtomicInteger();
+
+        RawServer(final int answered, final boolean closeAfterResponse) throws IOException {
+            this.answered = answered;
+            this.closeAfterResponse = closeAfterResponse;
+            final Thread acceptor = new Thread(this);
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        URL url() throws IOException {
+            return new URL("http://localhost:" + socket.getLocalPort() + "/messages");
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket connection = socket.accept();
+                    final Thread handler = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(connection);
+                        }
+                    });
+                    handler.setDaemon(true);
+                    handler.start();
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private void serve(final Socket connection) {
+            try {
+                final InputStream in = connection.getInputStream();
+                final OutputStream out = connection.getOutputStream();
+                while (true) {
+                    int contentLength = 0;
+                    String line = readLine(in);
+                    if (line == null) {
+                        return;
+                    }
+                    while (!line.isEmpty()) {
+                        if (line.toLowerCase().startsWith("content-length:")) {
+                            contentLength = Integer.parseInt(line.substring(15).trim());
+                        }
+                        line = readLine(in);
+                    }
+                    for (int i = 0; i < contentLength; i++) {
+                        in.read();
+                    }
+                    if (requests.incrementAndGet() > answered) {
+                        // keep the connection open without ever answering
+                        continue;
+                    }
+                    out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\n{}".getBytes(Utilities.UTF_8_CHARSET));
+                    out.flush();
+                    if (closeAfterResponse) {
+                        connection.close();
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                // the client went away
+            }
+        }
+
+        private static String readLine(final InputStream in) throws IOException {
+            final StringBuilder line = new StringBuilder();
+            int b = in.read();
+            while (b != '\n') {
+                if (b == -1) {
+                    return null;
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+                b = in.read();
+            }
+            return line.toString();
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private URL url(final String path) throws IOException {
+        return new URL("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private static Map<String, String> headers() {
+        final Map<String, String> headers = new HashMap<String, String>();
+        headers.put("content-type", "application/json");
+        return headers;
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int read = in.read(buffer);
+        while (read != -1) {
+            out.write(buffer, 0, read);
+            read = in.read(buffer);
+        }
+        return out.toByteArray();
+    }
+}
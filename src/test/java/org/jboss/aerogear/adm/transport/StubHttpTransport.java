@@ -0,0 +1,130 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.aerogear.adm.transport;
+
+import org.jboss.aerogear.adm.internal.Utilities;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-process {@link HttpTransport} emulating the ADM endpoints. The token endpoint hands out
+ * a new token for every request, the message endpoint answers with the queued responses and
+ * confirms the registrationId once the queue is empty.
+ */
+public class StubHttpTransport implements HttpTransport {
+
+    private static final Pattern MESSAGE_PATH = Pattern.compile("/messaging/registrations/([^/]+)/messages");
+
+    private final Deque<TransportResponse> responses = new ConcurrentLinkedDeque<TransportResponse>();
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+    private final AtomicInteger tokens = new AtomicInteger();
+
+    /**
+     * Queues a response for the message endpoint.
+     */
+    public StubHttpTransport respond(final int statusCode, final String body) {
+        return respond(statusCode, Collections.<String, String>emptyMap(), body);
+    }
+
+    /**
+     * Queues a response with headers for the message endpoint.
+     */
+    public StubHttpTransport respond(final int statusCode, final Map<String, String> headers, final String body) {
+        responses.add(new TransportResponse(statusCode, headers, body.getBytes(Utilities.UTF_8_CHARSET)));
+        return this;
+    }
+
+    @Override
+    public TransportResponse post(final URL url, final Map<String, String> headers, final byte[] body) {
+        requests.add(new Request(url, headers, body));
+
+        if (url.getPath().equals("/auth/O2/token")) {
+            final String token = "{\"access_token\":\"token-" + tokens.incrementAndGet() + "\",\"expires_in\":3600}";
+            return new TransportResponse(200, Collections.<String, String>emptyMap(), token.getBytes(Utilities.UTF_8_CHARSET));
+        }
+
+        final TransportResponse queued = responses.poll();
+        if (queued != null) {
+            return queued;
+        }
+
+        final Matcher matcher = MESSAGE_PATH.matcher(url.getPath());
+        if (!matcher.matches()) {
+            return new TransportResponse(404, Collections.<String, String>emptyMap(), new byte[0]);
+        }
+        final String result = "{\"registrationID\":\"" + matcher.group(1) + "\"}";
+        return new TransportResponse(200, Collections.<String, String>emptyMap(), result.getBytes(Utilities.UTF_8_CHARSET));
+    }
+
+    /**
+     * @return all requests received so far
+     */
+    public List<Request> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<Request>(requests);
+        }
+    }
+
+    /**
+     * @return the number of tokens handed out so far
+     */
+    public int getTokenCount() {
+        return tokens.get();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * A request received by the stub.
+     */
+    public static final class Request {
+
+        private final URL url;
+        private final Map<String, String> headers;
+        private final byte[] body;
+
+        Request(final URL url, final Map<String, String> headers, final byte[] body) {
+            this.url = url;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public URL getUrl() {
+            return url;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public String getBody() {
+            return new String(body, Utilities.UTF_8_CHARSET);
+        }
+    }
+}